@@ -0,0 +1,119 @@
+package com.navarchos.Navarchos;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.kafka.support.Acknowledgment;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One message through the consumer, from the record bytes to the window: decoding, the routing by the
+ * sample gate in the record listener, and on the device worker the assignment lookup, the raw insert, the
+ * window sample and, every `step` messages, the correlation, with the stage timers recording into an
+ * in-memory registry. One worker is used, so the throughput is that of a single device stripe; the listener
+ * waits for it when 64 messages are queued.
+ * The database is replaced by the {@link InMemoryPidRepository} and the PdM service is stubbed out.
+ *
+ * Run with `java -jar target/benchmarks.jar ConsumerBenchmark -prof gc`.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ConsumerBenchmark {
+    @Param({"1", "1000"})
+    int devices;
+
+    private final PidEventDeserializer deserializer = new PidEventDeserializer();
+    private byte[][] messages;
+    private KafkaConsumerNavarchos consumer;
+    private Method consumePidMessage;
+    private final Acknowledgment acknowledgment = () -> {
+    };
+    private DeviceDispatcher dispatcher;
+    private ResultSink resultSink;
+    private long offset;
+
+    @Setup
+    public void setUp() {
+        messages = new byte[devices][];
+        for (int i = 0; i < devices; i++) {
+            messages[i] = ParsingBenchmark.MESSAGE.replace("\"deviceId\":42", "\"deviceId\":" + i).getBytes(StandardCharsets.UTF_8);
+        }
+
+        InMemoryPidRepository pidRepository = new InMemoryPidRepository();
+        DeviceAssignmentCache assignmentCache = new DeviceAssignmentCache();
+        StubJdbc.inject(assignmentCache, "pidRepository", pidRepository);
+        StubJdbc.inject(assignmentCache, "registry", new SimpleMeterRegistry());
+        assignmentCache.listen = false;
+        assignmentCache.start();
+        PdmClient pdmClient = new PdmClient() {
+            @Override
+            public CompletableFuture<Boolean> reset(String dt, int id) {
+                return CompletableFuture.completedFuture(true);
+            }
+        };
+        PdmCoalescer pdmCoalescer = new PdmCoalescer() {
+            @Override
+            public CompletableFuture<ResponseBody> score(String dt, double[] correlationValues, int device_id) {
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        RawPidBuffer rawPidBuffer = new RawPidBuffer();
+        PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+        resultSink = new ResultSink();
+        StubJdbc.inject(resultSink, "pidRepository", pidRepository);
+        StubJdbc.inject(resultSink, "metrics", metrics);
+        resultSink.start();
+        AlarmPublisher alarmPublisher = new AlarmPublisher();
+        alarmPublisher.enabled = false;
+        dispatcher = new DeviceDispatcher();
+        dispatcher.threads = 1;
+        dispatcher.maxPending = 64;
+        dispatcher.start();
+
+        consumer = new KafkaConsumerNavarchos();
+        StubJdbc.inject(consumer, "windowEngine", new WindowEngine());
+        StubJdbc.inject(consumer, "assignmentCache", assignmentCache);
+        StubJdbc.inject(consumer, "pdmClient", pdmClient);
+        StubJdbc.inject(consumer, "pdmCoalescer", pdmCoalescer);
+        StubJdbc.inject(consumer, "pidRepository", pidRepository);
+        StubJdbc.inject(consumer, "rawPidBuffer", rawPidBuffer);
+        StubJdbc.inject(consumer, "alarmPublisher", alarmPublisher);
+        StubJdbc.inject(consumer, "deviceStates", new DeviceStateCache());
+        StubJdbc.inject(consumer, "resultSink", resultSink);
+        StubJdbc.inject(consumer, "metrics", metrics);
+        StubJdbc.inject(consumer, "sampleGate", new SampleGate());
+        StubJdbc.inject(consumer, "dispatcher", dispatcher);
+        try {
+            consumePidMessage = KafkaConsumerNavarchos.class.getDeclaredMethod("consumePidMessage", ConsumerRecord.class, Acknowledgment.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+        consumePidMessage.setAccessible(true);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() throws InterruptedException {
+        // Not measured, so at most max-pending messages of an iteration finish outside of it
+        dispatcher.awaitIdle(60000);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        dispatcher.stop();
+        resultSink.stop();
+    }
+
+    @Benchmark
+    public void consumePidMessage() throws ReflectiveOperationException {
+        byte[] message = messages[(int) (offset % devices)];
+        PidEvent event = deserializer.deserialize("PID", message);
+        consumePidMessage.invoke(consumer, new ConsumerRecord<>("PID", 0, offset++, "", event), acknowledgment);
+    }
+}
@@ -0,0 +1,125 @@
+package com.navarchos.Navarchos;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Correlation of a full window: 300 samples of the six PIDs of {@link WindowEngine#PIDS}.
+ *
+ * Run with `java -jar target/benchmarks.jar CorrelationBenchmark -prof gc`.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CorrelationBenchmark {
+    @Param("300")
+    int window;
+
+    private ArrayList<Double> boxedX;
+    private ArrayList<Double> boxedY;
+    private double[] x;
+    private double[] y;
+    private DeviceWindow deviceWindow;
+    private KafkaConsumerNavarchos consumer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        deviceWindow = new DeviceWindow(WindowEngine.PIDS.length, window, 100);
+        for (int i = 0; i < window; i++) {
+            deviceWindow.add(new double[]{
+                    95 + random.nextDouble() * 60, 70 + random.nextDouble() * 30, 1 + random.nextDouble() * 40,
+                    20 + random.nextDouble() * 100, 10 + random.nextDouble() * 40, 800 + random.nextDouble() * 3000});
+        }
+        double[][] columns = deviceWindow.columns();
+        x = columns[0];
+        y = columns[5];
+        boxedX = new ArrayList<>(window);
+        boxedY = new ArrayList<>(window);
+        for (int i = 0; i < window; i++) {
+            boxedX.add(x[i]);
+            boxedY.add(y[i]);
+        }
+
+        PdmCoalescer pdmCoalescer = new PdmCoalescer() {
+            @Override
+            public CompletableFuture<ResponseBody> score(String dt, double[] correlationValues, int device_id) {
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        InMemoryPidRepository pidRepository = new InMemoryPidRepository();
+        DeviceAssignmentCache assignmentCache = new DeviceAssignmentCache();
+        StubJdbc.inject(assignmentCache, "pidRepository", pidRepository);
+        StubJdbc.inject(assignmentCache, "registry", new SimpleMeterRegistry());
+        assignmentCache.listen = false;
+        assignmentCache.start();
+        ResultSink resultSink = new ResultSink();
+        resultSink.writeBehind = false;
+        StubJdbc.inject(resultSink, "pidRepository", pidRepository);
+        StubJdbc.inject(resultSink, "metrics", new PipelineMetrics(new SimpleMeterRegistry()));
+        AlarmPublisher alarmPublisher = new AlarmPublisher();
+        alarmPublisher.enabled = false;
+        consumer = new KafkaConsumerNavarchos();
+        StubJdbc.inject(consumer, "pdmCoalescer", pdmCoalescer);
+        StubJdbc.inject(consumer, "assignmentCache", assignmentCache);
+        StubJdbc.inject(consumer, "alarmPublisher", alarmPublisher);
+        StubJdbc.inject(consumer, "deviceStates", new DeviceStateCache());
+        StubJdbc.inject(consumer, "resultSink", resultSink);
+    }
+
+    @Benchmark
+    public double pairBoxedLists() {
+        return KafkaConsumerNavarchos.calculateCorrelation(boxedX, boxedY);
+    }
+
+    @Benchmark
+    public double pairPrimitiveArrays() {
+        return KafkaConsumerNavarchos.calculateCorrelation(x, y);
+    }
+
+    /**
+     * All 15 pairs recomputed from the samples with one pass per pair, as before the window kept running moments.
+     */
+    @Benchmark
+    public double[] windowFromSamples() {
+        double[][] columns = deviceWindow.columns();
+        double[] correlations = new double[columns.length * (columns.length - 1) / 2];
+        int k = 0;
+        for (int i = 0; i < columns.length; i++) {
+            for (int j = i + 1; j < columns.length; j++) {
+                correlations[k++] = KafkaConsumerNavarchos.calculateCorrelation(columns[i], columns[j]);
+            }
+        }
+        return correlations;
+    }
+
+    /**
+     * All 15 pairs recomputed from the samples with the blocked kernel, as on a rebase.
+     */
+    @Benchmark
+    public double[] windowKernel() {
+        return CorrelationKernel.correlations(deviceWindow.columns(), window);
+    }
+
+    @Benchmark
+    public double[] windowIncremental() {
+        return deviceWindow.correlations();
+    }
+
+    /**
+     * `findCorrelation` with the correlation saved in memory and the PdM request stubbed out, and the dashboard push disabled.
+     */
+    @Benchmark
+    public void findCorrelation() throws SQLException {
+        consumer.findCorrelation(1, "2024-03-05 07:08:09", deviceWindow);
+    }
+}
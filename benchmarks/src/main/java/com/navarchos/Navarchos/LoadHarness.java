@@ -0,0 +1,204 @@
+package com.navarchos.Navarchos;
+
+import ch.qos.logback.classic.Level;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * End-to-end load test of the consumer without external services: an embedded Kafka broker, the application
+ * with the {@link InMemoryPidRepository}, the {@link StubPdm} and the {@link PidMessageGenerator} producing
+ * messages for a fleet of devices at a fixed rate.
+ * Every second it prints the produced and committed message counts and the consumer lag; the latency is
+ * estimated from the lag with Little's law, lag divided by the message rate, since the records do not
+ * carry their production time through the pipeline. At the end it prints the throughput, the stage timers
+ * and what was stored.
+ *
+ * Run with `java -cp target/benchmarks.jar com.navarchos.Navarchos.LoadHarness --devices=1000 --rate=5000 --seconds=60`.
+ * Other options: `--partitions` of the topic (default 4), `--pdm-latency-ms` of the stub (default 5) and any
+ * property of the application, e.g. `--navarchos.kafka.batch-listener=true` or `--navarchos.workers.threads=8`.
+ */
+public final class LoadHarness {
+    private static final String GROUP = "traccar";
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        List<String> applicationArgs = new ArrayList<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            switch (option[0]) {
+                case "devices", "rate", "seconds", "partitions", "pdm-latency-ms" -> options.put(option[0], option[1]);
+                default -> applicationArgs.add(arg);
+            }
+        }
+        int devices = Integer.parseInt(options.getOrDefault("devices", "1000"));
+        int rate = Integer.parseInt(options.getOrDefault("rate", "5000"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "60"));
+        int partitions = Integer.parseInt(options.getOrDefault("partitions", "4"));
+        long pdmLatency = Long.parseLong(options.getOrDefault("pdm-latency-ms", "5"));
+
+        // The broker logs at debug until the application configures logging
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker(1, false, partitions, "PID", "PID-pdm-dlt");
+        broker.afterPropertiesSet();
+        StubPdm pdm = new StubPdm(pdmLatency);
+
+        // Ahead of the arguments, which can override them, and above application.properties
+        List<String> properties = new ArrayList<>(List.of(
+                "--spring.kafka.bootstrap-servers=" + broker.getBrokersAsString(),
+                "--spring.kafka.consumer.auto-offset-reset=earliest",
+                "--navarchos.storage=memory",
+                "--navarchos.assignments.listen=false",
+                "--navarchos.checkpoint.enabled=false",
+                "--navarchos.pdm.url=" + pdm.url(),
+                "--server.port=0",
+                "--logging.level.root=WARN",
+                "--logging.level.com.navarchos.Navarchos=WARN",
+                "--management.metrics.distribution.percentiles.navarchos.stage=0.5,0.99"));
+        properties.addAll(applicationArgs);
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(NavarchosApplication.class)
+                .run(properties.toArray(new String[0]));
+        // The consumer prints every message; keep that off the report
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        KafkaListenerEndpointRegistry listeners = context.getBean(KafkaListenerEndpointRegistry.class);
+        listeners.getListenerContainers().stream()
+                .filter(container -> container.isRunning())
+                .forEach(container -> ContainerTestUtils.waitForAssignment(container, partitions));
+
+        Map<String, Object> producerProperties = new HashMap<>();
+        producerProperties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+        producerProperties.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        producerProperties.put(ProducerConfig.BATCH_SIZE_CONFIG, 65536);
+        PidMessageGenerator generator = new PidMessageGenerator(devices, 42, 1709622489L);
+        AtomicLong produced = new AtomicLong();
+        Thread producer = new Thread(() -> {
+            try (KafkaProducer<String, byte[]> kafkaProducer = new KafkaProducer<>(producerProperties, new StringSerializer(), new ByteArraySerializer())) {
+                long total = (long) rate * seconds;
+                long started = System.nanoTime();
+                for (long i = 0; i < total; i++) {
+                    // Paced on a fixed schedule, so a slow send does not lower the offered rate
+                    long due = started + i * 1_000_000_000L / rate;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    PidMessageGenerator.Message message = generator.next();
+                    kafkaProducer.send(new ProducerRecord<>("PID", message.key(), message.value()));
+                    produced.incrementAndGet();
+                }
+            }
+        }, "load-producer");
+
+        report.printf("devices=%d rate=%d/s seconds=%d partitions=%d pdm-latency=%dms%n", devices, rate, seconds, partitions, pdmLatency);
+        report.printf("%6s %10s %10s %8s %10s %12s%n", "second", "produced", "committed", "lag", "rate/s", "latency-ms");
+        long started = System.nanoTime();
+        producer.start();
+        double maxLatency = 0;
+        double latencySum = 0;
+        int latencySamples = 0;
+        long lastCommitted = 0;
+        long lastEnd = 0;
+        long lastProgress = 0;
+        try (Admin admin = Admin.create(Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString()))) {
+            List<TopicPartition> topicPartitions = new ArrayList<>();
+            for (int partition = 0; partition < partitions; partition++) {
+                topicPartitions.add(new TopicPartition("PID", partition));
+            }
+            for (int second = 1; ; second++) {
+                Thread.sleep(1000);
+                long end = endOffsets(admin, topicPartitions);
+                long committed = committedOffsets(admin);
+                long lag = end - committed;
+                long consumed = committed - lastCommitted;
+                long arrived = end - lastEnd;
+                lastCommitted = committed;
+                lastEnd = end;
+                // Little's law: the time in the system is the number waiting over the arrival rate, which in a
+                // steady state is also the departure rate; the larger of both keeps warm-up and draining in bounds
+                long throughput = Math.max(consumed, arrived);
+                double latency = throughput > 0 ? 1000.0 * lag / throughput : Double.NaN;
+                if (consumed > 0) {
+                    lastProgress = System.nanoTime();
+                }
+                if (throughput > 0) {
+                    maxLatency = Math.max(maxLatency, latency);
+                    latencySum += latency;
+                    latencySamples++;
+                }
+                report.printf("%6d %10d %10d %8d %10d %12.1f%n", second, produced.get(), committed, lag, consumed, latency);
+                if (!producer.isAlive() && lag == 0) {
+                    break;
+                }
+                if (second > seconds * 3 + 60) {
+                    report.println("Gave up waiting for the consumer to catch up");
+                    break;
+                }
+            }
+        }
+        producer.join();
+
+        // Until the last commit seen; the offsets of the last records are only committed on a later poll
+        double elapsed = ((lastProgress == 0 ? System.nanoTime() : lastProgress) - started) / 1e9;
+        report.printf("%nConsumed %d messages in %.1f s: %.0f messages/s%n", lastCommitted, elapsed, lastCommitted / elapsed);
+        report.printf("Estimated latency: mean %.1f ms, max %.1f ms%n", latencySamples == 0 ? 0 : latencySum / latencySamples, maxLatency);
+        report.printf("%n%-16s %10s %10s %10s %10s%n", "stage", "count", "mean-us", "p50-us", "p99-us");
+        MeterRegistry registry = context.getBean(MeterRegistry.class);
+        for (Timer timer : registry.find(PipelineMetrics.STAGE_TIMER).timers()) {
+            Map<Double, Double> percentiles = Arrays.stream(timer.takeSnapshot().percentileValues())
+                    .collect(Collectors.toMap(ValueAtPercentile::percentile, value -> value.value(TimeUnit.MICROSECONDS)));
+            report.printf("%-16s %10d %10.1f %10.1f %10.1f%n", timer.getId().getTag("stage"), timer.count(),
+                    timer.mean(TimeUnit.MICROSECONDS), percentiles.getOrDefault(0.5, Double.NaN), percentiles.getOrDefault(0.99, Double.NaN));
+        }
+        InMemoryPidRepository repository = context.getBean(InMemoryPidRepository.class);
+        // Let the write-behind sink and the PdM requests still in flight finish
+        context.close();
+        report.printf("%nStored %d raw rows, %d correlations, %d PdM responses (%d alarms); the stub PdM served %d requests%n",
+                repository.rawRows(), repository.correlations(), repository.responses(), repository.alarms(), pdm.requests.sum());
+        pdm.close();
+        broker.destroy();
+        System.setOut(report);
+        System.exit(0);
+    }
+
+    private static long endOffsets(Admin admin, List<TopicPartition> partitions) throws Exception {
+        Map<TopicPartition, OffsetSpec> latest = new HashMap<>();
+        partitions.forEach(partition -> latest.put(partition, OffsetSpec.latest()));
+        return admin.listOffsets(latest).all().get().values().stream().mapToLong(info -> info.offset()).sum();
+    }
+
+    private static long committedOffsets(Admin admin) throws Exception {
+        Map<TopicPartition, OffsetAndMetadata> committed = admin.listConsumerGroupOffsets(GROUP).partitionsToOffsetAndMetadata().get();
+        return committed.entrySet().stream()
+                .filter(entry -> entry.getKey().topic().equals("PID") && entry.getValue() != null)
+                .mapToLong(entry -> entry.getValue().offset())
+                .sum();
+    }
+}
@@ -0,0 +1,63 @@
+package com.navarchos.Navarchos;
+
+import org.openjdk.jmh.annotations.*;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a Traccar message: the `PIDAttributes` rewrite into jsonb, the device time and the whole record.
+ * The `legacy` benchmarks reproduce the regex and `SimpleDateFormat` code the consumer used before.
+ *
+ * Run with `java -jar target/benchmarks.jar ParsingBenchmark -prof gc`.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParsingBenchmark {
+    static final String ATTRIBUTES = "{rpm=1500, obdSpeed=42, mapIntake=101, intakeTemp=35, coolantTemp=88, "
+            + "MAFairFlowRate=12.5, fuel=61, dtcs=[1,2,3], vin=WVW123, status={a=1}}";
+    static final String MESSAGE = "{\"id\":7,\"deviceId\":42,\"deviceTime\":\"2024-03-05 07:08:09\",\"dt\":\"2024-03-05 07:08:10\","
+            + "\"latitude\":37.98,\"longitude\":23.72,\"topic\":\"PID\",\"PIDAttributes\":\"" + ATTRIBUTES + "\"}";
+
+    private final PidAttributesParser parser = new PidAttributesParser(WindowEngine.PIDS);
+    private final PidEventDeserializer deserializer = new PidEventDeserializer();
+    private final KafkaConsumerNavarchos consumer = new KafkaConsumerNavarchos();
+    private final byte[] message = MESSAGE.getBytes(StandardCharsets.UTF_8);
+    private final String deviceTime = "2024-03-05 07:08:09";
+
+    @Benchmark
+    public String attributesLegacyRegex() {
+        return ATTRIBUTES
+                .replaceAll("(\\w+)=(\\w+|\\{[^}]*\\}|\\[[^\\]]*\\])", "\"$1\":\"$2\"")
+                .replaceAll(":\"(\\d+(\\.\\d+)*)\"", ":$1")
+                .replaceAll(":\"\\[([\\d,]+)\\]\"", ":[$1]");
+    }
+
+    @Benchmark
+    public PidAttributes attributesParser() {
+        return parser.parse(ATTRIBUTES);
+    }
+
+    @Benchmark
+    public int deviceTimeLegacy() throws ParseException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return (int) (dateFormat.parse(deviceTime).getTime() / 1000);
+    }
+
+    @Benchmark
+    public int deviceTime() {
+        return consumer.dateToUnixTimpestamp(deviceTime);
+    }
+
+    @Benchmark
+    public PidEvent message() {
+        return deserializer.deserialize("PID", message);
+    }
+}
@@ -0,0 +1,120 @@
+package com.navarchos.Navarchos;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic Traccar messages of the "PID" topic for a fleet of devices.
+ * Every device alternates between idling and driving trips. While driving, its speed follows a random walk
+ * and the other PIDs follow from it: rpm from the speed and gear, the intake pressure and air flow from the
+ * load, and the coolant warms up from the ambient temperature. Idling samples have a speed of 0 and are
+ * filtered out by the consumer, as they would be for a real fleet. The device time of a device advances by one
+ * second per message; the PID attributes are sent as the `key=value` string Traccar produces, with the
+ * other attributes of {@link ParsingBenchmark#ATTRIBUTES}.
+ */
+final class PidMessageGenerator {
+    private final Random random;
+    private final Device[] devices;
+    private final long startEpochSecond;
+    private long messages;
+
+    /**
+     * The state of a simulated vehicle.
+     */
+    private static final class Device {
+        final int id;
+        final double ambient;
+        long seconds;
+        boolean driving;
+        int phaseLeft;
+        double speed;
+        double coolant;
+
+        Device(int id, double ambient) {
+            this.id = id;
+            this.ambient = ambient;
+            this.coolant = ambient;
+        }
+    }
+
+    /**
+     * @param devices          The number of devices, with IDs from 1.
+     * @param seed             The seed of the random walks.
+     * @param startEpochSecond The device time of the first message of every device, in seconds since the Unix epoch.
+     */
+    PidMessageGenerator(int devices, long seed, long startEpochSecond) {
+        this.random = new Random(seed);
+        this.devices = new Device[devices];
+        this.startEpochSecond = startEpochSecond;
+        for (int i = 0; i < devices; i++) {
+            Device device = new Device(i + 1, 10 + random.nextInt(20));
+            // Spread the fleet over trips and idling
+            device.driving = random.nextInt(4) > 0;
+            device.phaseLeft = 1 + random.nextInt(device.driving ? 1800 : 120);
+            device.speed = device.driving ? 30 + random.nextInt(60) : 0;
+            this.devices[i] = device;
+        }
+    }
+
+    /**
+     * @return The number of devices.
+     */
+    int devices() {
+        return devices.length;
+    }
+
+    /**
+     * Generates the next message, taking the devices in turn.
+     *
+     * @return The device ID, used as the record key, and the message.
+     */
+    Message next() {
+        Device device = devices[(int) (messages % devices.length)];
+        long id = ++messages;
+        step(device);
+        String deviceTime = DeviceTimeParser.toDeviceTime(startEpochSecond + device.seconds++);
+        String json = "{\"id\":" + id + ",\"deviceId\":" + device.id + ",\"deviceTime\":\"" + deviceTime
+                + "\",\"dt\":\"" + deviceTime + "\",\"latitude\":37.98,\"longitude\":23.72,\"topic\":\"PID\",\"PIDAttributes\":\""
+                + attributes(device) + "\"}";
+        return new Message(String.valueOf(device.id), json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A generated message.
+     *
+     * @param key   The record key, the device ID.
+     * @param value The JSON message.
+     */
+    record Message(String key, byte[] value) {
+    }
+
+    private void step(Device device) {
+        if (--device.phaseLeft <= 0) {
+            device.driving = !device.driving;
+            device.phaseLeft = device.driving ? 600 + random.nextInt(2400) : 30 + random.nextInt(300);
+        }
+        double target = device.driving ? 20 + 100 * random.nextDouble() : 0;
+        device.speed = Math.max(0, device.speed + 0.05 * (target - device.speed) + random.nextGaussian() * (device.driving ? 2 : 0));
+        if (!device.driving && device.speed < 3) {
+            device.speed = 0;
+        }
+        // Warm up towards the thermostat temperature while the engine runs
+        device.coolant += 0.01 * (90 - device.coolant) + random.nextGaussian() * 0.2;
+    }
+
+    private String attributes(Device device) {
+        double speed = device.speed;
+        int gear = Math.min(6, 1 + (int) (speed / 22));
+        double rpm = speed < 1 ? 780 + random.nextGaussian() * 20 : 900 + speed * (95 - 12 * gear) + random.nextGaussian() * 40;
+        // Turbocharged engines exceed the atmospheric pressure under load, which the consumer requires
+        double load = speed < 1 ? 0.1 : Math.max(0.15, Math.min(1.1, 0.55 + speed / 200 + random.nextGaussian() * 0.15));
+        double mapIntake = 28 + 72 * load;
+        double intakeTemp = device.ambient + 8 + 10 * load;
+        double maf = rpm * mapIntake / 12000 * (1 + random.nextGaussian() * 0.03);
+        return String.format(Locale.ROOT,
+                "{rpm=%d, obdSpeed=%d, mapIntake=%d, intakeTemp=%d, coolantTemp=%d, MAFairFlowRate=%.2f, fuel=61, dtcs=[1,2,3], vin=WVW%05d, status={a=1}}",
+                Math.round(rpm), Math.round(speed), Math.round(mapIntake), Math.round(intakeTemp),
+                Math.round(device.coolant), maf, device.id);
+    }
+}
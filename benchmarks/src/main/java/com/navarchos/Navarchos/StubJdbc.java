@@ -0,0 +1,83 @@
+package com.navarchos.Navarchos;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+
+/**
+ * JDBC objects that accept every call without a database, so the benchmarks measure the work of
+ * the consumer itself. Queries return no rows and updates report one row.
+ */
+final class StubJdbc {
+
+    private StubJdbc() {
+    }
+
+    static DataSource dataSource() {
+        Connection conn = connection();
+        return stub(DataSource.class, (method, args) -> method.getName().equals("getConnection") ? conn : null);
+    }
+
+    static Connection connection() {
+        PreparedStatement statement = preparedStatement();
+        Array array = stub(Array.class, (method, args) -> null);
+        return stub(Connection.class, (method, args) -> switch (method.getName()) {
+            case "prepareStatement" -> statement;
+            case "createArrayOf" -> array;
+            case "getAutoCommit" -> true;
+            default -> null;
+        });
+    }
+
+    private static PreparedStatement preparedStatement() {
+        ResultSet empty = stub(ResultSet.class, (method, args) -> null);
+        return stub(PreparedStatement.class, (method, args) -> switch (method.getName()) {
+            case "executeQuery" -> empty;
+            case "executeUpdate" -> 1;
+            case "executeBatch" -> new int[0];
+            default -> null;
+        });
+    }
+
+    private interface Handler {
+        Object invoke(java.lang.reflect.Method method, Object[] args);
+    }
+
+    private static <T> T stub(Class<T> type, Handler handler) {
+        Object proxy = Proxy.newProxyInstance(StubJdbc.class.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            Object result = handler.invoke(method, args);
+            if (result == null && method.getReturnType().isPrimitive()) {
+                Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) {
+                    return false;
+                }
+                if (returnType == void.class) {
+                    return null;
+                }
+                if (returnType == long.class) {
+                    return 0L;
+                }
+                if (returnType == double.class) {
+                    return 0.0;
+                }
+                return 0;
+            }
+            return result;
+        });
+        return type.cast(proxy);
+    }
+
+    /**
+     * Sets a field of a component that Spring would normally inject.
+     */
+    static void inject(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
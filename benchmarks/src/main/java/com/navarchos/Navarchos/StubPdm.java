@@ -0,0 +1,107 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for the PdM API used by the load harness, answering on the single, bulk and reset endpoints.
+ * A feature vector raises an alarm when its first correlation is above 0.9. Every request can be delayed by a
+ * fixed service time, to load the consumer with the latency of a real PdM service.
+ */
+final class StubPdm implements AutoCloseable {
+    // Correlations of constant PIDs are sent as NaN
+    private final ObjectMapper objectMapper = JsonMapper.builder().enable(JsonReadFeature.ALLOW_NON_NUMERIC_NUMBERS).build();
+    private final HttpServer server;
+    private final long latencyMillis;
+    final LongAdder requests = new LongAdder();
+    final LongAdder vectors = new LongAdder();
+
+    /**
+     * @param latencyMillis The time every request takes, in milliseconds.
+     * @throws IOException If the server cannot be started.
+     */
+    StubPdm(long latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "stub-pdm");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/data", exchange -> {
+            requests.increment();
+            delay();
+            if (exchange.getRequestURI().getPath().endsWith("/bulk")) {
+                List<Map<String, Object>> batch = objectMapper.readValue(exchange.getRequestBody(), new TypeReference<>() {
+                });
+                List<Map<String, Object>> responses = new ArrayList<>(batch.size());
+                for (Map<String, Object> request : batch) {
+                    responses.add(score(request));
+                }
+                respond(exchange, objectMapper.writeValueAsString(responses));
+            } else {
+                Map<String, Object> request = objectMapper.readValue(exchange.getRequestBody(), new TypeReference<>() {
+                });
+                respond(exchange, objectMapper.writeValueAsString(score(request)));
+            }
+        });
+        server.createContext("/event", exchange -> {
+            requests.increment();
+            delay();
+            respond(exchange, "{}");
+        });
+        server.start();
+    }
+
+    String url() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private void delay() {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Map<String, Object> score(Map<String, Object> request) {
+        vectors.increment();
+        List<?> features = (List<?>) request.get("features");
+        double first = features.isEmpty() ? 0 : ((Number) features.get(0)).doubleValue();
+        Map<String, Object> response = new HashMap<>();
+        response.put("alarm", first > 0.9);
+        response.put("description", "stub");
+        response.put("scores", List.of((int) (first * 100)));
+        response.put("thresholds", List.of("90"));
+        response.put("source", request.get("source"));
+        response.put("timestamp", request.get("timestamp"));
+        return response;
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes();
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
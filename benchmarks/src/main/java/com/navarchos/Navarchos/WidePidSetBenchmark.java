@@ -0,0 +1,54 @@
+package com.navarchos.Navarchos;
+
+import org.openjdk.jmh.annotations.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All-pairs correlation of a full window as the number of PIDs grows, one pass per pair against the
+ * blocked kernel.
+ *
+ * Run with `java -jar target/benchmarks.jar WidePidSetBenchmark -prof gc`.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WidePidSetBenchmark {
+    @Param({"6", "20"})
+    int pids;
+    @Param("300")
+    int window;
+
+    private double[][] columns;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        columns = new double[pids][window];
+        for (int p = 0; p < pids; p++) {
+            for (int s = 0; s < window; s++) {
+                columns[p][s] = 100 * p + 10 * random.nextGaussian();
+            }
+        }
+    }
+
+    @Benchmark
+    public double[] perPair() {
+        double[] correlations = new double[pids * (pids - 1) / 2];
+        int k = 0;
+        for (int i = 0; i < pids; i++) {
+            for (int j = i + 1; j < pids; j++) {
+                correlations[k++] = KafkaConsumerNavarchos.calculateCorrelation(columns[i], columns[j]);
+            }
+        }
+        return correlations;
+    }
+
+    @Benchmark
+    public double[] kernel() {
+        return CorrelationKernel.correlations(columns, window);
+    }
+}
@@ -0,0 +1,137 @@
+package com.navarchos.Navarchos;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes PdM alarms, and optionally correlation updates, to the dashboards over STOMP.
+ * Every update is published to the topics of the vehicle and the group of the device:
+ * `/topic/vehicles/{vehicleId}/alarms`, `/topic/groups/{groupId}/alarms` and the matching
+ * `correlations` topics.
+ * Updates are conflated, so only the latest update of a device is kept per topic, and every
+ * `interval-ms` the pending updates of a topic are broadcast as one list. The consumer only
+ * touches an in-memory map and never waits for the clients.
+ */
+@Component
+public class AlarmPublisher {
+    private static final Logger log = LoggerFactory.getLogger(AlarmPublisher.class);
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+    @Value("${navarchos.push.enabled:true}")
+    boolean enabled = true;
+    @Value("${navarchos.push.correlations:false}")
+    boolean publishCorrelations = false;
+    @Value("${navarchos.push.interval-ms:250}")
+    long intervalMs = 250;
+
+    private Map<String, Map<Integer, Object>> pending = new HashMap<>();
+    private ScheduledExecutorService broadcaster;
+
+    /**
+     * A PdM alarm of a device.
+     */
+    public record AlarmMessage(int deviceId, int vehicleId, int groupId, String timestamp, String description,
+                               List<Integer> scores, List<String> thresholds) {
+    }
+
+    /**
+     * The latest correlations of a device, in the pair order of {@link DeviceWindow#correlations()}.
+     */
+    public record CorrelationMessage(int deviceId, int vehicleId, int groupId, String timestamp, double[] correlations) {
+    }
+
+    /**
+     * Starts the timer that broadcasts the pending updates.
+     */
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            broadcaster = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "alarm-publisher"));
+            broadcaster.scheduleWithFixedDelay(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the broadcast timer.
+     */
+    @PreDestroy
+    public void stop() {
+        if (broadcaster != null) {
+            broadcaster.shutdown();
+        }
+    }
+
+    /**
+     * Queues a PdM response for the dashboards if it raised an alarm.
+     *
+     * @param device_id    The ID of the device.
+     * @param dvg          The driver, vehicle and group IDs of the device.
+     * @param responseBody The response of the PdM API, or null if the request failed.
+     */
+    public void response(int device_id, int[] dvg, ResponseBody responseBody) {
+        if (!enabled || responseBody == null || !responseBody.isAlarm()) {
+            return;
+        }
+        queue("alarms", device_id, dvg, new AlarmMessage(device_id, dvg[1], dvg[2], responseBody.getTimestamp(),
+                responseBody.getDescription(), responseBody.getScores(), responseBody.getThresholds()));
+    }
+
+    /**
+     * Queues the latest correlations of a device for the dashboards, if correlation updates are enabled.
+     *
+     * @param device_id         The ID of the device.
+     * @param dvg               The driver, vehicle and group IDs of the device.
+     * @param dt                The timestamp of the correlation.
+     * @param correlationValues The correlations of the window of the device.
+     */
+    public void correlation(int device_id, int[] dvg, String dt, double[] correlationValues) {
+        if (!enabled || !publishCorrelations) {
+            return;
+        }
+        queue("correlations", device_id, dvg, new CorrelationMessage(device_id, dvg[1], dvg[2], dt, correlationValues));
+    }
+
+    private void queue(String kind, int device_id, int[] dvg, Object message) {
+        synchronized (this) {
+            if (dvg[1] >= 0) {
+                pending.computeIfAbsent("/topic/vehicles/" + dvg[1] + "/" + kind, k -> new LinkedHashMap<>()).put(device_id, message);
+            }
+            if (dvg[2] >= 0) {
+                pending.computeIfAbsent("/topic/groups/" + dvg[2] + "/" + kind, k -> new LinkedHashMap<>()).put(device_id, message);
+            }
+        }
+    }
+
+    /**
+     * Broadcasts the pending updates, one list per topic. A topic that cannot be broadcast is logged
+     * and dropped; the next flush carries the newer updates.
+     */
+    public void flush() {
+        Map<String, Map<Integer, Object>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new HashMap<>();
+        }
+        for (Map.Entry<String, Map<Integer, Object>> entry : batch.entrySet()) {
+            try {
+                messagingTemplate.convertAndSend(entry.getKey(), new ArrayList<>(entry.getValue().values()));
+            } catch (RuntimeException e) {
+                // Thrown out of the scheduled task, any failure would cancel every later flush
+                log.warn("Cannot broadcast {} updates to {}: {}", entry.getValue().size(), entry.getKey(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.navarchos.Navarchos;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Admin endpoints of the device assignment cache, for when LISTEN/NOTIFY is not available.
+ */
+@RestController
+@RequestMapping("/admin/assignments")
+public class AssignmentAdminController {
+    @Autowired
+    private DeviceAssignmentCache assignmentCache;
+
+    /**
+     * Drops the cached assignment of a device.
+     *
+     * @param deviceId The ID of the device.
+     */
+    @DeleteMapping("/{deviceId}")
+    public void invalidate(@PathVariable int deviceId) {
+        assignmentCache.invalidate(deviceId);
+    }
+
+    /**
+     * Drops all cached assignments.
+     */
+    @DeleteMapping
+    public void invalidateAll() {
+        assignmentCache.invalidateAll();
+    }
+
+    /**
+     * @return The size and the hit, miss and eviction counts of the cache.
+     */
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        CacheStats stats = assignmentCache.stats();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("size", assignmentCache.size());
+        body.put("hits", stats.hitCount());
+        body.put("misses", stats.missCount());
+        body.put("hitRate", stats.hitRate());
+        body.put("evictions", stats.evictionCount());
+        return body;
+    }
+}
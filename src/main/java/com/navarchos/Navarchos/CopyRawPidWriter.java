@@ -0,0 +1,177 @@
+package com.navarchos.Navarchos;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes raw PID data by streaming the rows to `data_pids_er` with binary `COPY ... FROM STDIN`.
+ * Rows are encoded directly into the binary COPY format and handed to the driver every
+ * `flush-bytes` of encoded data, so a large backfill is streamed instead of held in memory.
+ *
+ * The binary format carries no type conversion, so the types of the columns are read from the
+ * catalog once and every value is encoded with the width the column expects.
+ */
+@Component
+@ConditionalOnProperty(name = "navarchos.raw.writer", havingValue = "copy")
+public class CopyRawPidWriter implements RawPidWriter {
+    static final String[] COLUMNS = {"dt", "device_id", "driver_id", "vehicle_id", "group_id", "position", "pid_type", "data"};
+    static final String COPY_SQL = "COPY data_pids_er(" + String.join(", ", COLUMNS) + ") FROM STDIN (FORMAT binary)";
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    @Value("${navarchos.raw.copy.flush-bytes:4194304}")
+    int flushBytes = 4 * 1024 * 1024;
+    private volatile ColumnType[] columnTypes;
+
+    /**
+     * The binary encodings used for the columns of `data_pids_er`.
+     */
+    enum ColumnType {
+        INT4, INT8, POINT, TEXT, JSON, JSONB;
+
+        static ColumnType of(String column, String type) throws SQLException {
+            return switch (type) {
+                case "integer" -> INT4;
+                case "bigint" -> INT8;
+                case "point" -> POINT;
+                case "text", "character varying", "character" -> TEXT;
+                case "json" -> JSON;
+                case "jsonb" -> JSONB;
+                default -> throw new SQLException("Column data_pids_er." + column + " has type " + type
+                        + ", which the binary COPY writer does not support");
+            };
+        }
+    }
+
+    @Override
+    public void write(Connection conn, List<RawPidRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        ColumnType[] types = columnTypes(conn);
+        CopyIn copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.min(flushBytes, 64 * 1024));
+            DataOutputStream out = new DataOutputStream(buffer);
+            writeHeader(out);
+            for (RawPidRow row : rows) {
+                writeRow(out, types, row);
+                if (buffer.size() >= flushBytes) {
+                    copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+                    buffer.reset();
+                }
+            }
+            writeTrailer(out);
+            copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+            copyIn.endCopy();
+        } catch (IOException | RuntimeException e) {
+            throw new SQLException("Could not encode rows for COPY", e);
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    /**
+     * Reads the types of the `data_pids_er` columns from the catalog on first use.
+     */
+    private ColumnType[] columnTypes(Connection conn) throws SQLException {
+        ColumnType[] types = columnTypes;
+        if (types != null) {
+            return types;
+        }
+        String query = "SELECT attname, format_type(atttypid, NULL) FROM pg_attribute "
+                + "WHERE attrelid = 'data_pids_er'::regclass AND attnum > 0 AND NOT attisdropped";
+        Map<String, String> catalog = new HashMap<>();
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(query)) {
+            while (rs.next()) {
+                catalog.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        types = new ColumnType[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            String type = catalog.get(COLUMNS[i]);
+            if (type == null) {
+                throw new SQLException("Column data_pids_er." + COLUMNS[i] + " does not exist");
+            }
+            types[i] = ColumnType.of(COLUMNS[i], type);
+            boolean integer = types[i] == ColumnType.INT4 || types[i] == ColumnType.INT8;
+            if ((i < 5) != integer || (i == 5) != (types[i] == ColumnType.POINT)) {
+                throw new SQLException("Column data_pids_er." + COLUMNS[i] + " has unexpected type " + type);
+            }
+        }
+        columnTypes = types;
+        return types;
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.write(SIGNATURE);
+        out.writeInt(0); // flags
+        out.writeInt(0); // header extension length
+    }
+
+    static void writeTrailer(DataOutputStream out) throws IOException {
+        out.writeShort(-1);
+    }
+
+    /**
+     * Encodes one tuple in the binary COPY format, in the order of {@link #COLUMNS}.
+     */
+    static void writeRow(DataOutputStream out, ColumnType[] types, RawPidRow row) throws IOException {
+        PidEvent event = row.event();
+        int[] dvg = row.dvg();
+        out.writeShort(COLUMNS.length);
+        writeInteger(out, types[0], event.deviceTimestamp());
+        writeInteger(out, types[1], event.deviceId());
+        writeInteger(out, types[2], dvg[0]);
+        writeInteger(out, types[3], dvg[1]);
+        writeInteger(out, types[4], dvg[2]);
+        // POINT(NULL, x) is NULL, as in the insert path
+        if (event.latitude() == null || event.longitude() == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(16);
+            out.writeDouble(event.latitude());
+            out.writeDouble(event.longitude());
+        }
+        writeText(out, types[6], event.topic());
+        writeText(out, types[7], event.attributes() == null ? null : event.attributes().json());
+    }
+
+    private static void writeInteger(DataOutputStream out, ColumnType type, long value) throws IOException {
+        if (type == ColumnType.INT8) {
+            out.writeInt(8);
+            out.writeLong(value);
+        } else {
+            out.writeInt(4);
+            out.writeInt((int) value);
+        }
+    }
+
+    private static void writeText(DataOutputStream out, ColumnType type, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (type == ColumnType.JSONB) {
+            // jsonb binary input is a version byte followed by the text
+            out.writeInt(bytes.length + 1);
+            out.writeByte(1);
+        } else {
+            out.writeInt(bytes.length);
+        }
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,155 @@
+package com.navarchos.Navarchos;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Running Pearson correlation of every pair of PIDs in a sliding window.
+ * Means and co-moments are updated with Welford's method as samples enter and leave the window,
+ * so the correlations of a full window are available without rescanning it.
+ * Pairs are ordered (0,1), (0,2), ..., (1,2), ... which is the order of the PdM feature vector.
+ */
+public class CorrelationAccumulator {
+    private final int pids;
+    private final double[] mean;
+    private final double[] m2;
+    private final double[] comoment;
+    private final double[] delta;
+    private long n;
+
+    /**
+     * @param pids The number of PIDs in each sample.
+     */
+    public CorrelationAccumulator(int pids) {
+        this.pids = pids;
+        this.mean = new double[pids];
+        this.m2 = new double[pids];
+        this.comoment = new double[pids * (pids - 1) / 2];
+        this.delta = new double[pids];
+    }
+
+    /**
+     * Adds a sample to the running sums.
+     *
+     * @param x The PID values of the sample.
+     */
+    public void add(double[] x) {
+        n++;
+        for (int i = 0; i < pids; i++) {
+            delta[i] = x[i] - mean[i];
+            mean[i] += delta[i] / n;
+        }
+        int k = 0;
+        for (int i = 0; i < pids; i++) {
+            m2[i] += delta[i] * (x[i] - mean[i]);
+            for (int j = i + 1; j < pids; j++) {
+                comoment[k++] += delta[i] * (x[j] - mean[j]);
+            }
+        }
+    }
+
+    /**
+     * Removes a sample that was previously added from the running sums.
+     *
+     * @param x The PID values of the sample leaving the window.
+     */
+    public void remove(double[] x) {
+        if (n <= 1) {
+            clear();
+            return;
+        }
+        n--;
+        for (int i = 0; i < pids; i++) {
+            // delta keeps the distance from the mean before removal, mean becomes the mean after it
+            delta[i] = x[i] - mean[i];
+            mean[i] -= delta[i] / n;
+        }
+        int k = 0;
+        for (int i = 0; i < pids; i++) {
+            m2[i] -= delta[i] * (x[i] - mean[i]);
+            for (int j = i + 1; j < pids; j++) {
+                comoment[k++] -= (x[i] - mean[i]) * delta[j];
+            }
+        }
+    }
+
+    /**
+     * Recomputes the running sums from scratch with a two-pass scan of the window.
+     * Used periodically to discard the rounding error accumulated by removals.
+     *
+     * @param columns The window, one array per PID, all of the same length.
+     */
+    public void rebase(double[][] columns) {
+        int size = columns.length == 0 ? 0 : columns[0].length;
+        CorrelationKernel.moments(columns, size, mean, m2, comoment);
+        n = size;
+    }
+
+    /**
+     * Returns the Pearson correlation of every pair of PIDs over the samples currently added.
+     * Pairs whose variance is (close to) zero get a correlation of 0, as in
+     * {@link KafkaConsumerNavarchos#calculateCorrelation(double[], double[])}.
+     *
+     * @return The correlations of the upper-triangular pairs.
+     */
+    public double[] correlations() {
+        return CorrelationKernel.correlations(n, m2, comoment);
+    }
+
+    /**
+     * @return The number of samples currently added.
+     */
+    public long count() {
+        return n;
+    }
+
+    /**
+     * @return The number of bytes written by {@link #writeTo(ByteBuffer)}.
+     */
+    int serializedSize() {
+        return Long.BYTES + Double.BYTES * (mean.length + m2.length + comoment.length);
+    }
+
+    /**
+     * Writes the running sums to a buffer.
+     *
+     * @param buffer The buffer to write to.
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.putLong(n);
+        for (double value : mean) {
+            buffer.putDouble(value);
+        }
+        for (double value : m2) {
+            buffer.putDouble(value);
+        }
+        for (double value : comoment) {
+            buffer.putDouble(value);
+        }
+    }
+
+    /**
+     * Restores running sums written by {@link #writeTo(ByteBuffer)}.
+     *
+     * @param buffer The buffer to read from.
+     */
+    void readFrom(ByteBuffer buffer) {
+        n = buffer.getLong();
+        for (int i = 0; i < mean.length; i++) {
+            mean[i] = buffer.getDouble();
+        }
+        for (int i = 0; i < m2.length; i++) {
+            m2[i] = buffer.getDouble();
+        }
+        for (int i = 0; i < comoment.length; i++) {
+            comoment[i] = buffer.getDouble();
+        }
+    }
+
+    private void clear() {
+        n = 0;
+        Arrays.fill(mean, 0);
+        Arrays.fill(m2, 0);
+        Arrays.fill(comoment, 0);
+    }
+}
@@ -0,0 +1,133 @@
+package com.navarchos.Navarchos;
+
+import java.util.Arrays;
+
+/**
+ * All-pairs Pearson correlation of a columnar window, one `double[]` per PID.
+ * After the means, the centered sums of squares and co-moments of every pair are computed in one
+ * pass over the samples in blocks: each block of every column is centered into a small scratch
+ * array that stays in L1 cache, and every pair is accumulated from it with a plain dot-product loop
+ * over contiguous arrays that the JIT can unroll and vectorize. The window is read from memory
+ * once for all pairs instead of once per pair.
+ * Pairs are ordered (0,1), (0,2), ..., (1,2), ..., the order of the PdM feature vector.
+ */
+public final class CorrelationKernel {
+    static final int BLOCK = 128;
+
+    private CorrelationKernel() {
+    }
+
+    /**
+     * Computes the means, centered sums of squares and pairwise co-moments of a window.
+     *
+     * @param columns  The window, one array per PID.
+     * @param size     The number of samples in each column.
+     * @param mean     Receives the mean of every PID.
+     * @param m2       Receives the centered sum of squares of every PID.
+     * @param comoment Receives the centered sum of products of every pair.
+     */
+    public static void moments(double[][] columns, int size, double[] mean, double[] m2, double[] comoment) {
+        int pids = columns.length;
+        Arrays.fill(mean, 0);
+        Arrays.fill(m2, 0);
+        Arrays.fill(comoment, 0);
+        if (size == 0) {
+            return;
+        }
+        for (int p = 0; p < pids; p++) {
+            mean[p] = sum(columns[p], size) / size;
+        }
+        double[][] centered = new double[pids][BLOCK];
+        for (int start = 0; start < size; start += BLOCK) {
+            int length = Math.min(BLOCK, size - start);
+            for (int p = 0; p < pids; p++) {
+                double[] column = columns[p];
+                double[] block = centered[p];
+                double m = mean[p];
+                for (int s = 0; s < length; s++) {
+                    block[s] = column[start + s] - m;
+                }
+            }
+            int k = 0;
+            for (int i = 0; i < pids; i++) {
+                double[] xi = centered[i];
+                m2[i] += dot(xi, xi, length);
+                for (int j = i + 1; j < pids; j++) {
+                    comoment[k++] += dot(xi, centered[j], length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the Pearson correlation of every pair of PIDs of a window.
+     *
+     * @param columns The window, one array per PID.
+     * @param size    The number of samples in each column.
+     * @return        The correlations of the upper-triangular pairs.
+     */
+    public static double[] correlations(double[][] columns, int size) {
+        int pids = columns.length;
+        double[] mean = new double[pids];
+        double[] m2 = new double[pids];
+        double[] comoment = new double[pids * (pids - 1) / 2];
+        moments(columns, size, mean, m2, comoment);
+        return correlations(size, m2, comoment);
+    }
+
+    /**
+     * Turns sums of squares and co-moments into correlations.
+     * Pairs whose variance is (close to) zero get a correlation of 0, as in
+     * {@link KafkaConsumerNavarchos#calculateCorrelation(double[], double[])}.
+     *
+     * @param n        The number of samples.
+     * @param m2       The centered sum of squares of every PID.
+     * @param comoment The centered sum of products of every pair.
+     * @return         The correlations of the upper-triangular pairs.
+     */
+    public static double[] correlations(long n, double[] m2, double[] comoment) {
+        double[] correlation = new double[comoment.length];
+        int k = 0;
+        for (int i = 0; i < m2.length; i++) {
+            for (int j = i + 1; j < m2.length; j++) {
+                double denominator = n * Math.sqrt(Math.max(m2[i], 0) * Math.max(m2[j], 0));
+                correlation[k] = Math.abs(denominator) < 1e-10 ? 0 : n * comoment[k] / denominator;
+                k++;
+            }
+        }
+        return correlation;
+    }
+
+    private static double sum(double[] x, int length) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int s = 0;
+        for (; s + 3 < length; s += 4) {
+            s0 += x[s];
+            s1 += x[s + 1];
+            s2 += x[s + 2];
+            s3 += x[s + 3];
+        }
+        for (; s < length; s++) {
+            s0 += x[s];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Dot product with four independent accumulators, so the additions do not wait on each other.
+     */
+    private static double dot(double[] x, double[] y, int length) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int s = 0;
+        for (; s + 3 < length; s += 4) {
+            s0 += x[s] * y[s];
+            s1 += x[s + 1] * y[s + 1];
+            s2 += x[s + 2] * y[s + 2];
+            s3 += x[s + 3] * y[s + 3];
+        }
+        for (; s < length; s++) {
+            s0 += x[s] * y[s];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
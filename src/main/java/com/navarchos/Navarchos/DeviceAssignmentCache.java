@@ -0,0 +1,193 @@
+package com.navarchos.Navarchos;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.sql.*;
+import java.time.Duration;
+
+/**
+ * Cache of the driver, vehicle and group assigned to each device in `mgt_dvg`.
+ * Entries expire after a configurable TTL and the cache is bounded in size.
+ * Changes are picked up through Postgres LISTEN/NOTIFY on the `mgt_dvg_changed` channel
+ * (see `db/mgt_dvg_notify.sql`), or can be forced through {@link AssignmentAdminController}.
+ * The listener holds its own connection, opened outside the connection pool, so that no pooled connection
+ * is ever left subscribed to the channel.
+ * The hit, miss and eviction counts are published as the `navarchos.assignments` cache metrics.
+ */
+@Component
+public class DeviceAssignmentCache {
+    private static final Logger log = LoggerFactory.getLogger(DeviceAssignmentCache.class);
+    @Autowired
+    private PidRepository pidRepository;
+    @Autowired
+    private MeterRegistry registry;
+    @Value("${navarchos.assignments.ttl-seconds:600}")
+    long ttlSeconds = 600;
+    @Value("${navarchos.assignments.max-size:100000}")
+    long maxSize = 100000;
+    @Value("${navarchos.assignments.listen:true}")
+    boolean listen = true;
+    @Value("${navarchos.assignments.channel:mgt_dvg_changed}")
+    String channel = "mgt_dvg_changed";
+    @Value("${spring.datasource.url:}")
+    String url = "";
+    @Value("${spring.datasource.username:}")
+    String username = "";
+    @Value("${spring.datasource.password:}")
+    String password = "";
+
+    private Cache<Integer, int[]> cache;
+    private Thread listener;
+    private volatile boolean running;
+
+    /**
+     * Creates the cache and starts listening for assignment changes.
+     */
+    @PostConstruct
+    public void start() {
+        cache = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "navarchos.assignments");
+        if (listen) {
+            running = true;
+            listener = new Thread(this::listen, "mgt-dvg-listener");
+            listener.setDaemon(true);
+            listener.start();
+        }
+    }
+
+    /**
+     * Stops listening for assignment changes.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    /**
+     * Returns the driver, vehicle and group currently assigned to a device, reading them from the
+     * {@link PidRepository} on a miss.
+     * The read is atomic with invalidations: a device invalidated while its assignment is read is not
+     * left cached with the old assignment.
+     *
+     * @param device_id The ID of the device.
+     * @return          The driver, vehicle and group IDs, each -1 if the device has no active assignment.
+     * @throws SQLException If the assignment cannot be read.
+     */
+    public int[] get(int device_id) throws SQLException {
+        try {
+            return cache.get(device_id, id -> {
+                try {
+                    return pidRepository.findAssignment(id);
+                } catch (SQLException e) {
+                    throw new LoadException(e);
+                }
+            });
+        } catch (LoadException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Drops the cached assignment of a device.
+     *
+     * @param device_id The ID of the device.
+     */
+    public void invalidate(int device_id) {
+        cache.invalidate(device_id);
+    }
+
+    /**
+     * Drops all cached assignments.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return The hit, miss and eviction counts of the cache.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return The number of cached assignments.
+     */
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    /**
+     * Waits for notifications on a dedicated connection and invalidates the devices they name.
+     * The connection is closed, ending the subscription, whenever it fails.
+     * A notification without a device ID, or a lost connection, invalidates the whole cache.
+     */
+    private void listen() {
+        while (running) {
+            try (Connection conn = DriverManager.getConnection(url, username, password)) {
+                try (Statement st = conn.createStatement()) {
+                    st.execute("LISTEN " + channel);
+                }
+                // Notifications sent while the connection was down are lost
+                invalidateAll();
+                PGConnection pgConnection = conn.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(5000);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        try {
+                            invalidate(Integer.parseInt(notification.getParameter().trim()));
+                        } catch (NumberFormatException e) {
+                            invalidateAll();
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Assignment listener disconnected: {}", e.getMessage());
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Carries a failed read of an assignment out of the cache loader.
+     */
+    private static class LoadException extends RuntimeException {
+        LoadException(SQLException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+}
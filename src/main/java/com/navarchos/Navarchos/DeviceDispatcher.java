@@ -0,0 +1,117 @@
+package com.navarchos.Navarchos;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.util.concurrent.*;
+
+/**
+ * Runs the processing of PID messages on a pool of workers, sharded by device.
+ * Every device is mapped to one single-thread stripe, so the messages of a device are processed
+ * in the order they were consumed while different devices run in parallel.
+ * The number of tasks waiting or running is bounded; when the bound is reached, submitting blocks
+ * and the listener stops polling until the workers catch up.
+ */
+@Component
+public class DeviceDispatcher {
+    @Value("${navarchos.workers.threads:0}")
+    int threads = 0;
+    @Value("${navarchos.workers.max-pending:10000}")
+    int maxPending = 10000;
+
+    private ExecutorService[] stripes;
+    private Semaphore pending;
+
+    /**
+     * A unit of work for one device.
+     */
+    @FunctionalInterface
+    public interface DeviceTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * Starts the worker stripes, one per available processor unless configured otherwise.
+     */
+    @PostConstruct
+    public void start() {
+        int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        stripes = new ExecutorService[count];
+        for (int i = 0; i < count; i++) {
+            String name = "pid-worker-" + i;
+            stripes[i] = Executors.newSingleThreadExecutor(r -> new Thread(r, name));
+        }
+        pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * Lets the workers finish the tasks already submitted and stops them.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        for (ExecutorService stripe : stripes) {
+            stripe.shutdown();
+        }
+        for (ExecutorService stripe : stripes) {
+            stripe.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Queues a task on the stripe of a device, waiting while too many tasks are pending.
+     *
+     * @param device_id The ID of the device the task belongs to.
+     * @param task      The task to run.
+     * @return          A future completed when the task has run, exceptionally if it failed.
+     */
+    public CompletableFuture<Void> submit(int device_id, DeviceTask task) {
+        pending.acquireUninterruptibly();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            stripes[stripe(device_id)].execute(() -> {
+                try {
+                    task.run();
+                    result.complete(null);
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Waits until every submitted task has run.
+     *
+     * @param timeoutMillis The maximum time to wait.
+     * @return              True if the workers are idle, false if the timeout expired first.
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (pending() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of tasks waiting or running.
+     */
+    public int pending() {
+        return maxPending - pending.availablePermits();
+    }
+
+    private int stripe(int device_id) {
+        // Spread consecutive device IDs that share a common factor with the stripe count
+        return Math.floorMod(device_id * 0x9E3779B9, stripes.length);
+    }
+}
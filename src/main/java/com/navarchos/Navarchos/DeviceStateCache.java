@@ -0,0 +1,235 @@
+package com.navarchos.Navarchos;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * The latest correlations and PdM result of every device, kept in memory so that {@link DeviceStateController}
+ * can serve them without reading `pids_correlation` and `pids_pdm`.
+ * Updated by the consumer as correlations are calculated and PdM responses arrive. Every update gets a new
+ * version from a global sequence, which the controller uses as the ETag. Devices are kept sorted by ID for
+ * paging, and indexed by vehicle and group; a device moves between them when its assignment changes.
+ * An update older than the state it would replace, such as a PdM response that completed after the response
+ * to a later window, is ignored.
+ * At startup the cache is seeded in the background with the latest rows of `pids_correlation` and `pids_pdm`
+ * of the last `seed-days` days; being older, they never replace what the consumer has recorded meanwhile.
+ */
+@Component
+public class DeviceStateCache {
+    private static final Logger log = LoggerFactory.getLogger(DeviceStateCache.class);
+    @Autowired
+    private PidRepository pidRepository;
+    @Autowired
+    private DeviceAssignmentCache assignmentCache;
+    @Value("${navarchos.state.seed-days:7}")
+    int seedDays = 7;
+
+    private final Map<Integer, DeviceState> states = new ConcurrentHashMap<>();
+    // The device IDs in order, for paging; devices are never removed
+    private final NavigableSet<Integer> deviceIds = new ConcurrentSkipListSet<>();
+    private final Map<Integer, Set<Integer>> vehicles = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> groups = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+
+    /**
+     * The latest state of a device.
+     *
+     * @param deviceId             The ID of the device.
+     * @param driverId             The ID of the driver assigned to the device, or -1.
+     * @param vehicleId            The ID of the vehicle assigned to the device, or -1.
+     * @param groupId              The ID of the group assigned to the device, or -1.
+     * @param correlationTimestamp The timestamp of the latest correlations, or null.
+     * @param correlations         The latest correlations, in the pair order of {@link DeviceWindow#correlations()}, or null.
+     * @param pdmTimestamp         The timestamp of the latest PdM response, or null.
+     * @param alarm                Whether the latest PdM response raised an alarm, or null without a response.
+     * @param description          The description of the latest PdM response, or null.
+     * @param scores               The scores of the latest PdM response, or null.
+     * @param thresholds           The thresholds of the latest PdM response, or null.
+     * @param version              The version of the state, increasing with every update of any device.
+     */
+    public record DeviceState(int deviceId, int driverId, int vehicleId, int groupId, String correlationTimestamp,
+                              double[] correlations, String pdmTimestamp, Boolean alarm, String description,
+                              List<Integer> scores, List<String> thresholds, long version) {
+    }
+
+    /**
+     * Starts seeding the cache, unless `seed-days` is 0.
+     */
+    @PostConstruct
+    public void start() {
+        if (seedDays > 0) {
+            Thread seeder = new Thread(this::seed, "device-state-seed");
+            seeder.setDaemon(true);
+            seeder.start();
+        }
+    }
+
+    /**
+     * Loads the latest correlations and PdM responses of the devices with results in the last `seed-days` days.
+     */
+    void seed() {
+        try {
+            LocalDateTime since = LocalDateTime.now().minusDays(seedDays);
+            for (PidRepository.CorrelationRow correlation : pidRepository.findLatestCorrelations(since)) {
+                correlation(correlation.deviceId(), assignmentCache.get(correlation.deviceId()), correlation.dt(), correlation.values());
+            }
+            for (ResponseBody responseBody : pidRepository.findLatestResponses(since)) {
+                int device_id = Integer.parseInt(responseBody.getSource());
+                response(device_id, assignmentCache.get(device_id), responseBody);
+            }
+            log.info("Seeded the state of {} devices", size());
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Cannot seed the device states; devices appear with their next correlation: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Records the latest correlations of a device.
+     *
+     * @param device_id         The ID of the device.
+     * @param dvg               The driver, vehicle and group IDs of the device.
+     * @param dt                The timestamp of the correlations.
+     * @param correlationValues The correlations of the window of the device.
+     */
+    public void correlation(int device_id, int[] dvg, String dt, double[] correlationValues) {
+        update(device_id, dvg, state -> state != null && older(dt, state.correlationTimestamp()) ? state
+                : new DeviceState(device_id, dvg[0], dvg[1], dvg[2], dt, correlationValues,
+                state == null ? null : state.pdmTimestamp(), state == null ? null : state.alarm(),
+                state == null ? null : state.description(), state == null ? null : state.scores(),
+                state == null ? null : state.thresholds(), versions.incrementAndGet()));
+    }
+
+    /**
+     * Records the latest PdM response of a device.
+     *
+     * @param device_id    The ID of the device.
+     * @param dvg          The driver, vehicle and group IDs of the device.
+     * @param responseBody The response of the PdM API, or null if the request failed.
+     */
+    public void response(int device_id, int[] dvg, ResponseBody responseBody) {
+        if (responseBody == null) {
+            return;
+        }
+        update(device_id, dvg, state -> state != null && older(responseBody.getTimestamp(), state.pdmTimestamp()) ? state
+                : new DeviceState(device_id, dvg[0], dvg[1], dvg[2],
+                state == null ? null : state.correlationTimestamp(), state == null ? null : state.correlations(),
+                responseBody.getTimestamp(), responseBody.isAlarm(), responseBody.getDescription(),
+                responseBody.getScores(), responseBody.getThresholds(), versions.incrementAndGet()));
+    }
+
+    /**
+     * @return Whether a timestamp is before the latest one; both are "yyyy-MM-dd HH:mm:ss", which sorts as text.
+     */
+    private static boolean older(String dt, String latest) {
+        return dt != null && latest != null && dt.compareTo(latest) < 0;
+    }
+
+    private void update(int device_id, int[] dvg, UnaryOperator<DeviceState> next) {
+        // Atomic per device, so the indexes follow the updates of a device in order
+        states.compute(device_id, (id, state) -> {
+            DeviceState updated = next.apply(state);
+            if (state == null || state.vehicleId() != updated.vehicleId()) {
+                move(vehicles, state == null ? -1 : state.vehicleId(), updated.vehicleId(), device_id);
+            }
+            if (state == null || state.groupId() != updated.groupId()) {
+                move(groups, state == null ? -1 : state.groupId(), updated.groupId(), device_id);
+            }
+            return updated;
+        });
+        deviceIds.add(device_id);
+    }
+
+    private static void move(Map<Integer, Set<Integer>> index, int from, int to, int device_id) {
+        if (from >= 0) {
+            index.computeIfPresent(from, (id, devices) -> {
+                devices.remove(device_id);
+                return devices.isEmpty() ? null : devices;
+            });
+        }
+        if (to >= 0) {
+            index.computeIfAbsent(to, id -> ConcurrentHashMap.newKeySet()).add(device_id);
+        }
+    }
+
+    /**
+     * @param device_id The ID of the device.
+     * @return          The state of the device, or null if it has none yet.
+     */
+    public DeviceState device(int device_id) {
+        return states.get(device_id);
+    }
+
+    /**
+     * @param vehicleId The ID of the vehicle.
+     * @return          The states of the devices of the vehicle, by device ID.
+     */
+    public List<DeviceState> vehicle(int vehicleId) {
+        return lookup(vehicles.get(vehicleId), state -> state.vehicleId() == vehicleId);
+    }
+
+    /**
+     * @param groupId The ID of the group.
+     * @return        The states of the devices of the group, by device ID.
+     */
+    public List<DeviceState> group(int groupId) {
+        return lookup(groups.get(groupId), state -> state.groupId() == groupId);
+    }
+
+    private List<DeviceState> lookup(Set<Integer> devices, Predicate<DeviceState> member) {
+        if (devices == null) {
+            return List.of();
+        }
+        List<DeviceState> found = new ArrayList<>(devices.size());
+        for (Integer device_id : devices) {
+            DeviceState state = states.get(device_id);
+            // Unless the device has just moved
+            if (state != null && member.test(state)) {
+                found.add(state);
+            }
+        }
+        found.sort(Comparator.comparingInt(DeviceState::deviceId));
+        return found;
+    }
+
+    /**
+     * Returns a page of the states of all devices, in device ID order.
+     *
+     * @param after      The ID of the last device of the previous page, or null for the first page.
+     * @param limit      The maximum number of states to return.
+     * @param alarmsOnly True to return only the devices whose latest PdM response raised an alarm.
+     * @return           The states of the page.
+     */
+    public List<DeviceState> page(Integer after, int limit, boolean alarmsOnly) {
+        NavigableSet<Integer> tail = after == null ? deviceIds : deviceIds.tailSet(after, false);
+        List<DeviceState> page = new ArrayList<>(Math.min(limit, 1024));
+        for (Integer device_id : tail) {
+            if (page.size() == limit) {
+                break;
+            }
+            DeviceState state = states.get(device_id);
+            if (state != null && (!alarmsOnly || Boolean.TRUE.equals(state.alarm()))) {
+                page.add(state);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * @return The number of devices with a state.
+     */
+    public int size() {
+        return states.size();
+    }
+}
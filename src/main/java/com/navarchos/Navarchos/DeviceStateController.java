@@ -0,0 +1,120 @@
+package com.navarchos.Navarchos;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read API of the latest correlations and PdM results per device, vehicle and group, served from the
+ * {@link DeviceStateCache} instead of the database.
+ * Every response carries an ETag built from the versions of the states it contains; a request with a
+ * matching `If-None-Match` gets 304 Not Modified without a body, so dashboards can poll cheaply.
+ */
+@RestController
+@RequestMapping("/api/state")
+public class DeviceStateController {
+    @Autowired
+    private DeviceStateCache deviceStates;
+    @Value("${navarchos.state.max-page-size:1000}")
+    int maxPageSize = 1000;
+
+    /**
+     * @param deviceId The ID of the device.
+     * @param request  The request, checked for `If-None-Match`.
+     * @return         The state of the device.
+     */
+    @GetMapping("/devices/{deviceId}")
+    public ResponseEntity<DeviceStateCache.DeviceState> device(@PathVariable int deviceId, WebRequest request) {
+        DeviceStateCache.DeviceState state = deviceStates.device(deviceId);
+        if (state == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No state for device " + deviceId);
+        }
+        return conditional(request, etag(List.of(state), null), state);
+    }
+
+    /**
+     * @param vehicleId The ID of the vehicle.
+     * @param request   The request, checked for `If-None-Match`.
+     * @return          The states of the devices of the vehicle.
+     */
+    @GetMapping("/vehicles/{vehicleId}")
+    public ResponseEntity<List<DeviceStateCache.DeviceState>> vehicle(@PathVariable int vehicleId, WebRequest request) {
+        List<DeviceStateCache.DeviceState> states = deviceStates.vehicle(vehicleId);
+        if (states.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No state for vehicle " + vehicleId);
+        }
+        return conditional(request, etag(states, null), states);
+    }
+
+    /**
+     * @param groupId The ID of the group.
+     * @param request The request, checked for `If-None-Match`.
+     * @return        The states of the devices of the group.
+     */
+    @GetMapping("/groups/{groupId}")
+    public ResponseEntity<List<DeviceStateCache.DeviceState>> group(@PathVariable int groupId, WebRequest request) {
+        List<DeviceStateCache.DeviceState> states = deviceStates.group(groupId);
+        if (states.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No state for group " + groupId);
+        }
+        return conditional(request, etag(states, null), states);
+    }
+
+    /**
+     * Returns the states of the whole fleet, one page at a time in device ID order.
+     *
+     * @param after   The `next` value of the previous page; the first page if omitted.
+     * @param limit   The maximum number of devices in the page, at most `navarchos.state.max-page-size`.
+     * @param alarm   True to return only the devices whose latest PdM response raised an alarm.
+     * @param request The request, checked for `If-None-Match`.
+     * @return        The devices of the page, the `next` value of the following page, or null on the last page,
+     *                and the number of devices in the cache.
+     */
+    @GetMapping("/devices")
+    public ResponseEntity<Map<String, Object>> devices(@RequestParam(required = false) Integer after,
+                                                       @RequestParam(defaultValue = "100") int limit,
+                                                       @RequestParam(defaultValue = "false") boolean alarm,
+                                                       WebRequest request) {
+        if (limit < 1 || limit > maxPageSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + maxPageSize);
+        }
+        List<DeviceStateCache.DeviceState> states = deviceStates.page(after, limit, alarm);
+        Integer next = states.size() == limit ? states.get(states.size() - 1).deviceId() : null;
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("devices", states);
+        body.put("next", next);
+        body.put("total", deviceStates.size());
+        return conditional(request, etag(states, next), body);
+    }
+
+    private static <T> ResponseEntity<T> conditional(WebRequest request, String etag, T body) {
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag).cacheControl(CacheControl.noCache()).body(body);
+    }
+
+    /**
+     * Builds an ETag that changes when any of the states, or the set of devices, changes.
+     */
+    static String etag(List<DeviceStateCache.DeviceState> states, Integer next) {
+        if (states.size() == 1 && next == null) {
+            return "\"" + states.get(0).version() + "\"";
+        }
+        long hash = 17;
+        for (DeviceStateCache.DeviceState state : states) {
+            hash = 31 * hash + state.deviceId();
+            hash = 31 * hash + state.version();
+        }
+        hash = 31 * hash + (next == null ? -1 : next);
+        return "\"" + states.size() + "-" + Long.toHexString(hash) + "\"";
+    }
+}
@@ -0,0 +1,88 @@
+package com.navarchos.Navarchos;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Converts device times in the format "yyyy-MM-dd HH:mm:ss" (UTC) to Unix timestamps and back.
+ * The fixed-width format is decoded by hand without allocating; other spellings such as
+ * unpadded fields fall back to a shared, thread-safe {@link DateTimeFormatter}.
+ */
+public final class DeviceTimeParser {
+    private static final Logger log = LoggerFactory.getLogger(DeviceTimeParser.class);
+    private static final DateTimeFormatter LENIENT_FORMAT = DateTimeFormatter.ofPattern("y-M-d H:m:s");
+    private static final DateTimeFormatter DEVICE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private DeviceTimeParser() {
+    }
+
+    /**
+     * Converts a date string into a Unix timestamp (seconds since the Unix epoch).
+     * Characters after the seconds, such as milliseconds, are ignored.
+     *
+     * @param dateString The date string to be converted, expected in the format "yyyy-MM-dd HH:mm:ss".
+     * @return           The Unix timestamp, or 0 if the date string cannot be parsed.
+     */
+    public static int toUnixTimestamp(CharSequence dateString) {
+        if (dateString == null) {
+            return 0;
+        }
+        if (dateString.length() >= 19 && dateString.charAt(4) == '-' && dateString.charAt(7) == '-'
+                && dateString.charAt(10) == ' ' && dateString.charAt(13) == ':' && dateString.charAt(16) == ':') {
+            int year = digits(dateString, 0, 4);
+            int month = digits(dateString, 5, 2);
+            int day = digits(dateString, 8, 2);
+            int hour = digits(dateString, 11, 2);
+            int minute = digits(dateString, 14, 2);
+            int second = digits(dateString, 17, 2);
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31 && hour >= 0 && hour <= 23
+                    && minute >= 0 && minute <= 59 && second >= 0 && second <= 59) {
+                return (int) (daysFromCivil(year, month, day) * 86400L + hour * 3600L + minute * 60L + second);
+            }
+        }
+        try {
+            return (int) LocalDateTime.parse(dateString.toString().trim(), LENIENT_FORMAT).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            log.debug("Cannot parse device time: {}", dateString);
+            return 0;
+        }
+    }
+
+    /**
+     * Converts a Unix timestamp, such as the `dt` column of `data_pids_er`, back into a device time.
+     *
+     * @param timestamp The Unix timestamp in seconds.
+     * @return          The device time in the format "yyyy-MM-dd HH:mm:ss".
+     */
+    public static String toDeviceTime(long timestamp) {
+        return LocalDateTime.ofEpochSecond(timestamp, 0, ZoneOffset.UTC).format(DEVICE_FORMAT);
+    }
+
+    private static int digits(CharSequence s, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date (H. Hinnant's days_from_civil).
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
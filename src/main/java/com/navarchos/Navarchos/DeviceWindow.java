@@ -0,0 +1,359 @@
+package com.navarchos.Navarchos;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sliding window of PID samples for a single device.
+ * The samples are kept in one flat primitive ring buffer, PID by PID, so that a full window can be handed
+ * to the correlation step without touching the database. The samples can be stored as float32 to halve
+ * the memory of the window; the running sums are then fed the rounded values, so they match the buffer.
+ * The correlations of the window are maintained incrementally by a {@link CorrelationAccumulator}
+ * that is rebased on the buffer once per window length to keep rounding error bounded.
+ * The window remembers the Kafka partition and offset of the last sample it applied, so that it can be
+ * checkpointed with {@link #toBytes()} and records already contained in a restored window can be skipped.
+ */
+public class DeviceWindow {
+    private final int pids;
+    private final double[] samples;
+    private final float[] floatSamples;
+    private final int window;
+    private final int step;
+    private final CorrelationAccumulator accumulator;
+    private final double[] evicted;
+    private int head;
+    private int size;
+    private long count;
+    private int removedSinceRebase;
+    private int partition = -1;
+    private long offset = -1;
+    private long checkpointedCount;
+    private final int pidSetId;
+    private final double[] rounded;
+    private static final byte FORMAT_VERSION = 3;
+
+    /**
+     * @param pids   The number of PIDs stored per sample.
+     * @param window The number of samples kept in the window.
+     * @param step   The number of new samples between two consecutive correlations.
+     */
+    public DeviceWindow(int pids, int window, int step) {
+        this(pids, 0, window, step, false);
+    }
+
+    /**
+     * @param pidSet The PIDs stored per sample, in order.
+     * @param window The number of samples kept in the window.
+     * @param step   The number of new samples between two consecutive correlations.
+     */
+    public DeviceWindow(PidSet pidSet, int window, int step) {
+        this(pidSet, window, step, false);
+    }
+
+    /**
+     * @param pidSet       The PIDs stored per sample, in order.
+     * @param window       The number of samples kept in the window.
+     * @param step         The number of new samples between two consecutive correlations.
+     * @param floatSamples Whether the samples are stored as float32 instead of float64.
+     */
+    public DeviceWindow(PidSet pidSet, int window, int step, boolean floatSamples) {
+        this(pidSet.size(), pidSet.id(), window, step, floatSamples);
+    }
+
+    private DeviceWindow(int pids, int pidSetId, int window, int step, boolean floatSamples) {
+        if (window <= 0 || step <= 0) {
+            throw new IllegalArgumentException("Window and step must be positive");
+        }
+        this.pids = pids;
+        this.samples = floatSamples ? null : new double[pids * window];
+        this.floatSamples = floatSamples ? new float[pids * window] : null;
+        this.rounded = floatSamples ? new double[pids] : null;
+        this.window = window;
+        this.step = step;
+        this.accumulator = new CorrelationAccumulator(pids);
+        this.evicted = new double[pids];
+        this.pidSetId = pidSetId;
+    }
+
+    /**
+     * Appends a sample to the window, overwriting the oldest one once the window is full.
+     *
+     * @param values The PID values of the sample, in the order the window was created with.
+     * @return       True if a correlation is due, i.e. the window has just been filled or
+     *               another step of samples has arrived since the previous correlation.
+     */
+    public boolean add(double[] values) {
+        return add(values, -1, -1);
+    }
+
+    /**
+     * Appends a sample consumed from Kafka to the window and remembers its position.
+     *
+     * @param values    The PID values of the sample, in the order the window was created with.
+     * @param partition The partition the sample was consumed from, or -1 if unknown.
+     * @param offset    The offset of the sample in the partition, or -1 if unknown.
+     * @return          True if a correlation is due.
+     * @see #add(double[])
+     */
+    public synchronized boolean add(double[] values, int partition, long offset) {
+        if (values.length != pids) {
+            throw new IllegalArgumentException("Expected " + pids + " values");
+        }
+        if (size == window) {
+            for (int p = 0; p < pids; p++) {
+                evicted[p] = get(p * window + head);
+            }
+            accumulator.remove(evicted);
+            removedSinceRebase++;
+        }
+        if (floatSamples != null) {
+            for (int p = 0; p < pids; p++) {
+                floatSamples[p * window + head] = (float) values[p];
+                rounded[p] = (float) values[p];
+            }
+            accumulator.add(rounded);
+        } else {
+            for (int p = 0; p < pids; p++) {
+                samples[p * window + head] = values[p];
+            }
+            accumulator.add(values);
+        }
+        head = (head + 1) % window;
+        if (size < window) {
+            size++;
+        }
+        count++;
+        if (partition >= 0) {
+            this.partition = partition;
+            this.offset = offset;
+        }
+        if (removedSinceRebase >= window) {
+            accumulator.rebase(columns());
+            removedSinceRebase = 0;
+        }
+        return count >= window && (count - window) % step == 0;
+    }
+
+    /**
+     * Copies the window into one array per PID, oldest sample first.
+     *
+     * @return The PID columns of the window.
+     */
+    public synchronized double[][] columns() {
+        double[][] columns = new double[pids][size];
+        int start = size < window ? 0 : head;
+        for (int p = 0; p < pids; p++) {
+            int base = p * window;
+            if (floatSamples != null) {
+                for (int i = 0; i < size; i++) {
+                    columns[p][i] = floatSamples[base + (start + i) % window];
+                }
+            } else {
+                int firstPart = Math.min(size, window - start);
+                System.arraycopy(samples, base + start, columns[p], 0, firstPart);
+                System.arraycopy(samples, base, columns[p], firstPart, size - firstPart);
+            }
+        }
+        return columns;
+    }
+
+    private double get(int index) {
+        return floatSamples != null ? floatSamples[index] : samples[index];
+    }
+
+    /**
+     * Returns the Pearson correlation of every pair of PIDs over the current window.
+     *
+     * @return The correlations of the pairs (0,1), (0,2), ..., (1,2), ... of the window PIDs,
+     *         in the feature order of {@link PidSet#featureNames()}.
+     */
+    public synchronized double[] correlations() {
+        return accumulator.correlations();
+    }
+
+    /**
+     * @return The number of samples currently held in the window.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The total number of samples accepted since the window was created.
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * Checks whether a record has already been applied to the window, e.g. before it was checkpointed.
+     *
+     * @param partition The partition of the record.
+     * @param offset    The offset of the record.
+     * @return          True if the record is at or before the last applied position of its partition.
+     */
+    public synchronized boolean contains(int partition, long offset) {
+        return partition >= 0 && partition == this.partition && offset <= this.offset;
+    }
+
+    /**
+     * @return The partition of the last sample applied, or -1 if unknown.
+     */
+    public synchronized int partition() {
+        return partition;
+    }
+
+    /**
+     * @return The offset of the last sample applied, or -1 if unknown.
+     */
+    public synchronized long offset() {
+        return offset;
+    }
+
+    /**
+     * @return True if samples have been added since the window was last serialized.
+     */
+    public synchronized boolean isDirty() {
+        return count != checkpointedCount;
+    }
+
+    /**
+     * Marks the window as changed since it was last serialized, e.g. because the checkpoint could not be saved.
+     */
+    public synchronized void markDirty() {
+        checkpointedCount = -1;
+    }
+
+    /**
+     * Serializes the window together with its Kafka position and marks it as checkpointed.
+     *
+     * @param device_id The ID of the device the window belongs to.
+     * @return          The checkpoint of the window.
+     */
+    public synchronized WindowCheckpoint checkpoint(int device_id) {
+        return new WindowCheckpoint(device_id, partition, offset, toBytes());
+    }
+
+    /**
+     * Serializes the window, i.e. its samples oldest first, its running correlation sums and
+     * its Kafka position, and marks it as checkpointed.
+     *
+     * @return The compact binary form of the window.
+     */
+    public synchronized byte[] toBytes() {
+        int sampleBytes = floatSamples != null ? Float.BYTES : Double.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(2 + Short.BYTES + 6 * Integer.BYTES + 2 * Long.BYTES
+                + sampleBytes * pids * size + accumulator.serializedSize());
+        buffer.put(FORMAT_VERSION);
+        buffer.putShort((short) pids);
+        buffer.putInt(pidSetId);
+        buffer.put((byte) sampleBytes);
+        buffer.putInt(window);
+        buffer.putInt(step);
+        buffer.putInt(size);
+        buffer.putInt(removedSinceRebase);
+        buffer.putLong(count);
+        buffer.putInt(partition);
+        buffer.putLong(offset);
+        double[][] columns = columns();
+        for (double[] column : columns) {
+            for (double value : column) {
+                if (floatSamples != null) {
+                    buffer.putFloat((float) value);
+                } else {
+                    buffer.putDouble(value);
+                }
+            }
+        }
+        accumulator.writeTo(buffer);
+        checkpointedCount = count;
+        return buffer.array();
+    }
+
+    /**
+     * Restores a window serialized by {@link #toBytes()}.
+     * Windows of the first format, which did not record their PIDs, were built on {@link PidSet#DEFAULT};
+     * windows before the third format stored their samples as float64.
+     *
+     * @param bytes The binary form of the window.
+     * @return      The restored window.
+     * @throws IllegalArgumentException If the bytes are not a serialized window.
+     */
+    public static DeviceWindow fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte version = buffer.get();
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown window format");
+        }
+        int pids = buffer.getShort();
+        int pidSetId = version == 1 ? PidSet.DEFAULT.id() : buffer.getInt();
+        boolean floatSamples = version >= 3 && buffer.get() == Float.BYTES;
+        DeviceWindow restored = new DeviceWindow(pids, pidSetId, buffer.getInt(), buffer.getInt(), floatSamples);
+        restored.size = buffer.getInt();
+        restored.removedSinceRebase = buffer.getInt();
+        restored.count = buffer.getLong();
+        restored.partition = buffer.getInt();
+        restored.offset = buffer.getLong();
+        for (int p = 0; p < pids; p++) {
+            int base = p * restored.window;
+            for (int i = 0; i < restored.size; i++) {
+                if (floatSamples) {
+                    restored.floatSamples[base + i] = buffer.getFloat();
+                } else {
+                    restored.samples[base + i] = buffer.getDouble();
+                }
+            }
+        }
+        restored.head = restored.size % restored.window;
+        restored.accumulator.readFrom(buffer);
+        restored.checkpointedCount = restored.count;
+        return restored;
+    }
+
+    /**
+     * @return The number of PIDs stored per sample.
+     */
+    public int pids() {
+        return pids;
+    }
+
+    /**
+     * @return True if the samples are stored as float32.
+     */
+    public boolean hasFloatSamples() {
+        return floatSamples != null;
+    }
+
+    /**
+     * Estimates the heap used by the window, its sample buffer and its running sums.
+     *
+     * @return The estimated size in bytes.
+     */
+    public int memoryBytes() {
+        int sampleBytes = 16 + (floatSamples != null
+                ? Float.BYTES * pids * window + 16 + Double.BYTES * pids
+                : Double.BYTES * pids * window);
+        // The window and accumulator objects, the evicted sample and the mean, m2, co-moment and delta arrays
+        return 96 + sampleBytes + 16 + Double.BYTES * pids + 4 * 16 + accumulator.serializedSize() + Double.BYTES * pids;
+    }
+
+    /**
+     * @return The {@link PidSet#id()} of the PIDs stored per sample, or 0 if the window was not created from a PID set.
+     */
+    public int pidSetId() {
+        return pidSetId;
+    }
+
+    /**
+     * @return The number of samples kept in the window.
+     */
+    public int window() {
+        return window;
+    }
+
+    /**
+     * @return The number of new samples between two consecutive correlations.
+     */
+    public int step() {
+        return step;
+    }
+}
@@ -0,0 +1,140 @@
+package com.navarchos.Navarchos;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the tables of the consumer in memory, selected with `navarchos.storage=memory`.
+ * Used to measure the consumer without a database: raw data and audit samples are only counted,
+ * and only the latest correlation and PdM response of every device is kept, so memory stays bounded
+ * by the number of devices. Devices have no assignment unless one is set with {@link #assign}.
+ */
+@Component
+@ConditionalOnProperty(name = "navarchos.storage", havingValue = "memory")
+public class InMemoryPidRepository implements PidRepository {
+    private static final int[] UNASSIGNED = {-1, -1, -1};
+    private static final DateTimeFormatter DT_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Map<Integer, int[]> assignments = new ConcurrentHashMap<>();
+    private final Map<Integer, CorrelationRow> latestCorrelations = new ConcurrentHashMap<>();
+    private final Map<Integer, ResponseBody> latestResponses = new ConcurrentHashMap<>();
+    private final LongAdder rawRows = new LongAdder();
+    private final LongAdder bufferSamples = new LongAdder();
+    private final LongAdder correlations = new LongAdder();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder alarms = new LongAdder();
+
+    /**
+     * Assigns a driver, vehicle and group to a device.
+     *
+     * @param deviceId The ID of the device.
+     * @param dvg      The driver, vehicle and group IDs.
+     */
+    public void assign(int deviceId, int[] dvg) {
+        assignments.put(deviceId, dvg.clone());
+    }
+
+    @Override
+    public int[] findAssignment(int deviceId) {
+        return assignments.getOrDefault(deviceId, UNASSIGNED).clone();
+    }
+
+    @Override
+    public void saveRaw(List<RawPidRow> rows) {
+        rawRows.add(rows.size());
+    }
+
+    @Override
+    public void saveBufferSample(int dt, int deviceId, double[] conditions) {
+        bufferSamples.increment();
+    }
+
+    @Override
+    public void saveResults(List<CorrelationRow> correlations, List<ResponseBody> responses) {
+        for (CorrelationRow correlation : correlations) {
+            latestCorrelations.put(correlation.deviceId(), correlation);
+        }
+        for (ResponseBody responseBody : responses) {
+            try {
+                latestResponses.put(Integer.parseInt(responseBody.getSource()), responseBody);
+            } catch (NumberFormatException e) {
+                // Skipped like a row with an invalid source in Postgres
+                continue;
+            }
+            this.responses.increment();
+            if (responseBody.isAlarm()) {
+                alarms.increment();
+            }
+        }
+        this.correlations.add(correlations.size());
+    }
+
+    @Override
+    public List<CorrelationRow> findLatestCorrelations(LocalDateTime since) {
+        String from = since.format(DT_FORMAT);
+        return latestCorrelations.values().stream().filter(correlation -> correlation.dt().compareTo(from) >= 0).toList();
+    }
+
+    @Override
+    public List<ResponseBody> findLatestResponses(LocalDateTime since) {
+        String from = since.format(DT_FORMAT);
+        return latestResponses.values().stream().filter(responseBody -> responseBody.getTimestamp().compareTo(from) >= 0).toList();
+    }
+
+    /**
+     * @param deviceId The ID of the device.
+     * @return         The latest correlation saved for the device, or null if there is none.
+     */
+    public CorrelationRow latestCorrelation(int deviceId) {
+        return latestCorrelations.get(deviceId);
+    }
+
+    /**
+     * @param deviceId The ID of the device.
+     * @return         The latest PdM response saved for the device, or null if there is none.
+     */
+    public ResponseBody latestResponse(int deviceId) {
+        return latestResponses.get(deviceId);
+    }
+
+    /**
+     * @return The number of raw rows saved.
+     */
+    public long rawRows() {
+        return rawRows.sum();
+    }
+
+    /**
+     * @return The number of audit samples saved.
+     */
+    public long bufferSamples() {
+        return bufferSamples.sum();
+    }
+
+    /**
+     * @return The number of correlations saved.
+     */
+    public long correlations() {
+        return correlations.sum();
+    }
+
+    /**
+     * @return The number of PdM responses saved.
+     */
+    public long responses() {
+        return responses.sum();
+    }
+
+    /**
+     * @return The number of PdM responses saved that raised an alarm.
+     */
+    public long alarms() {
+        return alarms.sum();
+    }
+}
@@ -0,0 +1,99 @@
+package com.navarchos.Navarchos;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.sql.*;
+import java.util.List;
+
+/**
+ * Writes raw PID data with one JDBC batch of `INSERT` statements.
+ */
+@Component
+@ConditionalOnProperty(name = "navarchos.raw.writer", havingValue = "insert", matchIfMissing = true)
+public class InsertRawPidWriter implements RawPidWriter {
+
+    @Override
+    public void write(Connection conn, List<RawPidRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement preparedStmt = prepareRawInsert(conn)) {
+            if (rows.size() == 1) {
+                bindRawData(preparedStmt, rows.get(0).event(), rows.get(0).dvg());
+                preparedStmt.execute();
+                return;
+            }
+            for (RawPidRow row : rows) {
+                bindRawData(preparedStmt, row.event(), row.dvg());
+                preparedStmt.addBatch();
+            }
+            preparedStmt.executeBatch();
+        }
+    }
+
+    /**
+     * Sets a double value in a prepared statement, or sets the value to NULL if it is null.
+     *
+     * @param stmt           The PreparedStatement in which to set the value.
+     * @param parameterIndex The index of the parameter to set.
+     * @param value          The value to be set, or null.
+     * @throws SQLException  If a database access error occurs.
+     */
+    public void setDoubleOrNull(PreparedStatement stmt, int parameterIndex, Double value) throws SQLException {
+        if (value != null) {
+            stmt.setDouble(parameterIndex, value);
+        } else {
+            stmt.setNull(parameterIndex, Types.DOUBLE);
+        }
+    }
+
+    /**
+     * Sets the JSON form of the PID attributes in a prepared statement, or sets the value to NULL if there are no attributes.
+     *
+     * @param stmt           The PreparedStatement in which to set the value.
+     * @param parameterIndex The index of the parameter to set.
+     * @param attributes     The parsed attributes, or null.
+     * @throws SQLException  If a database access error occurs.
+     */
+    public void setJSONOrEmpty(PreparedStatement stmt, int parameterIndex, PidAttributes attributes) throws SQLException {
+        if (attributes != null) {
+            stmt.setObject(parameterIndex, attributes.json());
+        } else {
+            stmt.setNull(parameterIndex, Types.OTHER);
+        }
+    }
+
+    /**
+     * Binds the raw PID data of a message to the `data_pids_er` insert statement.
+     *
+     * @param preparedStmt The insert statement returned by {@link #prepareRawInsert(Connection)}.
+     * @param event        The decoded message.
+     * @param dvg          The driver, vehicle and group IDs of the device.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void bindRawData(PreparedStatement preparedStmt, PidEvent event, int[] dvg) throws SQLException {
+        preparedStmt.setInt(1, event.deviceTimestamp());
+        preparedStmt.setInt(2, event.deviceId());
+        preparedStmt.setInt(3, dvg[0]);
+        preparedStmt.setInt(4, dvg[1]);
+        preparedStmt.setInt(5, dvg[2]);
+        setDoubleOrNull(preparedStmt, 6, event.latitude());
+        setDoubleOrNull(preparedStmt, 7, event.longitude());
+        preparedStmt.setString(8, event.topic());
+        setJSONOrEmpty(preparedStmt, 9, event.attributes());
+    }
+
+    /**
+     * Prepares the insert statement for the `data_pids_er` table.
+     *
+     * @param conn The database connection to be used for executing the query.
+     * @return     The prepared insert statement.
+     * @throws SQLException If a database access error occurs.
+     */
+    public PreparedStatement prepareRawInsert(Connection conn) throws SQLException {
+        //Prepare query to insert pid data
+        String query = "INSERT INTO data_pids_er(dt, device_id, driver_id, vehicle_id, group_id, position, pid_type, data)"
+                + "VALUES(?,?,?,?,?,POINT(?,?),?,?::jsonb)";
+        return conn.prepareStatement(query);
+    }
+}
@@ -0,0 +1,225 @@
+package com.navarchos.Navarchos;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the tables of the consumer in Postgres.
+ * Raw data is written through the configured {@link RawPidWriter}; arrays are sent as text literals
+ * instead of being built with `createArrayOf`.
+ */
+@Component
+@ConditionalOnProperty(name = "navarchos.storage", havingValue = "jdbc", matchIfMissing = true)
+public class JdbcPidRepository implements PidRepository {
+    private static final Logger log = LoggerFactory.getLogger(JdbcPidRepository.class);
+    private static final DateTimeFormatter DT_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private RawPidWriter rawPidWriter;
+
+    @Override
+    public int[] findAssignment(int deviceId) throws SQLException {
+        //Retrieve driver, vehicle and group id for a given device id
+        String query_dvg = "SELECT driver_id, vehicle_id, group_id FROM mgt_dvg WHERE device_id=? AND status = 1 AND disabled_dt IS NULL ";
+        int[] dvg = {-1, -1, -1};
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(query_dvg)) {
+            pstmt.setInt(1, deviceId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    // Retrieve values from each column
+                    dvg[0] = rs.getInt("driver_id");
+                    dvg[1] = rs.getInt("vehicle_id");
+                    dvg[2] = rs.getInt("group_id");
+                }
+            }
+        }
+        return dvg;
+    }
+
+    @Override
+    public void saveRaw(List<RawPidRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            if (rows.size() == 1) {
+                rawPidWriter.write(conn, rows);
+                return;
+            }
+            conn.setAutoCommit(false);
+            try {
+                rawPidWriter.write(conn, rows);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void saveBufferSample(int dt, int deviceId, double[] conditions) throws SQLException {
+        String buffer_query = "INSERT INTO pids_buffer(dt, device_id, rpm, obdSpeed, mapIntake, intakeTemp, coolantTemp, MAFairFlowRate)"
+                + "VALUES(?,?,?,?,?,?,?,?)";
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement preparedStmt = conn.prepareStatement(buffer_query)) {
+            preparedStmt.setInt(1, dt);
+            preparedStmt.setInt(2, deviceId);
+            preparedStmt.setInt(3, (int) conditions[5]);
+            preparedStmt.setInt(4, (int) conditions[3]);
+            preparedStmt.setInt(5, (int) conditions[0]);
+            preparedStmt.setInt(6, (int) conditions[4]);
+            preparedStmt.setInt(7, (int) conditions[1]);
+            preparedStmt.setDouble(8, conditions[2]);
+            preparedStmt.execute();
+        }
+    }
+
+    /**
+     * Writes the results with one batch per table; with `reWriteBatchedInserts` the driver sends each batch
+     * as multi-row inserts. A result with an invalid timestamp or source is skipped.
+     */
+    @Override
+    public void saveResults(List<CorrelationRow> correlations, List<ResponseBody> responses) throws SQLException {
+        if (correlations.isEmpty() && responses.isEmpty()) {
+            return;
+        }
+        String correlation_query = "INSERT INTO pids_correlation(id, dt, correlation) VALUES (?, ?, ?::float8[])";
+        String pdm_query = "INSERT INTO pids_pdm(id, dt, alarm, scores, thresholds, description) VALUES (?, ?, ?, ?::int[], ?::int[], ?)";
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement correlationStmt = conn.prepareStatement(correlation_query);
+                 PreparedStatement responseStmt = conn.prepareStatement(pdm_query)) {
+                int correlationRows = 0;
+                for (CorrelationRow correlation : correlations) {
+                    try {
+                        correlationStmt.setInt(1, correlation.deviceId());
+                        correlationStmt.setTimestamp(2, Timestamp.valueOf(correlation.dt()));
+                        correlationStmt.setString(3, arrayLiteral(correlation.values()));
+                        correlationStmt.addBatch();
+                        correlationRows++;
+                    } catch (IllegalArgumentException | NullPointerException e) {
+                        log.warn("Skipped the correlation of device {} at {}, which is invalid: {}", correlation.deviceId(), correlation.dt(), e.toString());
+                    }
+                }
+                int responseRows = 0;
+                for (ResponseBody responseBody : responses) {
+                    try {
+                        responseStmt.setInt(1, Integer.parseInt(responseBody.getSource()));
+                        responseStmt.setTimestamp(2, Timestamp.valueOf(responseBody.getTimestamp()));
+                        responseStmt.setBoolean(3, responseBody.isAlarm());
+                        responseStmt.setString(4, arrayLiteral(responseBody.getScores()));
+                        responseStmt.setString(5, arrayLiteral(responseBody.getThresholds()));
+                        responseStmt.setString(6, responseBody.getDescription());
+                        responseStmt.addBatch();
+                        responseRows++;
+                    } catch (IllegalArgumentException | NullPointerException e) {
+                        log.warn("Skipped the PdM response of source {} at {}, which is invalid: {}", responseBody.getSource(), responseBody.getTimestamp(), e.toString());
+                    }
+                }
+                if (correlationRows > 0) {
+                    correlationStmt.executeBatch();
+                }
+                if (responseRows > 0) {
+                    responseStmt.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public List<CorrelationRow> findLatestCorrelations(LocalDateTime since) throws SQLException {
+        String query = "SELECT DISTINCT ON (id) id, dt, correlation FROM pids_correlation WHERE dt >= ? ORDER BY id, dt DESC";
+        List<CorrelationRow> rows = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setObject(1, since);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Double[] correlation = (Double[]) rs.getArray("correlation").getArray();
+                    double[] values = new double[correlation.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = correlation[i] == null ? Double.NaN : correlation[i];
+                    }
+                    rows.add(new CorrelationRow(rs.getInt("id"), rs.getObject("dt", LocalDateTime.class).format(DT_FORMAT), values));
+                }
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public List<ResponseBody> findLatestResponses(LocalDateTime since) throws SQLException {
+        String query = "SELECT DISTINCT ON (id) id, dt, alarm, scores, thresholds, description FROM pids_pdm WHERE dt >= ? ORDER BY id, dt DESC";
+        List<ResponseBody> responses = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(query)) {
+            pstmt.setObject(1, since);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Array scores = rs.getArray("scores");
+                    Array thresholds = rs.getArray("thresholds");
+                    List<String> thresholdValues = null;
+                    if (thresholds != null) {
+                        thresholdValues = new ArrayList<>();
+                        for (Integer threshold : (Integer[]) thresholds.getArray()) {
+                            thresholdValues.add(threshold == null ? null : threshold.toString());
+                        }
+                    }
+                    responses.add(new ResponseBody(String.valueOf(rs.getInt("id")), rs.getObject("dt", LocalDateTime.class).format(DT_FORMAT),
+                            rs.getBoolean("alarm"), rs.getString("description"),
+                            scores == null ? null : Arrays.asList((Integer[]) scores.getArray()), thresholdValues));
+                }
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Formats values as a PostgreSQL array literal, e.g. `{0.5,-1.0E-4,NaN}`.
+     */
+    static String arrayLiteral(double[] values) {
+        StringBuilder literal = new StringBuilder(values.length * 20 + 2).append('{');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                literal.append(',');
+            }
+            literal.append(values[i]);
+        }
+        return literal.append('}').toString();
+    }
+
+    /**
+     * Formats the elements of a list as a PostgreSQL array literal, or returns null for a null list.
+     */
+    static String arrayLiteral(List<?> values) {
+        if (values == null) {
+            return null;
+        }
+        StringBuilder literal = new StringBuilder().append('{');
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                literal.append(',');
+            }
+            Object value = values.get(i);
+            literal.append(value == null ? "NULL" : value.toString().trim());
+        }
+        return literal.append('}').toString();
+    }
+}
@@ -0,0 +1,103 @@
+package com.navarchos.Navarchos;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Stores window checkpoints as one `bytea` row per device in `pids_window_checkpoint`.
+ * The table is created on first use if it does not exist.
+ */
+@Component
+public class JdbcWindowCheckpointStore implements WindowCheckpointStore {
+    private static final Logger log = LoggerFactory.getLogger(JdbcWindowCheckpointStore.class);
+    @Autowired
+    private DataSource dataSource;
+    private volatile boolean tableReady;
+
+    @Override
+    public void save(List<WindowCheckpoint> checkpoints) throws SQLException {
+        if (checkpoints.isEmpty()) {
+            return;
+        }
+        String upsert = "INSERT INTO pids_window_checkpoint(device_id, kafka_partition, kafka_offset, state, updated_dt) "
+                + "VALUES (?, ?, ?, ?, now()) ON CONFLICT (device_id) DO UPDATE SET kafka_partition = EXCLUDED.kafka_partition, "
+                + "kafka_offset = EXCLUDED.kafka_offset, state = EXCLUDED.state, updated_dt = EXCLUDED.updated_dt";
+        try (Connection conn = dataSource.getConnection()) {
+            ensureTable(conn);
+            try (PreparedStatement preparedStatement = conn.prepareStatement(upsert)) {
+                for (WindowCheckpoint checkpoint : checkpoints) {
+                    preparedStatement.setInt(1, checkpoint.deviceId());
+                    preparedStatement.setInt(2, checkpoint.partition());
+                    preparedStatement.setLong(3, checkpoint.offset());
+                    preparedStatement.setBytes(4, checkpoint.state());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+            }
+        }
+    }
+
+    @Override
+    public List<WindowCheckpoint> loadPartitions(Collection<Integer> partitions) {
+        List<WindowCheckpoint> checkpoints = new ArrayList<>();
+        if (partitions.isEmpty()) {
+            return checkpoints;
+        }
+        String query = "SELECT device_id, kafka_partition, kafka_offset, state FROM pids_window_checkpoint WHERE kafka_partition = ANY(?)";
+        try (Connection conn = dataSource.getConnection()) {
+            ensureTable(conn);
+            try (PreparedStatement preparedStatement = conn.prepareStatement(query)) {
+                preparedStatement.setArray(1, conn.createArrayOf("int", partitions.toArray()));
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    while (rs.next()) {
+                        checkpoints.add(read(rs));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("Cannot load the window checkpoints of partitions {}: {}", partitions, e.getMessage());
+        }
+        return checkpoints;
+    }
+
+    @Override
+    public WindowCheckpoint load(int deviceId) {
+        String query = "SELECT device_id, kafka_partition, kafka_offset, state FROM pids_window_checkpoint WHERE device_id = ?";
+        try (Connection conn = dataSource.getConnection()) {
+            ensureTable(conn);
+            try (PreparedStatement preparedStatement = conn.prepareStatement(query)) {
+                preparedStatement.setInt(1, deviceId);
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    return rs.next() ? read(rs) : null;
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("Cannot load the window checkpoint of device {}: {}", deviceId, e.getMessage());
+            return null;
+        }
+    }
+
+    private static WindowCheckpoint read(ResultSet rs) throws SQLException {
+        return new WindowCheckpoint(rs.getInt("device_id"), rs.getInt("kafka_partition"), rs.getLong("kafka_offset"), rs.getBytes("state"));
+    }
+
+    private void ensureTable(Connection conn) throws SQLException {
+        if (tableReady) {
+            return;
+        }
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS pids_window_checkpoint("
+                    + "device_id int PRIMARY KEY, kafka_partition int NOT NULL, kafka_offset bigint NOT NULL, "
+                    + "state bytea NOT NULL, updated_dt timestamptz NOT NULL DEFAULT now())");
+            st.execute("CREATE INDEX IF NOT EXISTS pids_window_checkpoint_partition ON pids_window_checkpoint(kafka_partition)");
+        }
+        tableReady = true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.navarchos.Navarchos;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.ExponentialBackOff;
+
+/**
+ * Kafka listener container configuration.
+ * The default container factory of Spring Boot is used for the record listener,
+ * this class adds the factory used by the batch listener.
+ * Both factories use the {@link WindowCheckpointer} as rebalance listener; Spring Boot picks it up
+ * for its own factory.
+ */
+@Configuration
+public class KafkaConfig {
+
+    /**
+     * Creates the container factory for batch listeners.
+     * Offsets are committed manually, once the listener has persisted the whole batch.
+     *
+     * @param consumerFactory    The consumer factory configured from the `spring.kafka` properties.
+     * @param windowCheckpointer The listener that saves and restores windows on rebalances.
+     * @param retryMs            The delay before the first redelivery of a failed batch.
+     * @param maxRetryMs         The longest delay between redeliveries of a failed batch.
+     * @return                   The batch listener container factory.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> batchKafkaListenerContainerFactory(
+            ConsumerFactory<Object, Object> consumerFactory, WindowCheckpointer windowCheckpointer,
+            @Value("${navarchos.kafka.retry-ms:1000}") long retryMs,
+            @Value("${navarchos.kafka.max-retry-ms:30000}") long maxRetryMs) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setConsumerRebalanceListener(windowCheckpointer);
+        factory.setCommonErrorHandler(batchErrorHandler(retryMs, maxRetryMs));
+        return factory;
+    }
+
+    /**
+     * Creates the error handler of the batch listener, which redelivers a failed batch with a backoff
+     * until it is written. It never gives up: the default handler would log the batch after a few
+     * attempts, skip it and commit its offsets, losing the raw data of every record in it.
+     *
+     * @param retryMs    The delay before the first redelivery, doubled after every failure.
+     * @param maxRetryMs The longest delay between redeliveries.
+     * @return           The error handler.
+     */
+    static DefaultErrorHandler batchErrorHandler(long retryMs, long maxRetryMs) {
+        ExponentialBackOff backOff = new ExponentialBackOff(retryMs, 2);
+        backOff.setMaxInterval(maxRetryMs);
+        backOff.setMaxElapsedTime(Long.MAX_VALUE);
+        return new DefaultErrorHandler(backOff);
+    }
+}
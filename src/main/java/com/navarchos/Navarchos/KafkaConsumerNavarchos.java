@@ -1,103 +1,86 @@
 package com.navarchos.Navarchos;
 
-import org.apache.hc.client5.http.classic.methods.HttpPost;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.core5.http.HttpResponse;
-import org.apache.hc.core5.http.io.entity.StringEntity;
-import org.json.JSONException;
-import org.json.JSONObject;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 import java.util.*;
-import java.sql.*;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.concurrent.CompletableFuture;
+import java.sql.SQLException;
 
 @Service
 public class KafkaConsumerNavarchos {
+    private static final Logger log = LoggerFactory.getLogger(KafkaConsumerNavarchos.class);
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
-    private JSONObject eventJson;
-    String url = "jdbc:postgresql://";
-    String user = "user";
-    String password = "password";
-    int correlationWindow = 300;
-    static int correlationStep = 100;
+    private WindowEngine windowEngine;
+    @Autowired
+    private PdmClient pdmClient;
+    @Autowired
+    private PdmCoalescer pdmCoalescer;
+    @Autowired
+    private DeviceAssignmentCache assignmentCache;
+    @Autowired
+    private AlarmPublisher alarmPublisher;
+    @Autowired
+    private DeviceStateCache deviceStates;
+    @Autowired
+    private DeviceDispatcher dispatcher;
+    @Autowired
+    private PidRepository pidRepository;
+    @Autowired
+    private RawPidBuffer rawPidBuffer;
+    @Autowired
+    private ResultSink resultSink;
+    @Autowired
+    private PipelineMetrics metrics;
+    @Autowired
+    private SampleGate sampleGate;
+    @Value("${navarchos.buffer.audit:false}")
+    boolean bufferAudit = false;
+    @Value("${navarchos.raw.retry-ms:1000}")
+    long rawRetryMs = 1000;
+    @Value("${navarchos.raw.max-retry-ms:30000}")
+    long rawMaxRetryMs = 30000;
+    private volatile int[] gate;
+    private volatile boolean stopping;
 
     /**
-     * Computes and saves to the database the correlation for a given device ID at a specific timestamp.
-     *
-     * @param conn      The database connection to be used for executing the necessary queries.
-     * @param device_id The ID of the device for which the correlation is to be calculated.
-     * @param dt        The timestamp associated with the data for which the correlation is to be calculated.
-     * @throws SQLException If a database access error occurs or if the query fails.
+     * Stops retrying raw writes, so that the workers can finish; the records concerned are left unacknowledged.
      */
-    public void findCorrelation(Connection conn, int device_id, String dt) throws SQLException {
-        // Retrieve data from the database
-        ArrayList<Double> mapIntake = getColumnData(conn, "mapIntake", device_id);
-        ArrayList<Double> coolantTemp = getColumnData(conn, "coolantTemp", device_id);
-        ArrayList<Double> MAFairFlowRate = getColumnData(conn, "MAFairFlowRate", device_id);
-        ArrayList<Double> obdSpeed = getColumnData(conn, "obdSpeed", device_id);
-        ArrayList<Double> intakeTemp = getColumnData(conn, "intakeTemp", device_id);
-        ArrayList<Double> rpm = getColumnData(conn, "rpm", device_id);
-
-        // Calculate correlation between pairs of columns
-        double[] correlationValues = {
-                calculateCorrelation(mapIntake, coolantTemp),
-                calculateCorrelation(mapIntake, MAFairFlowRate),
-                calculateCorrelation(mapIntake, obdSpeed),
-                calculateCorrelation(mapIntake, intakeTemp),
-                calculateCorrelation(mapIntake, rpm),
-                calculateCorrelation(coolantTemp, MAFairFlowRate),
-                calculateCorrelation(coolantTemp, obdSpeed),
-                calculateCorrelation(coolantTemp, intakeTemp),
-                calculateCorrelation(coolantTemp, rpm),
-                calculateCorrelation(MAFairFlowRate, obdSpeed),
-                calculateCorrelation(MAFairFlowRate, intakeTemp),
-                calculateCorrelation(MAFairFlowRate, rpm),
-                calculateCorrelation(obdSpeed, intakeTemp),
-                calculateCorrelation(obdSpeed, rpm),
-                calculateCorrelation(intakeTemp, rpm)};
-
-        String correlation_query = "INSERT INTO pids_correlation(id, dt, correlation)"
-                + "VALUES(?,?,?)";
-        try (PreparedStatement preparedStatement = conn.prepareStatement(correlation_query)) {
-            //Prepare query to insert correlation data
-            preparedStatement.setInt(1, device_id);
-            preparedStatement.setTimestamp(2, Timestamp.valueOf(dt));
-            Array correlationArray = conn.createArrayOf("float8", Arrays.stream(correlationValues).boxed().toArray(Double[]::new));
-            preparedStatement.setArray(3, correlationArray);
-            preparedStatement.execute();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        PdM(conn,dt, correlationValues, device_id);
+    @PreDestroy
+    public void stop() {
+        stopping = true;
     }
 
-
     /**
-     * Retrieves data from a specific column in the buffer table for a given device ID.
+     * Computes and saves to the database the correlation for a given device ID at a specific timestamp,
+     * sends it to the PdM API and pushes it, and any alarm raised, to the dashboards.
+     * Both are also kept in the {@link DeviceStateCache} for the read API.
+     * The correlation is written to `pids_correlation` in the background by the {@link ResultSink}.
      *
-     * @param conn       The database connection to be used for executing the query.
-     * @param columnName The name of the column from which data should be retrieved.
-     * @param device_id  The ID of the device for which the data should be retrieved.
-     * @return           An ArrayList of Double values containing the data from the specified column.
-     * @throws SQLException If a database access error occurs or the query fails.
+     * @param device_id The ID of the device for which the correlation is to be calculated.
+     * @param dt        The timestamp associated with the data for which the correlation is to be calculated.
+     * @param window    The window of the device, whose correlations are maintained incrementally.
+     * @throws SQLException If the assignment of the device cannot be read.
      */
-    public static ArrayList<Double> getColumnData(Connection conn, String columnName, int device_id) throws SQLException {
-        ArrayList<Double> data = new ArrayList<>();
-        String query = "SELECT " + columnName + " FROM pids_buffer WHERE device_id = " + device_id;
-        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(query)) {
-            while (rs.next()) {
-                data.add(rs.getDouble(columnName));
-            }
-        }
-        return data;
+    public void findCorrelation(int device_id, String dt, DeviceWindow window) throws SQLException {
+        // Read the correlation between pairs of PIDs from the running sums of the window
+        double[] correlationValues = window.correlations();
+        resultSink.correlation(device_id, dt, correlationValues);
+        // Push the correlations, and the alarm if the PdM API raises one, to the dashboards of the vehicle and group
+        int[] dvg = assignmentCache.get(device_id);
+        deviceStates.correlation(device_id, dvg, dt, correlationValues);
+        alarmPublisher.correlation(device_id, dvg, dt, correlationValues);
+        pdmCoalescer.score(dt, correlationValues, device_id)
+                .thenAccept(responseBody -> {
+                    deviceStates.response(device_id, dvg, responseBody);
+                    alarmPublisher.response(device_id, dvg, responseBody);
+                });
     }
 
 
@@ -137,388 +120,274 @@ public class KafkaConsumerNavarchos {
     }
 
     /**
-     * Sends data to an PdM API for a given device ID and saves the results to the database.
+     * Calculates the Pearson correlation coefficient between two datasets held in primitive arrays.
      *
-     * @param conn              The database connection to be used for executing the query.
-     * @param dt                The timestamp associated with the correlation data.
-     * @param correlationValues An array of double values representing the correlation data to be sent to the API.
-     * @param device_id         The ID of the device for which the PdM data is being processed.
-     * @throws SQLException     If a database access error occurs or if any related query fails.
+     * @param x An array of double values representing the first dataset.
+     * @param y An array of double values representing the second dataset.
+     * @return  A double value representing the Pearson correlation coefficient between the two datasets.
+     * @throws IllegalArgumentException if the input arrays x and y are not of the same size.
      */
-    public static void PdM(Connection conn,String dt, double[] correlationValues, int device_id) {
-        try {
-            // Create HttpClient instance
-            CloseableHttpClient httpClient = HttpClients.createDefault();
-
-            // Create ObjectMapper instance for JSON serialization/deserialization
-            ObjectMapper objectMapper = new ObjectMapper();
-
-            // Create the request body
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("timestamp", dt);
-            requestBody.put("features", correlationValues);
-            requestBody.put("source", String.valueOf(device_id));
-
-            // Convert the map to JSON
-            String jsonRequestBody = objectMapper.writeValueAsString(requestBody);
-
-            // Print the JSON string representing the request body
-            System.out.println(jsonRequestBody);
-
-            // Create HttpPost instance with endpoint URL
-            HttpPost httpPost = new HttpPost("url/data");
-
-            // Set headers
-            httpPost.setHeader("Content-Type", "application/json");
-
-            // Set request body
-            httpPost.setEntity(new StringEntity(jsonRequestBody));
-
-            // Send the POST request and get the response
-            HttpResponse response = httpClient.execute(httpPost);
-
-            //verify the valid error code first
-            int statusCode = response.getCode();
-            System.out.println(statusCode);
-            if(statusCode==200){
-                // Read and parse the response body
-                ResponseBody responseBody = objectMapper.readValue(((CloseableHttpResponse) response).getEntity().getContent(), ResponseBody.class);
-
-                // Print the response
-                System.out.println("Response:");
-                System.out.println("Alarm: " + responseBody.isAlarm());
-                System.out.println("Description: " + responseBody.getDescription());
-                System.out.println("Scores: " + responseBody.getScores());
-                System.out.println("Source: " + responseBody.getSource());
-                System.out.println("Thresholds: " + responseBody.getThresholds());
-                System.out.println("Timestamp: " + responseBody.getTimestamp());
-                String correlation_query = "INSERT INTO pids_pdm(id, dt, alarm, scores, thresholds, description) VALUES (?, ?, ?, ?, ?, ?)";
-                try (PreparedStatement preparedStatement = conn.prepareStatement(correlation_query)) {
-                    preparedStatement.setInt(1, Integer.parseInt(responseBody.getSource()));
-                    preparedStatement.setTimestamp(2, Timestamp.valueOf(responseBody.getTimestamp()));
-                    preparedStatement.setBoolean(3, responseBody.isAlarm());
-                    Array scores = conn.createArrayOf("int", responseBody.getScores().toArray());
-                    preparedStatement.setArray(4, scores);
-                    Array thresholds = conn.createArrayOf("int", responseBody.getThresholds().toArray());
-                    preparedStatement.setArray(5, thresholds);
-                    preparedStatement.setString(6, responseBody.getDescription());
-                    preparedStatement.execute();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
-            else{
-                System.out.println("Error: "+statusCode);
-            }
-            // Close HttpClient
-            httpClient.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+    public static double calculateCorrelation(double[] x, double[] y) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("Input arrays must have the same size");
         }
+        int n = x.length;
+        double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0, sumYY = 0;
+        for (int i = 0; i < n; i++) {
+            double xi = x[i];
+            double yi = y[i];
+
+            sumX += xi;
+            sumY += yi;
+            sumXY += xi * yi;
+            sumXX += xi * xi;
+            sumYY += yi * yi;
+        }
+        double numerator = n * sumXY - sumX * sumY;
+        double denominator = Math.sqrt((n * sumXX - sumX * sumX) * (n * sumYY - sumY * sumY));
+        if (Math.abs(denominator) < 1e-10) {
+            return 0;
+        }
+        return numerator / denominator;
     }
 
-
     /**
-     * Sends a reset event to the PdM API for a given device.
+     * Converts a date string into a Unix timestamp (seconds since the Unix epoch).
      *
-     * @param dt        The timestamp associated with the reset event.
-     * @param device_id The ID of the device for which the reset event is being sent.
+     * @param dateString The date string to be converted, expected in the format "yyyy-MM-dd HH:mm:ss".
+     * @return           The Unix timestamp as an integer, or 0 if the date string cannot be parsed.
      */
-    public static void PdMReset(String dt, int device_id) {
-        try {
-            // Create HttpClient instance
-            CloseableHttpClient httpClient = HttpClients.createDefault();
-
-            // Create ObjectMapper instance for JSON serialization/deserialization
-            ObjectMapper objectMapper = new ObjectMapper();
-
-            // Create the request body
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("timestamp", dt);
-            requestBody.put("description", "reset");
-            requestBody.put("source", String.valueOf(device_id));
-
-            // Convert the map to JSON
-            String jsonRequestBody = objectMapper.writeValueAsString(requestBody);
-
-            // Print the JSON string representing the request body
-            System.out.println(jsonRequestBody);
-
-            // Create HttpPost instance with endpoint URL
-            HttpPost httpPost = new HttpPost("http://localhost:9000/event");
-
-            // Set headers
-            httpPost.setHeader("Content-Type", "application/json");
-
-            // Set request body
-            httpPost.setEntity(new StringEntity(jsonRequestBody));
-
-            // Send the POST request and get the response
-            HttpResponse response = httpClient.execute(httpPost);
-
-            //verify the valid error code first
-            int statusCode = response.getCode();
-            System.out.println(statusCode);
-            if(statusCode==200){
-                System.out.println("Reset OK");
-            }
-            else{
-                System.out.println("Error: "+statusCode);
-            }
-            // Close HttpClient
-            httpClient.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    public int dateToUnixTimpestamp(String dateString) {
+        return DeviceTimeParser.toUnixTimestamp(dateString);
     }
 
     /**
-     * Deletes a specified number of entries from the `pids_buffer` table for a given device ID.
+     * Returns the indices, in the configured PID set, of the PIDs the qualifying conditions are checked on:
+     * mapIntake, coolantTemp, MAFairFlowRate, obdSpeed, intakeTemp and rpm.
      *
-     * @param conn      The database connection to be used for executing the delete operation.
-     * @param device_id The ID of the device whose entries should be deleted.
-     * @throws SQLException If a database access error occurs or the query fails.
+     * @param pidSet The PIDs of the windows.
+     * @return       The indices of the condition PIDs, in the order of {@link WindowEngine#PIDS}.
+     * @throws IllegalArgumentException If the PID set lacks one of the condition PIDs.
      */
-    private static void deleteEntries(Connection conn, int device_id) throws SQLException {
-        String deleteQuery = "DELETE FROM pids_buffer\n" +
-                "WHERE id IN (\n" +
-                "    SELECT id\n" +
-                "    FROM pids_buffer\n" +
-                "    WHERE device_id = ?\n" +
-                "    ORDER BY created_dt\n" +
-                "    LIMIT ?\n" +
-                ");\n";
-
-        try (PreparedStatement deleteStmt = conn.prepareStatement(deleteQuery)) {
-            deleteStmt.setInt(1, device_id);
-            deleteStmt.setInt(2, correlationStep);
-            deleteStmt.executeUpdate();
-            System.out.println("Deleted " + correlationStep);
+    static int[] gateIndices(PidSet pidSet) {
+        int[] indices = new int[WindowEngine.PIDS.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = pidSet.indexOf(WindowEngine.PIDS[i]);
         }
+        return indices;
     }
 
-    /**
-     * Converts a date string into a Unix timestamp (seconds since the Unix epoch).
-     *
-     * @param dateString The date string to be converted, expected in the format "yyyy-MM-dd HH:mm:ss".
-     * @return           The Unix timestamp as an integer, or 0 if the date string cannot be parsed.
-     */
-    public int dateToUnixTimpestamp(String dateString) {
-        // Define the date format for parsing the timestamp
-        //SimpleDateFormat dateFormat=new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy");
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC")); // Set the expected time zone
-        try {
-            // Parse the date string into a Date object
-            java.util.Date date = dateFormat.parse(dateString);
-            // Convert the Date object to a Unix timestamp (seconds since Unix epoch)
-            long unixTimestamp = date.getTime() / 1000; // Convert milliseconds to seconds
-            return (int) unixTimestamp;
-        } catch (ParseException e) {
-            e.printStackTrace();
+    private int[] gate() {
+        int[] indices = gate;
+        if (indices == null) {
+            indices = gateIndices(windowEngine.pidSet());
+            gate = indices;
         }
-        return 0;
+        return indices;
     }
 
     /**
-     * Retrieves an Integer value from a JSON object, or null if the key is not present or the value is null.
+     * Checks the decoded sample against the {@link SampleGate} and counts where it goes.
      *
-     * @param json The JSON object from which to retrieve the value.
-     * @param key  The key whose associated value is to be retrieved.
-     * @return     The Integer value associated with the key, or null if the key is missing or the value is null.
-     * @throws JSONException If there is an error parsing the JSON object.
+     * @param event The decoded message.
+     * @return      The lane of the sample.
      */
-    public Integer getIntOrNull(JSONObject json, String key) throws JSONException {
-        if (json.has(key) && !json.isNull(key)) {
-            return json.getInt(key);
-        } else {
-            return null;
+    SampleGate.Lane route(PidEvent event) {
+        PipelineMetrics.Filter rejected = sampleGate.check(event.attributes(), gate());
+        SampleGate.Lane lane = sampleGate.lane(rejected);
+        if (rejected != null) {
+            metrics.filtered(rejected);
+            log.debug("Sample of device {} filtered out: {}", event.deviceId(), rejected);
         }
+        metrics.routed(lane);
+        return lane;
     }
 
     /**
-     * Sets a double value in a prepared statement, or sets the value to NULL if the key is not present or the value is null in the JSON object.
-     *
-     * @param stmt           The PreparedStatement in which to set the value.
-     * @param parameterIndex The index of the parameter to set.
-     * @param json           The JSON object from which to retrieve the value.
-     * @param key            The key whose associated value is to be set in the prepared statement.
-     * @throws SQLException  If a database access error occurs.
-     * @throws JSONException If there is an error parsing the JSON object.
+     * Appends a qualifying sample to the window of its device and calculates the correlation when the window moves.
      */
-    public void setDoubleOrNull(PreparedStatement stmt, int parameterIndex, JSONObject json, String key) throws SQLException, JSONException {
-        if (json.has(key) && !json.isNull(key)) {
-            stmt.setDouble(parameterIndex, json.getDouble(key));
-        } else {
-            stmt.setNull(parameterIndex, Types.DOUBLE);
+    private void addToWindow(PidEvent event, int partition, long offset) throws SQLException {
+        PidAttributes attributes = event.attributes();
+        int device_id = event.deviceId();
+        int[] gate = gate();
+        if (bufferAudit) {
+            //Keep a copy of the sample in the buffer table for auditing; the table has columns for the condition PIDs only
+            long started = System.nanoTime();
+            double[] conditions = new double[gate.length];
+            for (int i = 0; i < gate.length; i++) {
+                conditions[i] = attributes.get(gate[i]);
+            }
+            pidRepository.saveBufferSample(event.deviceTimestamp(), device_id, conditions);
+            metrics.record(PipelineMetrics.Stage.BUFFER_INSERT, started);
         }
+        //Append the sample to the in-memory window of the device, which cannot be evicted meanwhile
+        long started = System.nanoTime();
+        windowEngine.update(device_id, window -> {
+            if (window.contains(partition, offset)) {
+                // Already applied before the window was checkpointed
+                return;
+            }
+            boolean correlationDue = window.add(attributes.values(), partition, offset);
+            metrics.record(PipelineMetrics.Stage.WINDOW, started);
+            if (window.count() == 1) {
+                pdmClient.reset(event.dt(), device_id);
+            }
+            //If the window has just been filled or moved by a step
+            if (correlationDue) {
+                //Calculate correlation
+                long correlationStarted = System.nanoTime();
+                findCorrelation(device_id, event.deviceTime(), window);
+                metrics.record(PipelineMetrics.Stage.CORRELATION, correlationStarted);
+            }
+            log.debug("Count: {}", window.size());
+        });
     }
 
     /**
-     * Retrieves a Double value from a JSON object, or null if the key is not present or the value is null.
+     * Processes a single message on the worker of its device: writes its raw data, appends qualifying samples
+     * to the in-memory window of the device and calculates correlations when the window moves.
+     * Without the raw data buffer, the raw data is written here, which retries transient failures with a
+     * backoff. A row that fails for another reason would never be written and is logged and skipped.
+     * Failures of the window are only logged.
      *
-     * @param json The JSON object from which to retrieve the value.
-     * @param key  The key whose associated value is to be retrieved.
-     * @return     The Double value associated with the key, or null if the key is missing or the value is null.
-     * @throws JSONException If there is an error parsing the JSON object.
+     * @param event     The decoded message.
+     * @param lane      The lane of the sample, other than the drop lane.
+     * @param partition The partition the message was consumed from.
+     * @param offset    The offset of the message in the partition.
+     * @throws SQLException         If the raw data could not be written before the consumer was stopped.
+     * @throws InterruptedException If interrupted while waiting to retry the raw data.
      */
-    public Double getDoubleOrNull(JSONObject json, String key) throws JSONException {
-        if (json.has(key) && !json.isNull(key)) {
-            return json.getDouble(key);
-        } else {
-            return null;
+    private void processMessage(PidEvent event, SampleGate.Lane lane, int partition, long offset) throws SQLException, InterruptedException {
+        if (!rawPidBuffer.isEnabled()) {
+            try {
+                SqlRetry.run(() -> "write the raw data of device " + event.deviceId() + " at offset " + offset + " of partition " + partition,
+                        () -> saveRaw(event), rawRetryMs, rawMaxRetryMs, () -> stopping);
+            } catch (SQLException | RuntimeException e) {
+                if (e instanceof SQLException sqlException && SqlRetry.isTransient(sqlException)) {
+                    throw sqlException;
+                }
+                log.error("Skipped the raw data of device {} at offset {} of partition {}, which cannot be written",
+                        event.deviceId(), offset, partition, e);
+            }
+        }
+        if (lane == SampleGate.Lane.WINDOW) {
+            try {
+                addToWindow(event, partition, offset);
+            } catch (SQLException | RuntimeException e) {
+                log.error("Cannot add the sample of device {} at offset {} of partition {} to its window",
+                        event.deviceId(), offset, partition, e);
+            }
         }
     }
 
+    private void saveRaw(PidEvent event) throws SQLException {
+        long started = System.nanoTime();
+        int[] dvg = assignmentCache.get(event.deviceId());
+        metrics.record(PipelineMetrics.Stage.ASSIGNMENT, started);
+        log.debug("Vehicle ID: {} Message: {}", dvg[1], event);
+        started = System.nanoTime();
+        pidRepository.saveRaw(List.of(new RawPidRow(event, dvg)));
+        metrics.record(PipelineMetrics.Stage.RAW_INSERT, started);
+    }
+
     /**
-     * Sets a JSON-formatted string in a prepared statement, or sets the value to NULL if the key is not present or the value is null in the JSON object.
+     * Kafka listener method that consumes messages from the "PID" topic.
+     * The message has already been decoded by {@link PidEventDeserializer} and is routed by the {@link SampleGate}
+     * right away: a dropped sample is acknowledged without further work and, with the raw data buffer enabled,
+     * a sample that is only archived is queued to the buffer without going through a worker. Qualifying samples
+     * are handed to the worker of their device, so devices are processed in parallel while each device keeps its order.
+     * The record is acknowledged once the worker is done and, if the raw data buffer is enabled, once its
+     * raw data is committed; with asynchronous acks the container only commits an offset when every
+     * earlier record of the partition has been acknowledged as well, and stops polling while acks are missing.
+     * Raw writes are therefore retried until they succeed, by the worker or the raw data buffer, and a record
+     * is only left unacknowledged when the application stops first; it is then redelivered after the restart.
+     * Used unless the batch listener is enabled with `navarchos.kafka.batch-listener`.
      *
-     * @param stmt           The PreparedStatement in which to set the value.
-     * @param parameterIndex The index of the parameter to set.
-     * @param json           The JSON object from which to retrieve the value.
-     * @param key            The key whose associated value is to be set in the prepared statement.
-     * @throws SQLException  If a database access error occurs.
-     * @throws JSONException If there is an error parsing the JSON object.
+     * @param record         The record consumed from the Kafka topic, holding the decoded message.
+     * @param acknowledgment The handle used to commit the offset of the record.
      */
-    public void setJSONOrEmpty(PreparedStatement stmt, int parameterIndex, JSONObject json, String key) throws SQLException, JSONException {
-
-        if (json.has(key) && !json.isNull(key)) {
-            String jsonString = json.get(key).toString()
-                    .replaceAll("(\\w+)=(\\w+|\\{[^}]*\\}|\\[[^\\]]*\\])", "\"$1\":\"$2\"")
-                    .replaceAll(":\"(\\d+(\\.\\d+)*)\"", ":$1")
-                    .replaceAll(":\"\\[([\\d,]+)\\]\"", ":[$1]");
-            stmt.setObject(parameterIndex, jsonString);
-        } else {
-            stmt.setNull(parameterIndex, Types.OTHER);
+    @KafkaListener(id = "pid", topics = "PID", groupId = "traccar",
+            autoStartup = "#{!${navarchos.kafka.batch-listener:false}}")
+    private void consumePidMessage(ConsumerRecord<String, PidEvent> record, Acknowledgment acknowledgment) {
+        PidEvent event = record.value();
+        SampleGate.Lane lane = route(event);
+        if (lane == SampleGate.Lane.DROP) {
+            acknowledgment.acknowledge();
+            return;
         }
+        CompletableFuture<Void> stored = rawPidBuffer.isEnabled() ? rawPidBuffer.append(event) : CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> processed = lane == SampleGate.Lane.ARCHIVE && rawPidBuffer.isEnabled()
+                ? CompletableFuture.completedFuture(null)
+                : dispatcher.submit(event.deviceId(), () -> processMessage(event, lane, record.partition(), record.offset()));
+        CompletableFuture.allOf(stored, processed)
+                .whenComplete((result, e) -> {
+                    if (e != null) {
+                        log.warn("Message of device {} at offset {} of partition {} is left unacknowledged on shutdown",
+                                event.deviceId(), record.offset(), record.partition(), e);
+                        return;
+                    }
+                    acknowledgment.acknowledge();
+                });
     }
 
     /**
-     * Kafka listener method that consumes messages from the "PID" topic and processes them.
-     * The method decodes the message, performs checks, inserts data into tables, calculates correlations,
-     * and manages buffer entries.
+     * Kafka listener method that consumes a whole poll of the "PID" topic at once.
+     * The messages are routed by the {@link SampleGate} first; dropped samples are skipped.
+     * The raw PID data of the other messages is saved to `data_pids_er` through the {@link PidRepository}
+     * in one transaction; if it fails the exception is propagated, and the error handler of
+     * {@link KafkaConfig#batchErrorHandler(long, long)} redelivers the batch without committing it until it is written.
+     * The qualifying samples are then added to the windows by the workers of their devices and the offsets are
+     * acknowledged once the slowest of them is done.
      *
-     * @param message The message consumed from the Kafka topic in JSON format.
-     * @throws Exception If any error occurs during message processing, including database operations or JSON parsing.
+     * @param records        The records returned by the poll; records that could not be decoded have a null value.
+     * @param acknowledgment The handle used to commit the offsets of the batch.
+     * @throws SQLException If the raw data cannot be written to the database.
      */
-    @KafkaListener(topics = "PID", groupId = "traccar")
-    private void consumePidMessage(String message) throws Exception {
-        eventJson = new JSONObject(message);
-
-        PreparedStatement preparedStmt = null;
-        //Connect to database
-        try (Connection conn = DriverManager.getConnection(url, user, password)) {
-            //Retrieve driver, vehicle and group id for a given device id
-            String query_dvg = "SELECT driver_id, vehicle_id, group_id FROM mgt_dvg WHERE device_id=? AND status = 1 AND disabled_dt IS NULL ";
-            try (PreparedStatement pstmt = conn.prepareStatement(query_dvg)) {
-                int device_id = eventJson.getInt("deviceId");
-                pstmt.setInt(1, device_id);
-                int driverId = -1;
-                int vehicleId = -1;
-                int groupId = -1;
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    while (rs.next()) {
-                        // Retrieve values from each column
-                        driverId = rs.getInt("driver_id");
-                        vehicleId = rs.getInt("vehicle_id");
-                        groupId = rs.getInt("group_id");
-                    }
-                    System.out.println("Vehicle ID: " + vehicleId + " Message: " + message);
-                    //Prepare query to insert pid data
-                    String query = "INSERT INTO data_pids_er(dt, device_id, driver_id, vehicle_id, group_id, position, pid_type, data)"
-                            + "VALUES(?,?,?,?,?,POINT(?,?),?,?::jsonb)";
-                    preparedStmt = conn.prepareStatement(query);
-                    preparedStmt.setInt(1, dateToUnixTimpestamp(eventJson.getString("deviceTime")));
-                    preparedStmt.setInt(2, device_id);
-                    preparedStmt.setInt(3, driverId);
-                    preparedStmt.setInt(4, vehicleId);
-                    preparedStmt.setInt(5, groupId);
-                    setDoubleOrNull(preparedStmt, 6, eventJson, "latitude");
-                    setDoubleOrNull(preparedStmt, 7, eventJson, "longitude");
-                    preparedStmt.setString(8, eventJson.getString("topic"));
-                    setJSONOrEmpty(preparedStmt, 9, eventJson, "PIDAttributes");
-                    preparedStmt.execute();
-
-                    if (eventJson.has("PIDAttributes")) {
-                        //Transform attributes to json format
-                        String jsonString = eventJson.get("PIDAttributes").toString()
-                                .replaceAll("(\\w+)=(\\w+|\\{[^}]*\\}|\\[[^\\]]*\\])", "\"$1\":\"$2\"")
-                                .replaceAll(":\"(\\d+(\\.\\d+)*)\"", ":$1")
-                                .replaceAll(":\"\\[([\\d,]+)\\]\"", ":[$1]");
-                        try {
-                            //Prepare query to insert buffer data
-                            JSONObject json = new JSONObject(jsonString);
-                            String buffer_query = "INSERT INTO pids_buffer(dt, device_id, rpm, obdSpeed, mapIntake, intakeTemp, coolantTemp, MAFairFlowRate)"
-                                    + "VALUES(?,?,?,?,?,?,?,?)";
-
-                            Integer rpm = getIntOrNull(json, "rpm");
-                            Integer obdSpeed = getIntOrNull(json, "obdSpeed");
-                            Integer mapIntake = getIntOrNull(json, "mapIntake");
-                            Integer intakeTemp = getIntOrNull(json, "intakeTemp");
-                            Integer coolantTemp = getIntOrNull(json, "coolantTemp");
-                            Double MAFairFlowRate = getDoubleOrNull(json, "MAFairFlowRate");
-                            if (rpm != null && obdSpeed != null && mapIntake != null && intakeTemp != null && coolantTemp != null && MAFairFlowRate != null) {
-                                if (obdSpeed > 20 && mapIntake > 95 && intakeTemp > 1 && intakeTemp < 210 && coolantTemp > 1
-                                        && coolantTemp < 210 && rpm > 1 && MAFairFlowRate > 1) {
-                                    // All conditions are met
-                                    preparedStmt = conn.prepareStatement(buffer_query);
-                                    preparedStmt.setInt(1, dateToUnixTimpestamp(eventJson.getString("deviceTime")));
-                                    preparedStmt.setInt(2, device_id);
-                                    preparedStmt.setInt(3, rpm);
-                                    preparedStmt.setInt(4, obdSpeed);
-                                    preparedStmt.setInt(5, mapIntake);
-                                    preparedStmt.setInt(6, intakeTemp);
-                                    preparedStmt.setInt(7, coolantTemp);
-                                    preparedStmt.setDouble(8, MAFairFlowRate);
-                                    preparedStmt.execute();
-                                    Statement st = conn.createStatement();
-                                    //Count buffer entries for a given device id
-                                    ResultSet rs_count = st.executeQuery("SELECT count(*) FROM pids_buffer where device_id=" + device_id);
-
-                                    if (rs_count.next()) {
-                                        int count = rs_count.getInt(1);
-                                        if (count==1){
-                                            PdMReset(eventJson.getString("dt"),device_id);
-                                        }
-                                        //If the entries count is the same as the window
-                                        if (count == correlationWindow) {
-                                            //Calculate correlation
-                                            findCorrelation(conn, device_id, eventJson.getString("deviceTime"));
-                                        }
-                                        //If the entries count is more than the window
-                                        else if (count > correlationWindow) {
-                                            //If the difference from the correlation window is the same as the window step
-                                            if (count - correlationStep == correlationWindow) {
-                                                //Delete older entries
-                                                deleteEntries(conn, device_id);
-                                                //Calculate correlation
-                                                findCorrelation(conn, device_id, eventJson.getString("deviceTime"));
-                                            }
-                                        }
-                                        System.out.println("Count: " + count);
-                                    } else {
-                                        System.out.println("No rows returned from the query.");
-                                    }
-                                } else {
-                                    // Conditions are not met
-                                    System.out.println("One or more conditions are not met.");
-                                }
-                            } else {
-                                // One or more values are null
-                                System.out.println("One or more values are null.");
-                            }
-                        } catch (SQLException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-            } catch (SQLException e) {
-                e.printStackTrace();
-                // Handle exceptions
+    @KafkaListener(id = "pidBatch", topics = "PID", groupId = "traccar",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "${navarchos.kafka.batch-listener:false}")
+    private void consumePidBatch(List<ConsumerRecord<String, PidEvent>> records, Acknowledgment acknowledgment) throws SQLException {
+        List<ConsumerRecord<String, PidEvent>> decoded = new ArrayList<>(records.size());
+        List<ConsumerRecord<String, PidEvent>> qualifying = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, PidEvent> record : records) {
+            if (record.value() == null) {
+                log.warn("Skipping undecodable message at offset {}", record.offset());
+                continue;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            SampleGate.Lane lane = route(record.value());
+            if (lane != SampleGate.Lane.DROP) {
+                decoded.add(record);
+            }
+            if (lane == SampleGate.Lane.WINDOW) {
+                qualifying.add(record);
+            }
+        }
+
+        //Write all raw rows in one transaction
+        List<RawPidRow> rows = new ArrayList<>(decoded.size());
+        for (ConsumerRecord<String, PidEvent> record : decoded) {
+            PidEvent event = record.value();
+            long started = System.nanoTime();
+            rows.add(new RawPidRow(event, assignmentCache.get(event.deviceId())));
+            metrics.record(PipelineMetrics.Stage.ASSIGNMENT, started);
+        }
+        long writeStarted = System.nanoTime();
+        pidRepository.saveRaw(rows);
+        metrics.record(PipelineMetrics.Stage.RAW_INSERT, writeStarted);
+        log.debug("Stored batch of {} messages", decoded.size());
+
+        CompletableFuture<?>[] windows = new CompletableFuture<?>[qualifying.size()];
+        for (int i = 0; i < qualifying.size(); i++) {
+            ConsumerRecord<String, PidEvent> record = qualifying.get(i);
+            windows[i] = dispatcher.submit(record.value().deviceId(),
+                    () -> addToWindow(record.value(), record.partition(), record.offset())).exceptionally(e -> {
+                log.error("Cannot add the sample of device {} at offset {} of partition {} to its window",
+                        record.value().deviceId(), record.offset(), record.partition(), e);
+                return null;
+            });
         }
+        CompletableFuture.allOf(windows).join();
+        acknowledgment.acknowledge();
     }
 
 }
@@ -0,0 +1,61 @@
+package com.navarchos.Navarchos;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Gauges of the queues between the stages of the consumer and of the memory of the windows.
+ * Consumer lag is not measured here: Spring Boot binds the metrics of the Kafka clients, which include
+ * `kafka_consumer_fetch_manager_records_lag_max` and the lag of every assigned partition.
+ */
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Registers the gauges of the PdM client, the device workers, the window engine and the result sink.
+     *
+     * @param pdmClient    The PdM client, whose requests in flight are measured.
+     * @param dispatcher   The device workers, whose pending messages are measured.
+     * @param windowEngine The window engine, whose number of device windows is measured.
+     * @param resultSink   The result sink, whose queued results are measured.
+     * @return             The binder that registers the gauges.
+     */
+    @Bean
+    public MeterBinder pipelineGauges(PdmClient pdmClient, DeviceDispatcher dispatcher, WindowEngine windowEngine,
+                                      ResultSink resultSink) {
+        return registry -> {
+            Gauge.builder("navarchos.pdm.in.flight", pdmClient, PdmClient::inFlight)
+                    .description("PdM requests sent or waiting for a retry")
+                    .register(registry);
+            Gauge.builder("navarchos.workers.pending", dispatcher, DeviceDispatcher::pending)
+                    .description("Messages queued for or running on the device workers")
+                    .register(registry);
+            Gauge.builder("navarchos.windows", windowEngine, WindowEngine::devices)
+                    .description("Devices with a window in memory")
+                    .register(registry);
+            Gauge.builder("navarchos.windows.memory", windowEngine, WindowEngine::memoryBytes)
+                    .description("Estimated heap used by the windows in memory")
+                    .baseUnit(BaseUnits.BYTES)
+                    .register(registry);
+            Gauge.builder("navarchos.windows.spill.pending", windowEngine, WindowEngine::pendingSpills)
+                    .description("Evicted windows waiting to be written to the checkpoint store")
+                    .register(registry);
+            for (boolean idle : new boolean[]{false, true}) {
+                FunctionCounter.builder("navarchos.windows.evictions", windowEngine, engine -> engine.evictions(idle))
+                        .description("Windows evicted from memory, to stay within the memory budget or because the device was idle")
+                        .tag("cause", idle ? "idle" : "size")
+                        .register(registry);
+            }
+            FunctionCounter.builder("navarchos.windows.spill.loads", windowEngine, WindowEngine::spillLoads)
+                    .description("Windows loaded back from the checkpoint store")
+                    .register(registry);
+            Gauge.builder("navarchos.results.pending", resultSink, ResultSink::pending)
+                    .description("Correlations and PdM responses waiting to be written")
+                    .register(registry);
+        };
+    }
+}
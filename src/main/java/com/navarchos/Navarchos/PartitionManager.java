@@ -0,0 +1,329 @@
+package com.navarchos.Navarchos;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps `data_pids_er`, `pids_correlation` and `pids_pdm` range partitioned by `dt`, enabled with
+ * `navarchos.partitions.enabled`.
+ * A table that is not partitioned yet is renamed to `<table>_legacy`, a partitioned table with the same columns
+ * takes its name and the old table is attached as the partition of everything up to the day after tomorrow, or
+ * up to its latest row, so no row is copied. The bound is first added to the old table as a CHECK constraint and
+ * validated while rows are still written, so that attaching it under the exclusive lock needs no scan; rows
+ * beyond the bound are refused in between. Only CHECK constraints are copied to the partitioned table: a primary
+ * key or unique constraint of a partitioned table must include `dt`, so those of the old table stay on the
+ * legacy partition alone and are listed in a warning. Partitions of `partition-days` days, aligned to the Unix
+ * epoch in UTC, are then created from the end of the legacy partition to `premake-days` ahead, with a default
+ * partition catching rows outside them, and the parent gets a BRIN index on `dt`, which every partition inherits.
+ * Partitions whose range ended more than `retention-days` ago are detached and dropped instead of being emptied
+ * with DELETE; with a retention of 0 they are kept.
+ * `dt` may be an integer epoch in seconds, as in `data_pids_er`, or a timestamp, as in the result tables.
+ */
+@Component
+public class PartitionManager {
+    private static final Logger log = LoggerFactory.getLogger(PartitionManager.class);
+    static final String[] TABLES = {"data_pids_er", "pids_correlation", "pids_pdm"};
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('?([^')]+)'?\\)");
+
+    @Autowired
+    private DataSource dataSource;
+    @Value("${navarchos.partitions.enabled:false}")
+    boolean enabled = false;
+    @Value("${navarchos.partitions.partition-days:1}")
+    int partitionDays = 1;
+    @Value("${navarchos.partitions.premake-days:7}")
+    int premakeDays = 7;
+    @Value("${navarchos.partitions.retention-days:0}")
+    int retentionDays = 0;
+    @Value("${navarchos.partitions.brin-pages-per-range:32}")
+    int brinPagesPerRange = 32;
+
+    /**
+     * The type of the `dt` column of a table, which decides how partition bounds are written.
+     */
+    enum DtKind {
+        EPOCH, TIMESTAMP;
+
+        static DtKind of(String dataType) {
+            return dataType.startsWith("timestamp") ? TIMESTAMP : EPOCH;
+        }
+
+        /**
+         * @param day The first day of a range.
+         * @return    The bound of the range as a SQL literal.
+         */
+        String literal(LocalDate day) {
+            return this == EPOCH
+                    ? Long.toString(day.atStartOfDay().toEpochSecond(ZoneOffset.UTC))
+                    : "'" + day + " 00:00:00'";
+        }
+
+        /**
+         * @param bound A bound as written by {@link #literal(LocalDate)}, without the quotes.
+         * @return      The day of the bound, or null if the bound is MINVALUE or MAXVALUE.
+         */
+        LocalDate day(String bound) {
+            if (bound.equals("MINVALUE") || bound.equals("MAXVALUE")) {
+                return null;
+            }
+            return this == EPOCH
+                    ? LocalDateTime.ofEpochSecond(Long.parseLong(bound), 0, ZoneOffset.UTC).toLocalDate()
+                    : LocalDate.parse(bound.substring(0, 10));
+        }
+    }
+
+    /**
+     * Creates the partitions ahead and drops the expired ones of every table, and partitions the tables
+     * that are not partitioned yet.
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${navarchos.partitions.interval-ms:3600000}")
+    public void maintain() {
+        if (!enabled) {
+            return;
+        }
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        for (String table : TABLES) {
+            try (Connection conn = dataSource.getConnection()) {
+                maintain(conn, table, today);
+            } catch (SQLException e) {
+                log.warn("Cannot maintain the partitions of {}: {}", table, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Maintains the partitions of one table.
+     *
+     * @param conn  The database connection to be used.
+     * @param table The name of the table.
+     * @param today The current day in UTC.
+     * @throws SQLException If a database access error occurs.
+     */
+    void maintain(Connection conn, String table, LocalDate today) throws SQLException {
+        String relkind = relkind(conn, table);
+        if (relkind == null) {
+            log.warn("Table {} does not exist; its partitions are not managed", table);
+            return;
+        }
+        DtKind kind = dtKind(conn, table);
+        if (relkind.equals("r")) {
+            partition(conn, table, kind, today);
+        }
+        Map<String, String> bounds = partitionBounds(conn, table);
+        LocalDate first = partitionStart(today);
+        LocalDate legacyEnd = bounds.containsKey(table + "_legacy") ? upperBound(bounds.get(table + "_legacy"), kind) : null;
+        if (legacyEnd != null && legacyEnd.isAfter(first)) {
+            // Partitions overlapping the legacy one cannot be created
+            first = partitionStart(legacyEnd.minusDays(1)).plusDays(partitionDays);
+        }
+        try (Statement st = conn.createStatement()) {
+            st.execute(brinIndexSql(table));
+            st.execute("CREATE TABLE IF NOT EXISTS " + table + "_default PARTITION OF " + table + " DEFAULT");
+            for (LocalDate start = first; !start.isAfter(today.plusDays(premakeDays)); start = start.plusDays(partitionDays)) {
+                try {
+                    st.execute(createPartitionSql(table, kind, start, start.plusDays(partitionDays)));
+                } catch (SQLException e) {
+                    // The default partition already holds rows of the range, e.g. from a device with a wrong clock
+                    log.warn("Cannot create the partition of {} from {}: {}", table, start, e.getMessage());
+                }
+            }
+        }
+        if (retentionDays > 0) {
+            dropExpired(conn, table, bounds, kind, today.minusDays(retentionDays));
+        }
+    }
+
+    /**
+     * Replaces a plain table with a partitioned one, keeping the existing rows in a partition that ends
+     * where the partitions of the manager begin.
+     */
+    private void partition(Connection conn, String table, DtKind kind, LocalDate today) throws SQLException {
+        String legacy = table + "_legacy";
+        String bound = legacy + "_dt_bound";
+        LocalDate end;
+        try (Statement st = conn.createStatement()) {
+            // Past the rows still arriving today, also if the conversion runs shortly before midnight
+            LocalDate last = today.plusDays(1);
+            try (ResultSet rs = st.executeQuery("SELECT max(dt)::text FROM " + table)) {
+                String latest = rs.next() ? rs.getString(1) : null;
+                LocalDate latestDay = latest == null ? null : kind.day(latest);
+                if (latestDay != null && latestDay.isAfter(last)) {
+                    last = latestDay;
+                }
+            }
+            end = partitionStart(last).plusDays(partitionDays);
+            // Each in its own transaction: adding the constraint locks the table briefly, validating it lets rows be written
+            String check = "CHECK (dt IS NOT NULL AND dt < " + kind.literal(end) + ")";
+            st.execute("ALTER TABLE " + table + " ADD CONSTRAINT " + bound + " " + check + " NOT VALID");
+            try {
+                st.execute("ALTER TABLE " + table + " VALIDATE CONSTRAINT " + bound);
+            } catch (SQLException e) {
+                // A row beyond the bound, or without dt
+                st.execute("ALTER TABLE " + table + " DROP CONSTRAINT " + bound);
+                throw e;
+            }
+        }
+        List<String> keys = uniqueConstraints(conn, table);
+        if (!keys.isEmpty()) {
+            log.warn("The partitioned {} does not get the keys of the legacy table, which only keeps them for its own rows: {}", table, keys);
+        }
+        conn.setAutoCommit(false);
+        try (Statement st = conn.createStatement()) {
+            st.execute("LOCK TABLE " + table + " IN ACCESS EXCLUSIVE MODE");
+            st.execute("ALTER TABLE " + table + " RENAME TO " + legacy);
+            st.execute("CREATE TABLE " + table + " (LIKE " + legacy + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS) PARTITION BY RANGE (dt)");
+            // Copied with the other CHECK constraints, but only meant for the legacy partition
+            st.execute("ALTER TABLE " + table + " DROP CONSTRAINT " + bound);
+            // Proven by the validated constraint, so the legacy rows are not scanned
+            st.execute("ALTER TABLE " + table + " ATTACH PARTITION " + legacy + " FOR VALUES FROM (MINVALUE) TO (" + kind.literal(end) + ")");
+            conn.commit();
+            log.info("Partitioned {}; the existing rows are kept in {}", table, legacy);
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * @return The partitions of a table by name, with their bounds as returned by `pg_get_expr`.
+     */
+    private static Map<String, String> partitionBounds(Connection conn, String table) throws SQLException {
+        String query = "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i "
+                + "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = ?::regclass";
+        Map<String, String> bounds = new LinkedHashMap<>();
+        try (PreparedStatement preparedStatement = conn.prepareStatement(query)) {
+            preparedStatement.setString(1, table);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    bounds.put(rs.getString(1), rs.getString(2));
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * @return The primary key and unique constraints of a table, with their definitions.
+     */
+    private static List<String> uniqueConstraints(Connection conn, String table) throws SQLException {
+        String query = "SELECT conname || ' ' || pg_get_constraintdef(oid) FROM pg_constraint "
+                + "WHERE conrelid = ?::regclass AND contype IN ('p', 'u')";
+        List<String> keys = new ArrayList<>();
+        try (PreparedStatement preparedStatement = conn.prepareStatement(query)) {
+            preparedStatement.setString(1, table);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    keys.add(rs.getString(1));
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Detaches and drops the partitions whose range ended on or before a day; the default partition is kept.
+     */
+    private void dropExpired(Connection conn, String table, Map<String, String> bounds, DtKind kind, LocalDate cutoff) throws SQLException {
+        List<String> expired = new ArrayList<>();
+        for (Map.Entry<String, String> partition : bounds.entrySet()) {
+            LocalDate end = upperBound(partition.getValue(), kind);
+            if (end != null && !end.isAfter(cutoff)) {
+                expired.add(partition.getKey());
+            }
+        }
+        for (String partition : expired) {
+            conn.setAutoCommit(false);
+            try (Statement st = conn.createStatement()) {
+                st.execute("ALTER TABLE " + table + " DETACH PARTITION " + partition);
+                st.execute("DROP TABLE " + partition);
+                conn.commit();
+                log.info("Dropped expired partition {}", partition);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static String relkind(Connection conn, String table) throws SQLException {
+        try (PreparedStatement preparedStatement = conn.prepareStatement("SELECT relkind::text FROM pg_class WHERE oid = to_regclass(?)")) {
+            preparedStatement.setString(1, table);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static DtKind dtKind(Connection conn, String table) throws SQLException {
+        String query = "SELECT data_type FROM information_schema.columns WHERE table_schema = current_schema() AND table_name = ? AND column_name = 'dt'";
+        try (PreparedStatement preparedStatement = conn.prepareStatement(query)) {
+            preparedStatement.setString(1, table);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Table " + table + " has no dt column");
+                }
+                return DtKind.of(rs.getString(1));
+            }
+        }
+    }
+
+    /**
+     * @param day A day.
+     * @return    The first day of the partition that contains the day.
+     */
+    LocalDate partitionStart(LocalDate day) {
+        long epochDay = day.toEpochDay();
+        return LocalDate.ofEpochDay(epochDay - Math.floorMod(epochDay, partitionDays));
+    }
+
+    /**
+     * @param table The name of the partitioned table.
+     * @param kind  The type of its `dt` column.
+     * @param start The first day of the partition.
+     * @param end   The first day after the partition.
+     * @return      The statement creating the partition if it does not exist.
+     */
+    static String createPartitionSql(String table, DtKind kind, LocalDate start, LocalDate end) {
+        return "CREATE TABLE IF NOT EXISTS " + table + "_p" + start.format(SUFFIX) + " PARTITION OF " + table
+                + " FOR VALUES FROM (" + kind.literal(start) + ") TO (" + kind.literal(end) + ")";
+    }
+
+    /**
+     * @param table The name of the partitioned table.
+     * @return      The statement creating the BRIN index on `dt` of the table and its partitions if it does not exist.
+     */
+    String brinIndexSql(String table) {
+        return "CREATE INDEX IF NOT EXISTS " + table + "_dt_brin ON " + table + " USING brin (dt) WITH (pages_per_range = " + brinPagesPerRange + ")";
+    }
+
+    /**
+     * @param bound The bound of a partition as returned by `pg_get_expr`, e.g. `FOR VALUES FROM (1709596800) TO (1709683200)`.
+     * @param kind  The type of the `dt` column.
+     * @return      The first day after the partition, or null for the default partition or an unbounded range.
+     */
+    static LocalDate upperBound(String bound, DtKind kind) {
+        Matcher matcher = UPPER_BOUND.matcher(bound);
+        return matcher.find() ? kind.day(matcher.group(1)) : null;
+    }
+}
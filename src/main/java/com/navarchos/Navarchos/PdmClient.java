@@ -0,0 +1,357 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Asynchronous client of the PdM API.
+ * A single pooled, keep-alive HTTP client is shared by all requests and the number of requests
+ * in flight is bounded. Requests beyond the bound wait in a queue of up to `max-queued` requests and are
+ * sent as earlier ones complete, so callers, which are the device workers, never block on a slow PdM service;
+ * requests beyond the queue fail at once.
+ * Failed requests are retried with a backoff and then published to a dead-letter topic.
+ * Responses are handled on a separate executor, never on the consumer thread, and saved to `pids_pdm`
+ * through the {@link ResultSink}.
+ */
+@Component
+public class PdmClient {
+    private static final Logger log = LoggerFactory.getLogger(PdmClient.class);
+    @Autowired
+    private ResultSink resultSink;
+    @Autowired
+    private PipelineMetrics metrics;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private KafkaTemplate<String, String> kafkaTemplate;
+    @Value("${navarchos.pdm.url:http://localhost:9000}")
+    String url = "http://localhost:9000";
+    @Value("${navarchos.pdm.max-in-flight:64}")
+    int maxInFlight = 64;
+    @Value("${navarchos.pdm.max-queued:10000}")
+    int maxQueued = 10000;
+    @Value("${navarchos.pdm.acquire-timeout-ms:10000}")
+    long acquireTimeout = 10000;
+    @Value("${navarchos.pdm.connect-timeout-ms:2000}")
+    long connectTimeout = 2000;
+    @Value("${navarchos.pdm.response-timeout-ms:5000}")
+    long responseTimeout = 5000;
+    @Value("${navarchos.pdm.max-retries:3}")
+    int maxRetries = 3;
+    @Value("${navarchos.pdm.retry-backoff-ms:500}")
+    long retryBackoff = 500;
+    @Value("${navarchos.pdm.dead-letter-topic:PID-pdm-dlt}")
+    String deadLetterTopic = "PID-pdm-dlt";
+
+    private CloseableHttpAsyncClient httpClient;
+    private Semaphore inFlight;
+    // Requests waiting for a slot; a completed request hands its slot to the first of them
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+    private ScheduledExecutorService retryScheduler;
+    private ExecutorService resultExecutor;
+
+    /**
+     * Starts the shared HTTP client and the executors used for retries and responses.
+     */
+    @PostConstruct
+    public void start() {
+        inFlight = new Semaphore(maxInFlight);
+        httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(maxInFlight)
+                        .setMaxConnPerRoute(maxInFlight)
+                        .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeout))
+                                .setTimeToLive(TimeValue.ofMinutes(5))
+                                .build())
+                        .build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(acquireTimeout))
+                        .setResponseTimeout(Timeout.ofMilliseconds(responseTimeout))
+                        .build())
+                .disableAutomaticRetries()
+                .build();
+        httpClient.start();
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "pdm-retry"));
+        resultExecutor = Executors.newFixedThreadPool(2, r -> new Thread(r, "pdm-result"));
+    }
+
+    /**
+     * Waits for the requests in flight to complete and closes the HTTP client.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (inFlight.tryAcquire(maxInFlight, responseTimeout * (maxRetries + 1), TimeUnit.MILLISECONDS)) {
+            inFlight.release(maxInFlight);
+        }
+        retryScheduler.shutdown();
+        resultExecutor.shutdown();
+        resultExecutor.awaitTermination(responseTimeout, TimeUnit.MILLISECONDS);
+        httpClient.close(CloseMode.GRACEFUL);
+    }
+
+    /**
+     * Sends the correlation features of a device to the PdM API.
+     * When the response arrives it is saved to `pids_pdm`.
+     *
+     * @param dt                The timestamp associated with the correlation data.
+     * @param correlationValues An array of double values representing the correlation data to be sent to the API.
+     * @param device_id         The ID of the device for which the PdM data is being processed.
+     * @return                  A future completed with the response, or with null if the request failed.
+     */
+    public CompletableFuture<ResponseBody> score(String dt, double[] correlationValues, int device_id) {
+        return score(dt, correlationValues, String.valueOf(device_id), true);
+    }
+
+    /**
+     * Sends correlation features to the PdM API under any source.
+     *
+     * @param dt                The timestamp associated with the correlation data.
+     * @param correlationValues The correlation data to be sent to the API.
+     * @param source            The source whose model scores the data.
+     * @param save              Whether the response is saved to `pids_pdm`; the source must then be a device ID.
+     * @return                  A future completed with the response, or with null if the request failed.
+     */
+    CompletableFuture<ResponseBody> score(String dt, double[] correlationValues, String source, boolean save) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("timestamp", dt);
+        requestBody.put("features", correlationValues);
+        requestBody.put("source", source);
+        return post("/data", requestBody, source, true).handleAsync((response, failure) -> {
+            if (failure != null) {
+                return null;
+            }
+            try {
+                ResponseBody responseBody = objectMapper.readValue(response.getBodyBytes(), ResponseBody.class);
+                log.debug("PdM response for {}: alarm={} scores={} thresholds={}", responseBody.getSource(),
+                        responseBody.isAlarm(), responseBody.getScores(), responseBody.getThresholds());
+                if (save) {
+                    saveResponses(List.of(responseBody));
+                }
+                return responseBody;
+            } catch (Exception e) {
+                log.warn("Cannot read the PdM response for {}: {}", source, e.toString());
+                return null;
+            }
+        }, resultExecutor);
+    }
+
+    /**
+     * Sends a reset event to the PdM API for a given device.
+     *
+     * @param dt        The timestamp associated with the reset event.
+     * @param device_id The ID of the device for which the reset event is being sent.
+     * @return          A future completed with true if the PdM API accepted the reset.
+     */
+    public CompletableFuture<Boolean> reset(String dt, int device_id) {
+        return reset(dt, String.valueOf(device_id));
+    }
+
+    /**
+     * Sends a reset event to the PdM API for any source.
+     *
+     * @param dt     The timestamp associated with the reset event.
+     * @param source The source whose model is reset.
+     * @return       A future completed with true if the PdM API accepted the reset.
+     */
+    CompletableFuture<Boolean> reset(String dt, String source) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("timestamp", dt);
+        requestBody.put("description", "reset");
+        requestBody.put("source", source);
+        return post("/event", requestBody, source, true).handle((response, failure) -> failure == null);
+    }
+
+    /**
+     * Saves PdM responses to the `pids_pdm` table through the {@link ResultSink}.
+     *
+     * @param responses The responses received from the PdM API.
+     */
+    void saveResponses(List<ResponseBody> responses) {
+        resultSink.responses(responses);
+    }
+
+    /**
+     * @return The executor on which PdM responses are handled.
+     */
+    Executor resultExecutor() {
+        return resultExecutor;
+    }
+
+    /**
+     * @return The number of PdM requests currently in flight.
+     */
+    public int inFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Posts a JSON request to the PdM API, or queues it until an in-flight slot is free. Never blocks.
+     *
+     * @param path        The path of the endpoint, relative to the PdM URL.
+     * @param requestBody The request body to be serialized to JSON.
+     * @param key         The key of the request on the dead-letter topic.
+     * @param deadLetter  Whether a request that finally fails is published to the dead-letter topic.
+     * @return            A future completed with the 200 response, or completed exceptionally with a
+     *                    {@link PdmException} once all retries have failed.
+     */
+    CompletableFuture<SimpleHttpResponse> post(String path, Object requestBody, String key, boolean deadLetter) {
+        CompletableFuture<SimpleHttpResponse> result = new CompletableFuture<>();
+        String jsonRequestBody;
+        try {
+            jsonRequestBody = objectMapper.writeValueAsString(requestBody);
+        } catch (Exception e) {
+            result.completeExceptionally(new PdmException(0, e.toString()));
+            return result;
+        }
+        Runnable start = () -> {
+            result.whenComplete((response, e) -> release());
+            send(path, jsonRequestBody, key, deadLetter, 0, result);
+        };
+        boolean acquired;
+        synchronized (waiting) {
+            acquired = inFlight.tryAcquire();
+            if (!acquired && waiting.size() < maxQueued) {
+                waiting.add(start);
+                return result;
+            }
+        }
+        if (acquired) {
+            start.run();
+        } else {
+            fail(path, jsonRequestBody, key, deadLetter, new PdmException(0, "too many requests queued"), result);
+        }
+        return result;
+    }
+
+    /**
+     * Hands the slot of a completed request to the first queued request, or frees it.
+     */
+    private void release() {
+        Runnable next;
+        synchronized (waiting) {
+            next = waiting.poll();
+            if (next == null) {
+                inFlight.release();
+            }
+        }
+        if (next != null) {
+            next.run();
+        }
+    }
+
+    /**
+     * @return The number of PdM requests waiting for an in-flight slot.
+     */
+    int queued() {
+        synchronized (waiting) {
+            return waiting.size();
+        }
+    }
+
+    private void send(String path, String jsonRequestBody, String key, boolean deadLetter, int attempt,
+                      CompletableFuture<SimpleHttpResponse> result) {
+        SimpleHttpRequest request = SimpleRequestBuilder.post(url + path)
+                .setBody(jsonRequestBody, ContentType.APPLICATION_JSON)
+                .build();
+        long started = System.nanoTime();
+        httpClient.execute(request, new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                metrics.record(PipelineMetrics.Stage.PDM, started);
+                int statusCode = response.getCode();
+                if (statusCode == 200) {
+                    result.complete(response);
+                } else {
+                    retryOrFail(new PdmException(statusCode, "HTTP " + statusCode), statusCode >= 500 || statusCode == 429);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                metrics.record(PipelineMetrics.Stage.PDM, started);
+                retryOrFail(new PdmException(0, e.toString()), true);
+            }
+
+            @Override
+            public void cancelled() {
+                metrics.record(PipelineMetrics.Stage.PDM, started);
+                retryOrFail(new PdmException(0, "cancelled"), false);
+            }
+
+            private void retryOrFail(PdmException error, boolean retryable) {
+                if (retryable && attempt < maxRetries) {
+                    long delay = retryBackoff << attempt;
+                    retryScheduler.schedule(() -> send(path, jsonRequestBody, key, deadLetter, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+                } else {
+                    fail(path, jsonRequestBody, key, deadLetter, error, result);
+                }
+            }
+        });
+    }
+
+    private void fail(String path, String jsonRequestBody, String key, boolean deadLetter, PdmException error,
+                      CompletableFuture<SimpleHttpResponse> result) {
+        if (deadLetter) {
+            // Kept on the dead letter topic, so only logged in detail
+            log.debug("PdM request to {} for {} failed: {}", path, key, error.getMessage());
+            try {
+                Map<String, Object> letter = new HashMap<>();
+                letter.put("path", path);
+                letter.put("request", jsonRequestBody);
+                letter.put("error", error.getMessage());
+                kafkaTemplate.send(deadLetterTopic, key, objectMapper.writeValueAsString(letter));
+            } catch (Exception e) {
+                log.error("Cannot dead-letter the PdM request to {} for {}: {}", path, key, e.toString());
+            }
+        } else {
+            log.warn("PdM request to {} for {} failed: {}", path, key, error.getMessage());
+        }
+        result.completeExceptionally(error);
+    }
+
+    /**
+     * Raised when a PdM request fails after all retries.
+     */
+    static class PdmException extends RuntimeException {
+        private final int statusCode;
+
+        PdmException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        /**
+         * @return The HTTP status of the last response, or 0 if no response was received.
+         */
+        int getStatusCode() {
+            return statusCode;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the PdM scoring requests of many devices into bulk requests.
+ * Feature vectors are collected for up to `linger-ms` or until `max-batch` of them are pending,
+ * sent as one list to the bulk endpoint, and the response list is matched back to the devices
+ * and saved to `pids_pdm` in one batch.
+ * When bulk scoring is disabled, or the PdM service has no bulk endpoint, every vector is sent
+ * on its own through {@link PdmClient#score(String, double[], int)}.
+ */
+@Component
+public class PdmCoalescer {
+    private static final Logger log = LoggerFactory.getLogger(PdmCoalescer.class);
+    @Autowired
+    private PdmClient pdmClient;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Value("${navarchos.pdm.bulk.enabled:false}")
+    boolean bulkEnabled = false;
+    @Value("${navarchos.pdm.bulk.path:/data/bulk}")
+    String bulkPath = "/data/bulk";
+    @Value("${navarchos.pdm.bulk.linger-ms:50}")
+    long lingerMs = 50;
+    @Value("${navarchos.pdm.bulk.max-batch:100}")
+    int maxBatch = 100;
+
+    private final List<PendingScore> pending = new ArrayList<>();
+    private volatile boolean bulkAvailable = true;
+    private ScheduledExecutorService flusher;
+
+    /**
+     * A feature vector waiting to be sent, with the future of its device.
+     */
+    private record PendingScore(String dt, double[] correlationValues, int device_id, CompletableFuture<ResponseBody> result) {
+    }
+
+    /**
+     * Starts the timer that flushes pending vectors after the linger time.
+     */
+    @PostConstruct
+    public void start() {
+        if (bulkEnabled) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "pdm-coalescer"));
+            flusher.scheduleWithFixedDelay(this::flush, lingerMs, lingerMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sends the vectors still pending and stops the flush timer.
+     */
+    @PreDestroy
+    public void stop() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+    }
+
+    /**
+     * Queues the correlation features of a device for scoring by the PdM API.
+     *
+     * @param dt                The timestamp associated with the correlation data.
+     * @param correlationValues An array of double values representing the correlation data to be sent to the API.
+     * @param device_id         The ID of the device for which the PdM data is being processed.
+     * @return                  A future completed with the response of the device, or with null if the request failed.
+     */
+    public CompletableFuture<ResponseBody> score(String dt, double[] correlationValues, int device_id) {
+        if (!bulkEnabled || !bulkAvailable) {
+            return pdmClient.score(dt, correlationValues, device_id);
+        }
+        PendingScore score = new PendingScore(dt, correlationValues, device_id, new CompletableFuture<>());
+        List<PendingScore> batch = null;
+        synchronized (pending) {
+            pending.add(score);
+            if (pending.size() >= maxBatch) {
+                batch = drain();
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+        return score.result();
+    }
+
+    /**
+     * Sends all pending vectors as one bulk request.
+     */
+    public void flush() {
+        List<PendingScore> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = drain();
+        }
+        send(batch);
+    }
+
+    private List<PendingScore> drain() {
+        List<PendingScore> batch = new ArrayList<>(pending);
+        pending.clear();
+        return batch;
+    }
+
+    private void send(List<PendingScore> batch) {
+        List<Map<String, Object>> requestBody = new ArrayList<>(batch.size());
+        for (PendingScore score : batch) {
+            Map<String, Object> request = new HashMap<>();
+            request.put("timestamp", score.dt());
+            request.put("features", score.correlationValues());
+            request.put("source", String.valueOf(score.device_id()));
+            requestBody.add(request);
+        }
+        pdmClient.post(bulkPath, requestBody, "bulk", false).whenCompleteAsync((response, failure) -> {
+            if (failure != null) {
+                fallback(batch, failure.getCause() != null ? failure.getCause() : failure);
+                return;
+            }
+            try {
+                List<ResponseBody> responses = objectMapper.readValue(response.getBodyBytes(), new TypeReference<List<ResponseBody>>() {
+                });
+                pdmClient.saveResponses(responses);
+                demultiplex(batch, responses);
+                log.debug("PdM bulk response for {} devices", batch.size());
+            } catch (Exception e) {
+                fallback(batch, e);
+            }
+        }, pdmClient.resultExecutor());
+    }
+
+    /**
+     * Completes the future of every device with its response.
+     * Responses are matched by source and timestamp, so the service may return them in any order.
+     */
+    private void demultiplex(List<PendingScore> batch, List<ResponseBody> responses) {
+        Map<String, Deque<ResponseBody>> bySource = new HashMap<>();
+        for (ResponseBody responseBody : responses) {
+            bySource.computeIfAbsent(responseBody.getSource() + "@" + responseBody.getTimestamp(), k -> new ArrayDeque<>()).add(responseBody);
+        }
+        for (PendingScore score : batch) {
+            Deque<ResponseBody> matches = bySource.get(score.device_id() + "@" + score.dt());
+            score.result().complete(matches == null ? null : matches.poll());
+        }
+    }
+
+    /**
+     * Sends the vectors of a failed bulk request one by one.
+     * If the service has no bulk endpoint, bulk scoring is switched off for the lifetime of the client.
+     */
+    private void fallback(List<PendingScore> batch, Throwable failure) {
+        if (failure instanceof PdmClient.PdmException pdmException) {
+            int statusCode = pdmException.getStatusCode();
+            if (statusCode == 404 || statusCode == 405 || statusCode == 501) {
+                log.warn("PdM bulk endpoint not available, sending one request per device");
+                bulkAvailable = false;
+            }
+        }
+        for (PendingScore score : batch) {
+            pdmClient.score(score.dt(), score.correlationValues(), score.device_id())
+                    .whenComplete((responseBody, e) -> score.result().complete(responseBody));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.navarchos.Navarchos;
+
+/**
+ * The PID attributes of a message, as produced by {@link PidAttributesParser}.
+ * Holds the numeric values of the PIDs the parser was asked for, and the attributes as received, from which
+ * the jsonb text stored in `data_pids_er` is built when it is first needed. The sample gate runs before that,
+ * so a dropped sample never has its JSON built.
+ */
+public class PidAttributes {
+    private final PidAttributesParser parser;
+    private final String attributes;
+    private final double[] values;
+    private final long present;
+    // Built on first use; threads racing on it build the same text
+    private String json;
+
+    PidAttributes(PidAttributesParser parser, String attributes, double[] values, long present) {
+        this.parser = parser;
+        this.attributes = attributes;
+        this.values = values;
+        this.present = present;
+    }
+
+    /**
+     * @return The attributes as a JSON object.
+     */
+    public String json() {
+        String text = json;
+        if (text == null) {
+            text = parser.toJson(attributes);
+            json = text;
+        }
+        return text;
+    }
+
+    /**
+     * @param index The index of the PID in the keys of the parser.
+     * @return      True if the PID was present with a numeric value.
+     */
+    public boolean has(int index) {
+        return (present & (1L << index)) != 0;
+    }
+
+    /**
+     * @return True if every PID of the parser was present with a numeric value.
+     */
+    public boolean hasAll() {
+        return present == (values.length == 64 ? -1L : (1L << values.length) - 1);
+    }
+
+    /**
+     * @param index The index of the PID in the keys of the parser.
+     * @return      The value of the PID, or NaN if it was missing.
+     */
+    public double get(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return The values of the PIDs in the order of the keys of the parser, NaN where missing.
+     */
+    public double[] values() {
+        return values;
+    }
+}
@@ -0,0 +1,372 @@
+package com.navarchos.Navarchos;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Single-pass parser of the `PIDAttributes` of a Traccar message.
+ * Traccar sends the attributes as the string form of a Java map, e.g. `{rpm=1500, obdSpeed=42, MAFairFlowRate=12.5}`.
+ * One scan extracts the numeric values of the requested PIDs, without regular expressions or an intermediate
+ * JSON tree. The JSON object stored as jsonb in `data_pids_er` is only built by a second scan when
+ * {@link PidAttributes#json()} is first called, so samples that are never stored do not pay for it.
+ * Numbers and numeric lists become JSON numbers and arrays, nested maps and other values become JSON strings.
+ * Attributes that are already a JSON object are accepted as well and copied unchanged.
+ * The values of rpm, obdSpeed, mapIntake, intakeTemp and coolantTemp are truncated toward zero, as they
+ * have always been read as int, so that the gate and the correlations see the same values; the JSON keeps
+ * the reported value.
+ */
+public class PidAttributesParser {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    static final Set<String> INTEGER_PIDS = Set.of("rpm", "obdSpeed", "mapIntake", "intakeTemp", "coolantTemp");
+    private final String[] keys;
+    private final boolean[] integer;
+
+    /**
+     * @param keys The PIDs whose numeric values are extracted, at most 64.
+     */
+    public PidAttributesParser(String... keys) {
+        if (keys.length > 64) {
+            throw new IllegalArgumentException("At most 64 PIDs can be extracted");
+        }
+        this.keys = keys.clone();
+        integer = new boolean[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            integer[k] = INTEGER_PIDS.contains(keys[k]);
+        }
+    }
+
+    /**
+     * Parses the attributes of a message.
+     *
+     * @param attributes The attributes in Traccar map format or as a JSON object.
+     * @return           The values of the requested PIDs, and the JSON text on demand.
+     */
+    public PidAttributes parse(String attributes) {
+        double[] values = new double[keys.length];
+        Arrays.fill(values, Double.NaN);
+        long present = scan(attributes, values, null);
+        return new PidAttributes(this, attributes, values, present);
+    }
+
+    /**
+     * Converts attributes to a JSON object.
+     *
+     * @param attributes The attributes in Traccar map format or as a JSON object.
+     * @return           The JSON text.
+     */
+    String toJson(String attributes) {
+        StringBuilder json = new StringBuilder(attributes.length() + 64);
+        scan(attributes, null, json);
+        return json.toString();
+    }
+
+    /**
+     * Scans the attributes once, extracting the values of the requested PIDs and writing the JSON object
+     * as asked.
+     *
+     * @param attributes The attributes in Traccar map format or as a JSON object.
+     * @param values     Receives the values in the order of the keys, or null.
+     * @param json       Receives the JSON object, or null.
+     * @return           The bit set of the keys found with a numeric value, 0 without values.
+     */
+    private long scan(String attributes, double[] values, StringBuilder json) {
+        long present = 0;
+        if (json != null) {
+            json.append('{');
+        }
+        int n = attributes.length();
+        int i = skipWhitespace(attributes, 0);
+        if (i < n && attributes.charAt(i) == '{') {
+            i++;
+        }
+        boolean first = true;
+        while (true) {
+            i = skipWhitespace(attributes, i);
+            if (i >= n || attributes.charAt(i) == '}') {
+                break;
+            }
+            if (attributes.charAt(i) == ',') {
+                i++;
+                continue;
+            }
+            // Key, either quoted (JSON) or bare (map)
+            int keyStart;
+            int keyEnd;
+            boolean jsonForm = attributes.charAt(i) == '"';
+            if (jsonForm) {
+                keyStart = i + 1;
+                keyEnd = endOfQuoted(attributes, i);
+                i = Math.min(keyEnd + 1, n);
+            } else {
+                keyStart = i;
+                while (i < n && "=:,}".indexOf(attributes.charAt(i)) < 0) {
+                    i++;
+                }
+                keyEnd = trimEnd(attributes, keyStart, i);
+            }
+            i = skipWhitespace(attributes, i);
+            if (i >= n || (attributes.charAt(i) != '=' && attributes.charAt(i) != ':')) {
+                // A key without a value is skipped
+                continue;
+            }
+            i = skipWhitespace(attributes, i + 1);
+
+            // Value
+            int valueStart = i;
+            int valueEnd;
+            char c = i < n ? attributes.charAt(i) : ',';
+            if (c == '"') {
+                valueEnd = Math.min(endOfQuoted(attributes, i) + 1, n);
+                i = valueEnd;
+            } else if (c == '{' || c == '[') {
+                valueEnd = endOfBracketed(attributes, i);
+                i = valueEnd;
+            } else {
+                while (i < n && attributes.charAt(i) != ',' && attributes.charAt(i) != '}') {
+                    i++;
+                }
+                valueEnd = trimEnd(attributes, valueStart, i);
+            }
+
+            if (json != null) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                json.append('"');
+                if (jsonForm) {
+                    json.append(attributes, keyStart, keyEnd);
+                } else {
+                    appendEscaped(json, attributes, keyStart, keyEnd);
+                }
+                json.append("\":");
+                appendValue(json, attributes, valueStart, valueEnd, jsonForm);
+            }
+
+            int index = values == null ? -1 : keyIndex(attributes, keyStart, keyEnd);
+            if (index >= 0) {
+                int numberStart = valueStart;
+                int numberEnd = valueEnd;
+                if (c == '"') {
+                    numberStart++;
+                    numberEnd--;
+                }
+                double value = parseNumber(attributes, numberStart, numberEnd);
+                if (!Double.isNaN(value)) {
+                    values[index] = integer[index] ? (int) value : value;
+                    present |= 1L << index;
+                }
+            }
+        }
+        if (json != null) {
+            json.append('}');
+        }
+        return present;
+    }
+
+    private void appendValue(StringBuilder json, String s, int start, int end, boolean jsonForm) {
+        if (start >= end) {
+            json.append("\"\"");
+            return;
+        }
+        char c = s.charAt(start);
+        if (c == '"') {
+            json.append(s, start, end);
+        } else if (c == '[' && isNumberList(s, start + 1, end - 1)) {
+            json.append('[');
+            int itemStart = start + 1;
+            boolean firstItem = true;
+            for (int j = start + 1; j <= end - 1; j++) {
+                if (j == end - 1 || s.charAt(j) == ',') {
+                    int from = skipWhitespace(s, itemStart);
+                    int to = trimEnd(s, from, j);
+                    if (from < to) {
+                        if (!firstItem) {
+                            json.append(',');
+                        }
+                        json.append(s, from, to);
+                        firstItem = false;
+                    }
+                    itemStart = j + 1;
+                }
+            }
+            json.append(']');
+        } else if (jsonForm && (c == '{' || c == '[' || isLiteral(s, start, end))) {
+            json.append(s, start, end);
+        } else if (isJsonNumber(s, start, end)) {
+            json.append(s, start, end);
+        } else if (end - start == 4 && s.startsWith("null", start)) {
+            json.append("null");
+        } else {
+            json.append('"');
+            appendEscaped(json, s, start, end);
+            json.append('"');
+        }
+    }
+
+    private int keyIndex(String s, int start, int end) {
+        int length = end - start;
+        for (int k = 0; k < keys.length; k++) {
+            if (keys[k].length() == length && s.regionMatches(start, keys[k], 0, length)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a JSON number, using exact double arithmetic when the digits fit and the JDK parser otherwise.
+     *
+     * @return The number, or NaN if the region is not a JSON number.
+     */
+    static double parseNumber(String s, int start, int end) {
+        if (!isJsonNumber(s, start, end)) {
+            return Double.NaN;
+        }
+        boolean negative = s.charAt(start) == '-';
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                fraction = true;
+            } else if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (fraction) {
+                    fractionDigits++;
+                }
+            } else {
+                // Exponent
+                return Double.parseDouble(s.substring(start, end));
+            }
+        }
+        if (digits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(s.substring(start, end));
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private static boolean isJsonNumber(String s, int start, int end) {
+        int i = start;
+        if (i < end && s.charAt(i) == '-') {
+            i++;
+        }
+        if (i >= end || !isDigit(s.charAt(i))) {
+            return false;
+        }
+        if (s.charAt(i) == '0' && i + 1 < end && isDigit(s.charAt(i + 1))) {
+            return false;
+        }
+        while (i < end && isDigit(s.charAt(i))) {
+            i++;
+        }
+        if (i < end && s.charAt(i) == '.') {
+            i++;
+            if (i >= end || !isDigit(s.charAt(i))) {
+                return false;
+            }
+            while (i < end && isDigit(s.charAt(i))) {
+                i++;
+            }
+        }
+        if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < end && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+                i++;
+            }
+            if (i >= end || !isDigit(s.charAt(i))) {
+                return false;
+            }
+            while (i < end && isDigit(s.charAt(i))) {
+                i++;
+            }
+        }
+        return i == end;
+    }
+
+    private static boolean isNumberList(String s, int start, int end) {
+        int itemStart = start;
+        for (int j = start; j <= end; j++) {
+            if (j == end || s.charAt(j) == ',') {
+                int from = skipWhitespace(s, itemStart);
+                int to = trimEnd(s, from, j);
+                if (from < to ? !isJsonNumber(s, from, to) : j != end || itemStart != start) {
+                    return false;
+                }
+                itemStart = j + 1;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLiteral(String s, int start, int end) {
+        int length = end - start;
+        return (length == 4 && (s.startsWith("true", start) || s.startsWith("null", start)))
+                || (length == 5 && s.startsWith("false", start));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimEnd(String s, int start, int end) {
+        while (end > start && Character.isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static int endOfQuoted(String s, int quote) {
+        int i = quote + 1;
+        while (i < s.length() && s.charAt(i) != '"') {
+            i += s.charAt(i) == '\\' ? 2 : 1;
+        }
+        return Math.min(i, s.length());
+    }
+
+    private static int endOfBracketed(String s, int open) {
+        int depth = 0;
+        int i = open;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                i = endOfQuoted(s, i);
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return s.length();
+    }
+
+    private static void appendEscaped(StringBuilder json, String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.navarchos.Navarchos;
+
+/**
+ * A PID message of the "PID" topic, decoded by {@link PidEventDeserializer}.
+ *
+ * @param deviceId        The ID of the device that sent the message.
+ * @param deviceTime      The device time as sent, in the format "yyyy-MM-dd HH:mm:ss".
+ * @param deviceTimestamp The device time in seconds since the Unix epoch.
+ * @param dt              The `dt` field of the message, used as the timestamp of PdM reset events.
+ * @param latitude        The latitude of the device, or null.
+ * @param longitude       The longitude of the device, or null.
+ * @param topic           The PID type of the message.
+ * @param attributes      The parsed PID attributes, or null if the message has none.
+ */
+public record PidEvent(int deviceId, String deviceTime, int deviceTimestamp, String dt, Double latitude,
+                       Double longitude, String topic, PidAttributes attributes) {
+}
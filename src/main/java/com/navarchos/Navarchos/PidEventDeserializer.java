@@ -0,0 +1,106 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kafka deserializer that decodes a Traccar PID message straight into a {@link PidEvent}.
+ * The message is read with Jackson's streaming parser, so no JSON tree is built; fields other
+ * than the ones of {@link PidEvent} are skipped.
+ * The PIDs extracted from the attributes are read from the `navarchos.pids` consumer property, which
+ * must list the same PIDs as the window engine.
+ * Kafka creates the deserializer itself, so the decode timer is registered in the global registry,
+ * which Spring Boot connects to the registry of the application.
+ */
+public class PidEventDeserializer implements Deserializer<PidEvent> {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    /**
+     * The consumer property holding the PIDs to extract, set from `navarchos.pids`.
+     */
+    public static final String PIDS_CONFIG = "navarchos.pids";
+
+    private PidAttributesParser attributesParser = new PidAttributesParser(WindowEngine.PIDS);
+    private final Timer decodeTimer = PipelineMetrics.stageTimer(PipelineMetrics.Stage.DECODE).register(Metrics.globalRegistry);
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        Object pids = configs.get(PIDS_CONFIG);
+        if (pids != null) {
+            attributesParser = new PidAttributesParser(PidSet.parse(pids.toString()).names());
+        }
+    }
+
+    @Override
+    public PidEvent deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        long started = System.nanoTime();
+        try (JsonParser parser = JSON_FACTORY.createParser(data)) {
+            return decode(parser);
+        } catch (IOException | RuntimeException e) {
+            throw new SerializationException("Cannot decode PID message: " + e.getMessage(), e);
+        } finally {
+            decodeTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private PidEvent decode(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new SerializationException("PID message is not a JSON object");
+        }
+        Integer deviceId = null;
+        String deviceTime = null;
+        String dt = null;
+        Double latitude = null;
+        Double longitude = null;
+        String pidType = null;
+        PidAttributes attributes = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "deviceId" -> deviceId = token == JsonToken.VALUE_NULL ? null : parser.getValueAsInt();
+                case "deviceTime" -> deviceTime = token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                case "dt" -> dt = token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                case "latitude" -> latitude = token == JsonToken.VALUE_NULL ? null : parser.getValueAsDouble();
+                case "longitude" -> longitude = token == JsonToken.VALUE_NULL ? null : parser.getValueAsDouble();
+                case "topic" -> pidType = token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                case "PIDAttributes" -> attributes = readAttributes(parser, token);
+                default -> parser.skipChildren();
+            }
+        }
+        if (deviceId == null || deviceTime == null || pidType == null) {
+            throw new SerializationException("PID message without deviceId, deviceTime or topic");
+        }
+        return new PidEvent(deviceId, deviceTime, DeviceTimeParser.toUnixTimestamp(deviceTime), dt,
+                latitude, longitude, pidType, attributes);
+    }
+
+    /**
+     * Reads the attributes, which Traccar sends as the string form of a map, or occasionally as a JSON object.
+     */
+    private PidAttributes readAttributes(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            StringWriter writer = new StringWriter();
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+                generator.copyCurrentStructure(parser);
+            }
+            return attributesParser.parse(writer.toString());
+        }
+        return attributesParser.parse(parser.getValueAsString());
+    }
+}
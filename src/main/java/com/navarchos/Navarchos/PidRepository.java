@@ -0,0 +1,78 @@
+package com.navarchos.Navarchos;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Storage of the tables the consumer reads and writes: the assignments in `mgt_dvg`, the raw data in
+ * `data_pids_er`, the audit copies in `pids_buffer` and the results in `pids_correlation` and `pids_pdm`.
+ * {@link JdbcPidRepository} keeps them in Postgres; {@link InMemoryPidRepository}, selected with
+ * `navarchos.storage=memory`, keeps them in memory so that the consumer can be measured without a database.
+ */
+public interface PidRepository {
+
+    /**
+     * Reads the driver, vehicle and group currently assigned to a device.
+     *
+     * @param deviceId The ID of the device.
+     * @return         The driver, vehicle and group IDs, each -1 if the device has no active assignment.
+     * @throws SQLException If the assignment cannot be read.
+     */
+    int[] findAssignment(int deviceId) throws SQLException;
+
+    /**
+     * Saves the raw PID data of messages in one transaction.
+     *
+     * @param rows The messages with the assignments of their devices.
+     * @throws SQLException If the rows cannot be saved; none of them is then saved.
+     */
+    void saveRaw(List<RawPidRow> rows) throws SQLException;
+
+    /**
+     * Saves the audit copy of a sample that entered the correlation window.
+     *
+     * @param dt         The device time of the sample, in seconds since the Unix epoch.
+     * @param deviceId   The ID of the device.
+     * @param conditions The values of the condition PIDs, in the order of {@link WindowEngine#PIDS}.
+     * @throws SQLException If the sample cannot be saved.
+     */
+    void saveBufferSample(int dt, int deviceId, double[] conditions) throws SQLException;
+
+    /**
+     * Saves correlations and PdM responses in one transaction.
+     *
+     * @param correlations The correlations of device windows.
+     * @param responses    The responses of the PdM API.
+     * @throws SQLException If the results cannot be saved; none of them is then saved.
+     */
+    void saveResults(List<CorrelationRow> correlations, List<ResponseBody> responses) throws SQLException;
+
+    /**
+     * Reads the latest correlation of every device with correlations since a time.
+     *
+     * @param since The earliest timestamp to consider.
+     * @return      One row per device.
+     * @throws SQLException If the correlations cannot be read.
+     */
+    List<CorrelationRow> findLatestCorrelations(LocalDateTime since) throws SQLException;
+
+    /**
+     * Reads the latest PdM response of every device with responses since a time.
+     *
+     * @param since The earliest timestamp to consider.
+     * @return      One response per device, with the ID of the device as its source.
+     * @throws SQLException If the responses cannot be read.
+     */
+    List<ResponseBody> findLatestResponses(LocalDateTime since) throws SQLException;
+
+    /**
+     * A row of `pids_correlation`.
+     *
+     * @param deviceId The ID of the device.
+     * @param dt       The device time of the sample that completed the window, in the format "yyyy-MM-dd HH:mm:ss".
+     * @param values   The correlations of the window.
+     */
+    record CorrelationRow(int deviceId, String dt, double[] values) {
+    }
+}
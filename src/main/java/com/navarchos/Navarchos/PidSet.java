@@ -0,0 +1,115 @@
+package com.navarchos.Navarchos;
+
+import java.util.*;
+
+/**
+ * The ordered set of PIDs kept in the correlation windows, configured with `navarchos.pids`.
+ * The order of the PIDs fixes the order of the PdM feature vector: the correlations of the pairs
+ * (0,1), (0,2), ..., (0,n-1), (1,2), ... of the configured order. The default set reproduces the
+ * 15 features of the original six PIDs; a model trained on another set has to be trained on the
+ * same order.
+ */
+public final class PidSet {
+    /**
+     * The six PIDs the correlation was originally computed on, in the original feature order.
+     */
+    public static final PidSet DEFAULT = new PidSet(WindowEngine.PIDS);
+
+    private final String[] names;
+    private final Map<String, Integer> indices;
+
+    /**
+     * @param names The PIDs, at most 64 and without duplicates.
+     */
+    public PidSet(String... names) {
+        if (names.length < 2 || names.length > 64) {
+            throw new IllegalArgumentException("Between 2 and 64 PIDs are required");
+        }
+        this.names = names.clone();
+        this.indices = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].isBlank() || indices.put(names[i], i) != null) {
+                throw new IllegalArgumentException("Invalid or duplicate PID: '" + names[i] + "'");
+            }
+        }
+    }
+
+    /**
+     * Parses a comma-separated list of PIDs.
+     *
+     * @param csv The PIDs, e.g. `mapIntake,coolantTemp,rpm`.
+     * @return    The PID set.
+     */
+    public static PidSet parse(String csv) {
+        return new PidSet(Arrays.stream(csv.split(",")).map(String::trim).toArray(String[]::new));
+    }
+
+    /**
+     * @return The number of PIDs.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return A copy of the PIDs in order.
+     */
+    public String[] names() {
+        return names.clone();
+    }
+
+    /**
+     * @param name The name of a PID.
+     * @return     The index of the PID.
+     * @throws IllegalArgumentException If the PID is not in the set.
+     */
+    public int indexOf(String name) {
+        Integer index = indices.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("PID " + name + " is not in " + Arrays.toString(names));
+        }
+        return index;
+    }
+
+    /**
+     * @return The number of correlation features, i.e. of pairs of PIDs.
+     */
+    public int features() {
+        return names.length * (names.length - 1) / 2;
+    }
+
+    /**
+     * @return The name of every correlation feature, e.g. `mapIntake:coolantTemp`, in feature vector order.
+     */
+    public List<String> featureNames() {
+        List<String> features = new ArrayList<>(features());
+        for (int i = 0; i < names.length; i++) {
+            for (int j = i + 1; j < names.length; j++) {
+                features.add(names[i] + ":" + names[j]);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * @return An identifier of the PIDs and their order, stored with window checkpoints.
+     */
+    public int id() {
+        return String.join(",", names).hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PidSet other && Arrays.equals(names, other.names);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(names);
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", names);
+    }
+}
@@ -0,0 +1,116 @@
+package com.navarchos.Navarchos;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers of the stages a message goes through, counters of the samples kept out of the correlation window
+ * and of the lanes of the {@link SampleGate} the samples took.
+ * Exposed with the rest of the metrics on `/actuator/prometheus` as `navarchos_stage_seconds{stage=...}`,
+ * `navarchos_messages_filtered_total{reason=...}` and `navarchos_messages_lane_total{lane=...}`.
+ */
+@Component
+public class PipelineMetrics {
+    static final String STAGE_TIMER = "navarchos.stage";
+    static final String FILTERED_COUNTER = "navarchos.messages.filtered";
+    static final String LANE_COUNTER = "navarchos.messages.lane";
+
+    /**
+     * The stages of processing a message.
+     */
+    public enum Stage {
+        /** Decoding of the Kafka record, timed by {@link PidEventDeserializer}. */
+        DECODE,
+        /** Lookup of the driver, vehicle and group of the device in `mgt_dvg` or its cache. */
+        ASSIGNMENT,
+        /** Write of the raw data to `data_pids_er`. */
+        RAW_INSERT,
+        /** Audit copy of a qualifying sample in `pids_buffer`. */
+        BUFFER_INSERT,
+        /** Append of a qualifying sample to the window of the device. */
+        WINDOW,
+        /** Correlation of a full window and the queueing of its PdM request. */
+        CORRELATION,
+        /** One HTTP call to the PdM service, including failed attempts. */
+        PDM,
+        /** Write of a batch of correlations and PdM responses by the {@link ResultSink}. */
+        RESULT_WRITE;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * The conditions a sample has to meet to enter the correlation window.
+     */
+    public enum Filter {
+        NO_ATTRIBUTES, MISSING_PID, OBD_SPEED, MAP_INTAKE, INTAKE_TEMP, COOLANT_TEMP, RPM, MAF_AIR_FLOW;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+    private final Map<Filter, Counter> filtered = new EnumMap<>(Filter.class);
+    private final Map<SampleGate.Lane, Counter> lanes = new EnumMap<>(SampleGate.Lane.class);
+
+    public PipelineMetrics(MeterRegistry registry) {
+        for (Stage stage : Stage.values()) {
+            timers.put(stage, stageTimer(stage).register(registry));
+        }
+        for (Filter filter : Filter.values()) {
+            filtered.put(filter, Counter.builder(FILTERED_COUNTER)
+                    .description("Samples kept out of the correlation window, by the first condition they failed")
+                    .tag("reason", filter.tag())
+                    .register(registry));
+        }
+        for (SampleGate.Lane lane : SampleGate.Lane.values()) {
+            lanes.put(lane, Counter.builder(LANE_COUNTER)
+                    .description("Samples by the lane they took: window, archive or drop")
+                    .tag("lane", lane.name().toLowerCase(Locale.ROOT))
+                    .register(registry));
+        }
+    }
+
+    static Timer.Builder stageTimer(Stage stage) {
+        return Timer.builder(STAGE_TIMER)
+                .description("Time spent in each stage of processing a message")
+                .tag("stage", stage.tag());
+    }
+
+    /**
+     * Records the time spent in a stage.
+     *
+     * @param stage        The stage.
+     * @param startedNanos The value of {@link System#nanoTime()} when the stage started.
+     */
+    public void record(Stage stage, long startedNanos) {
+        timers.get(stage).record(System.nanoTime() - startedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a sample kept out of the correlation window.
+     *
+     * @param reason The first condition the sample failed.
+     */
+    public void filtered(Filter reason) {
+        filtered.get(reason).increment();
+    }
+
+    /**
+     * Counts a sample routed by the {@link SampleGate}.
+     *
+     * @param lane The lane the sample took.
+     */
+    public void routed(SampleGate.Lane lane) {
+        lanes.get(lane).increment();
+    }
+}
@@ -0,0 +1,157 @@
+package com.navarchos.Navarchos;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers the raw PID data of single messages and saves it to the {@link PidRepository}
+ * in one transaction once `max-rows` messages are pending or `linger-ms` has passed.
+ * Used by the record listener when `navarchos.raw.buffer.enabled` is set, so bursts of messages
+ * are written with one COPY or batch instead of one statement per message.
+ * Writes run in order on a single thread; the future of every message completes once its row is committed.
+ * A write that fails is retried with the rows queued since after `retry-ms`, so the futures only fail if
+ * the rows still cannot be written when the buffer is stopped.
+ */
+@Component
+public class RawPidBuffer {
+    private static final Logger log = LoggerFactory.getLogger(RawPidBuffer.class);
+    @Autowired
+    private PidRepository pidRepository;
+    @Autowired
+    private DeviceAssignmentCache assignmentCache;
+    @Autowired
+    private PipelineMetrics metrics;
+    @Value("${navarchos.raw.buffer.enabled:false}")
+    boolean enabled = false;
+    @Value("${navarchos.raw.buffer.linger-ms:200}")
+    long lingerMs = 200;
+    @Value("${navarchos.raw.buffer.max-rows:5000}")
+    int maxRows = 5000;
+    @Value("${navarchos.raw.buffer.retry-ms:1000}")
+    long retryMs = 1000;
+
+    private final List<PendingRow> pending = new ArrayList<>();
+    private ScheduledExecutorService flusher;
+    // The time of the next attempt after a failed write, from System.nanoTime(), or null
+    private volatile Long retryAt;
+    private volatile boolean stopping;
+
+    /**
+     * A message waiting to be written, with the future of its row.
+     */
+    private record PendingRow(PidEvent event, CompletableFuture<Void> stored) {
+    }
+
+    /**
+     * Starts the timer that writes pending rows after the linger time.
+     */
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "raw-pid-flusher"));
+            flusher.scheduleWithFixedDelay(this::flush, lingerMs, lingerMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the rows still pending and stops the flush timer.
+     */
+    @PreDestroy
+    public void stop() {
+        stopping = true;
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(lingerMs + 10000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * @return Whether the record listener writes raw data through this buffer.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues the raw PID data of a message.
+     *
+     * @param event The decoded message.
+     * @return      A future completed once the row is committed, or completed exceptionally if the write failed.
+     */
+    public CompletableFuture<Void> append(PidEvent event) {
+        PendingRow row = new PendingRow(event, new CompletableFuture<>());
+        boolean full;
+        synchronized (pending) {
+            pending.add(row);
+            full = pending.size() == maxRows;
+        }
+        if (full) {
+            flusher.execute(this::flush);
+        }
+        return row.stored();
+    }
+
+    /**
+     * Writes all pending rows in one transaction, unless waiting to retry a failed write.
+     */
+    public void flush() {
+        Long retry = retryAt;
+        if (retry != null && !stopping && System.nanoTime() - retry < 0) {
+            return;
+        }
+        List<PendingRow> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        try {
+            write(batch);
+            retryAt = null;
+            batch.forEach(row -> row.stored().complete(null));
+        } catch (SQLException e) {
+            if (stopping) {
+                log.error("Cannot write {} buffered messages while stopping", batch.size(), e);
+                batch.forEach(row -> row.stored().completeExceptionally(e));
+                return;
+            }
+            log.warn("Cannot write {} buffered messages, retrying in {} ms: {}", batch.size(), retryMs, e.getMessage());
+            synchronized (pending) {
+                pending.addAll(0, batch);
+            }
+            retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryMs);
+        }
+    }
+
+    private void write(List<PendingRow> batch) throws SQLException {
+        List<RawPidRow> rows = new ArrayList<>(batch.size());
+        for (PendingRow row : batch) {
+            long started = System.nanoTime();
+            rows.add(new RawPidRow(row.event(), assignmentCache.get(row.event().deviceId())));
+            metrics.record(PipelineMetrics.Stage.ASSIGNMENT, started);
+        }
+        long writeStarted = System.nanoTime();
+        pidRepository.saveRaw(rows);
+        metrics.record(PipelineMetrics.Stage.RAW_INSERT, writeStarted);
+        log.debug("Stored {} buffered messages", batch.size());
+    }
+}
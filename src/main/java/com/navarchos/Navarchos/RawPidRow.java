@@ -0,0 +1,10 @@
+package com.navarchos.Navarchos;
+
+/**
+ * A row of `data_pids_er`: a decoded message with the assignment of its device.
+ *
+ * @param event The decoded message.
+ * @param dvg   The driver, vehicle and group IDs of the device.
+ */
+public record RawPidRow(PidEvent event, int[] dvg) {
+}
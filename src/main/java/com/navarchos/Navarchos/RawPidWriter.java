@@ -0,0 +1,22 @@
+package com.navarchos.Navarchos;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Writes the raw PID data of messages to `data_pids_er`.
+ * The implementation is selected with `navarchos.raw.writer`: `insert` (the default) uses JDBC batch
+ * inserts, `copy` streams the rows with binary `COPY ... FROM STDIN`.
+ */
+public interface RawPidWriter {
+
+    /**
+     * Writes rows on the given connection; the caller owns the transaction.
+     *
+     * @param conn The database connection to be used.
+     * @param rows The rows to be written.
+     * @throws SQLException If a database access error occurs.
+     */
+    void write(Connection conn, List<RawPidRow> rows) throws SQLException;
+}
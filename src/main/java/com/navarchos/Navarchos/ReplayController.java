@@ -0,0 +1,54 @@
+package com.navarchos.Navarchos;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admin endpoints to replay the history of devices with {@link ReplayService}.
+ */
+@RestController
+@RequestMapping("/admin/replay")
+public class ReplayController {
+    @Autowired
+    private ReplayService replayService;
+
+    /**
+     * Starts or resumes a replay in the background.
+     *
+     * @param run     The ID of the run.
+     * @param from    The first device time to replay, in seconds since the Unix epoch.
+     * @param to      The last device time to replay, in seconds since the Unix epoch.
+     * @param devices The IDs of the devices to replay; every device with data in the range if omitted.
+     * @return        The counters of the run.
+     * @throws SQLException If the devices cannot be listed.
+     */
+    @PostMapping("/{run}")
+    public Map<String, Object> start(@PathVariable String run, @RequestParam int from, @RequestParam int to,
+                                     @RequestParam(required = false) List<Integer> devices) throws SQLException {
+        try {
+            return replayService.start(run, from, to, devices == null ? List.of() : devices).status();
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * @param run The ID of the run.
+     * @return    The counters of the run.
+     */
+    @GetMapping("/{run}")
+    public Map<String, Object> status(@PathVariable String run) {
+        ReplayService.ReplayRun replay = replayService.run(run);
+        if (replay == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No replay " + run);
+        }
+        return replay.status();
+    }
+}
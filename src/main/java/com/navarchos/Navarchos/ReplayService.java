@@ -0,0 +1,513 @@
+package com.navarchos.Navarchos;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recomputes `pids_correlation` and `pids_pdm` from the raw history in `data_pids_er`, for instance after
+ * the PdM model or the sample conditions have changed.
+ *
+ * Devices are replayed in parallel on a dedicated fork-join pool. The history of each device is streamed in
+ * order of device time through a server-side cursor and goes through the same conditions and windowing as in
+ * the live consumer, but with windows of its own: the windows of the live consumer and its Kafka consumer
+ * group are never touched.
+ *
+ * The results of a device in the replayed range are replaced. Correlations are written in batches; the PdM
+ * scores of a batch are awaited and written in the same transaction, together with the progress of the device
+ * and its window in `pids_replay_progress`. Starting an interrupted run again with the same ID and range
+ * resumes every device after its last committed batch and writes no result twice.
+ *
+ * The PdM models are stateful, so a replay never scores under the source of a live device: each device of a
+ * run is scored, and reset, under the source `replay-{run}-{device}` of its own. A batch interrupted after
+ * it was scored is scored again when resumed, which that model sees twice.
+ */
+@Service
+public class ReplayService {
+    private static final Logger log = LoggerFactory.getLogger(ReplayService.class);
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private WindowEngine windowEngine;
+    @Autowired
+    private PdmClient pdmClient;
+    @Autowired
+    private SampleGate sampleGate;
+    @Value("${navarchos.replay.parallelism:2}")
+    int parallelism = 2;
+    @Value("${navarchos.replay.fetch-size:5000}")
+    int fetchSize = 5000;
+    @Value("${navarchos.replay.batch-size:500}")
+    int batchSize = 500;
+    @Value("${navarchos.replay.score:true}")
+    boolean score = true;
+
+    private final Map<String, ReplayRun> runs = new ConcurrentHashMap<>();
+    private ForkJoinPool pool;
+    private volatile boolean tableReady;
+
+    /**
+     * Starts the pool the devices are replayed on.
+     * Every device holds two connections while it is replayed, so the parallelism has to leave room
+     * in the connection pool for the live consumer.
+     */
+    @PostConstruct
+    public void start() {
+        AtomicInteger threads = new AtomicInteger();
+        pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("replay-" + threads.incrementAndGet());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Stops the replays in progress; they can be resumed from their last committed batch.
+     */
+    @PreDestroy
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Progress and counters of a replay run.
+     */
+    public static class ReplayRun {
+        private final String id;
+        private final int from;
+        private final int to;
+        private final int devices;
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong samples = new AtomicLong();
+        final AtomicLong filtered = new AtomicLong();
+        final AtomicLong correlations = new AtomicLong();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        ReplayRun(String id, int from, int to, int devices) {
+            this.id = id;
+            this.from = from;
+            this.to = to;
+            this.devices = devices;
+        }
+
+        /**
+         * @return The ID of the run, under which its progress is stored.
+         */
+        public String id() {
+            return id;
+        }
+
+        /**
+         * @return The first device time replayed, in seconds since the Unix epoch.
+         */
+        public int from() {
+            return from;
+        }
+
+        /**
+         * @return The last device time replayed, in seconds since the Unix epoch.
+         */
+        public int to() {
+            return to;
+        }
+
+        /**
+         * @return The counters of the run.
+         */
+        public Map<String, Object> status() {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("run", id);
+            status.put("from", from);
+            status.put("to", to);
+            status.put("devices", devices);
+            status.put("completed", completed.get());
+            status.put("failed", failed.get());
+            status.put("samples", samples.get());
+            status.put("filtered", filtered.get());
+            status.put("correlations", correlations.get());
+            status.put("done", done.isDone());
+            return status;
+        }
+
+        /**
+         * @return A future completed once every device has been replayed or has failed.
+         */
+        public CompletableFuture<Void> done() {
+            return done;
+        }
+    }
+
+    /**
+     * Starts, or resumes, a replay of the history of devices in the background.
+     *
+     * @param id      The ID of the run; a run started again with the same ID resumes where it stopped.
+     * @param from    The first device time to replay, in seconds since the Unix epoch.
+     * @param to      The last device time to replay, in seconds since the Unix epoch.
+     * @param devices The IDs of the devices to replay, or an empty collection for every device with data in the range.
+     * @return        The run.
+     * @throws SQLException          If the devices cannot be listed or the progress table cannot be created.
+     * @throws IllegalStateException If a run with the same ID is still in progress.
+     */
+    public ReplayRun start(String id, int from, int to, Collection<Integer> devices) throws SQLException {
+        if (from > to) {
+            throw new IllegalArgumentException("The replay range ends before it starts");
+        }
+        List<Integer> deviceIds = new ArrayList<>(devices);
+        try (Connection conn = dataSource.getConnection()) {
+            ensureTable(conn);
+            if (deviceIds.isEmpty()) {
+                deviceIds = devicesWithData(conn, from, to);
+            }
+        }
+        ReplayRun run = new ReplayRun(id, from, to, deviceIds.size());
+        ReplayRun previous = runs.putIfAbsent(id, run);
+        if (previous != null) {
+            if (!previous.done().isDone()) {
+                throw new IllegalStateException("Replay " + id + " is still in progress");
+            }
+            runs.put(id, run);
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(deviceIds.size());
+        for (int device_id : deviceIds) {
+            tasks.add(ForkJoinTask.adapt(() -> replayDevice(run, device_id)));
+        }
+        CompletableFuture.runAsync(() -> ForkJoinTask.invokeAll(tasks), pool)
+                .whenComplete((result, e) -> {
+                    if (e != null) {
+                        log.error("Replay {} failed", id, e);
+                    }
+                    log.info("Replay {} finished: {}", id, run.status());
+                    run.done().complete(null);
+                });
+        return run;
+    }
+
+    /**
+     * @param id The ID of a run.
+     * @return   The run, or null if no run with this ID was started since the application started.
+     */
+    public ReplayRun run(String id) {
+        return runs.get(id);
+    }
+
+    private static List<Integer> devicesWithData(Connection conn, int from, int to) throws SQLException {
+        List<Integer> deviceIds = new ArrayList<>();
+        String query = "SELECT DISTINCT device_id FROM data_pids_er WHERE dt BETWEEN ? AND ? ORDER BY device_id";
+        try (PreparedStatement preparedStatement = conn.prepareStatement(query)) {
+            preparedStatement.setInt(1, from);
+            preparedStatement.setInt(2, to);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    deviceIds.add(rs.getInt(1));
+                }
+            }
+        }
+        return deviceIds;
+    }
+
+    /**
+     * Replays the history of one device, resuming after its last committed batch.
+     * One connection holds the cursor over the history, the other one commits the batches.
+     */
+    void replayDevice(ReplayRun run, int device_id) {
+        try (Connection read = dataSource.getConnection(); Connection write = dataSource.getConnection()) {
+            write.setAutoCommit(false);
+            DeviceReplay replay = resume(write, run, device_id);
+            if (replay == null) {
+                run.completed.incrementAndGet();
+                return;
+            }
+            // A server-side cursor needs a transaction
+            read.setAutoCommit(false);
+            read.setReadOnly(true);
+            String query = "SELECT dt, data FROM data_pids_er WHERE device_id = ? AND dt > ? AND dt <= ? ORDER BY dt";
+            try (PreparedStatement preparedStatement = read.prepareStatement(query)) {
+                preparedStatement.setFetchSize(fetchSize);
+                preparedStatement.setInt(1, device_id);
+                preparedStatement.setInt(2, replay.lastDt());
+                preparedStatement.setInt(3, run.to());
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    while (rs.next()) {
+                        int dt = rs.getInt(1);
+                        // Commit only between device times, so that resuming after the last one misses no sample
+                        if (dt != replay.lastDt() && replay.pending().size() >= batchSize) {
+                            commit(write, run, replay, false);
+                        }
+                        replay.apply(dt, rs.getString(2));
+                    }
+                }
+            }
+            read.commit();
+            commit(write, run, replay, true);
+            run.completed.incrementAndGet();
+            log.debug("Replayed device {} of run {}", device_id, run.id());
+        } catch (SQLException | RuntimeException e) {
+            log.error("Cannot replay device {} in run {}", device_id, run.id(), e);
+            run.failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Loads the progress of a device, or clears its results in the range if the run has not reached it yet.
+     *
+     * @return The replay of the device, or null if the device is already done.
+     */
+    private DeviceReplay resume(Connection write, ReplayRun run, int device_id) throws SQLException {
+        String query = "SELECT last_dt, state, done FROM pids_replay_progress WHERE run = ? AND device_id = ?";
+        try (PreparedStatement preparedStatement = write.prepareStatement(query)) {
+            preparedStatement.setString(1, run.id());
+            preparedStatement.setInt(2, device_id);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    if (rs.getBoolean("done")) {
+                        write.commit();
+                        return null;
+                    }
+                    DeviceWindow window = DeviceWindow.fromBytes(rs.getBytes("state"));
+                    if (!windowEngine.isConfigured(window)) {
+                        throw new IllegalStateException("Replay " + run.id() + " was started with a different window configuration");
+                    }
+                    write.commit();
+                    return new DeviceReplay(device_id, window, rs.getInt("last_dt"), windowEngine.pidSet(), sampleGate);
+                }
+            }
+        }
+        DeviceReplay replay = new DeviceReplay(device_id, windowEngine.newWindow(), run.from() - 1, windowEngine.pidSet(), sampleGate);
+        Timestamp from = Timestamp.valueOf(DeviceTimeParser.toDeviceTime(run.from()));
+        Timestamp to = Timestamp.valueOf(DeviceTimeParser.toDeviceTime(run.to()));
+        for (String table : new String[]{"pids_correlation", "pids_pdm"}) {
+            try (PreparedStatement preparedStatement = write.prepareStatement("DELETE FROM " + table + " WHERE id = ? AND dt BETWEEN ? AND ?")) {
+                preparedStatement.setInt(1, device_id);
+                preparedStatement.setTimestamp(2, from);
+                preparedStatement.setTimestamp(3, to);
+                preparedStatement.execute();
+            }
+        }
+        saveProgress(write, run, replay, false);
+        write.commit();
+        return replay;
+    }
+
+    /**
+     * Writes the pending correlations of a device, waits for their PdM scores and commits both
+     * together with the progress of the device.
+     */
+    private void commit(Connection write, ReplayRun run, DeviceReplay replay, boolean done) throws SQLException {
+        List<ReplayCorrelation> pending = replay.pending();
+        try {
+            if (!pending.isEmpty()) {
+                String correlation_query = "INSERT INTO pids_correlation(id, dt, correlation) VALUES (?, ?, ?::float8[])";
+                try (PreparedStatement preparedStatement = write.prepareStatement(correlation_query)) {
+                    for (ReplayCorrelation correlation : pending) {
+                        preparedStatement.setInt(1, replay.deviceId());
+                        preparedStatement.setTimestamp(2, Timestamp.valueOf(correlation.dt()));
+                        preparedStatement.setString(3, JdbcPidRepository.arrayLiteral(correlation.values()));
+                        preparedStatement.addBatch();
+                    }
+                    preparedStatement.executeBatch();
+                }
+            }
+            if (score) {
+                String source = pdmSource(run, replay.deviceId());
+                if (replay.resetDt() != null) {
+                    pdmClient.reset(replay.resetDt(), source).join();
+                }
+                List<CompletableFuture<ResponseBody>> scores = new ArrayList<>(pending.size());
+                for (ReplayCorrelation correlation : pending) {
+                    scores.add(pdmClient.score(correlation.dt(), correlation.values(), source, false));
+                }
+                CompletableFuture.allOf(scores.toArray(new CompletableFuture<?>[0])).join();
+                saveResponses(write, replay.deviceId(), scores);
+            }
+            saveProgress(write, run, replay, done);
+            write.commit();
+        } catch (SQLException | RuntimeException e) {
+            write.rollback();
+            throw e;
+        }
+        run.samples.addAndGet(replay.samples());
+        run.filtered.addAndGet(replay.filtered());
+        run.correlations.addAndGet(pending.size());
+        replay.committed();
+    }
+
+    /**
+     * @return The PdM source under which a device is scored by a run.
+     */
+    static String pdmSource(ReplayRun run, int device_id) {
+        return "replay-" + run.id() + "-" + device_id;
+    }
+
+    /**
+     * Writes the PdM responses of a batch to `pids_pdm` under the ID of the device, as the responses
+     * carry the source of the replay. A request that failed, or a response that is invalid, is skipped.
+     */
+    private static void saveResponses(Connection write, int device_id, List<CompletableFuture<ResponseBody>> scores) throws SQLException {
+        String pdm_query = "INSERT INTO pids_pdm(id, dt, alarm, scores, thresholds, description) VALUES (?, ?, ?, ?::int[], ?::int[], ?)";
+        try (PreparedStatement preparedStatement = write.prepareStatement(pdm_query)) {
+            int rows = 0;
+            for (CompletableFuture<ResponseBody> score : scores) {
+                ResponseBody responseBody = score.join();
+                if (responseBody == null) {
+                    continue;
+                }
+                try {
+                    preparedStatement.setInt(1, device_id);
+                    preparedStatement.setTimestamp(2, Timestamp.valueOf(responseBody.getTimestamp()));
+                    preparedStatement.setBoolean(3, responseBody.isAlarm());
+                    preparedStatement.setString(4, JdbcPidRepository.arrayLiteral(responseBody.getScores()));
+                    preparedStatement.setString(5, JdbcPidRepository.arrayLiteral(responseBody.getThresholds()));
+                    preparedStatement.setString(6, responseBody.getDescription());
+                    preparedStatement.addBatch();
+                    rows++;
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    log.warn("Skipped the PdM response of device {} at {}, which is invalid: {}", device_id, responseBody.getTimestamp(), e.toString());
+                }
+            }
+            if (rows > 0) {
+                preparedStatement.executeBatch();
+            }
+        }
+    }
+
+    private void saveProgress(Connection write, ReplayRun run, DeviceReplay replay, boolean done) throws SQLException {
+        String upsert = "INSERT INTO pids_replay_progress(run, device_id, last_dt, state, done, updated_dt) "
+                + "VALUES (?, ?, ?, ?, ?, now()) ON CONFLICT (run, device_id) DO UPDATE SET last_dt = EXCLUDED.last_dt, "
+                + "state = EXCLUDED.state, done = EXCLUDED.done, updated_dt = EXCLUDED.updated_dt";
+        try (PreparedStatement preparedStatement = write.prepareStatement(upsert)) {
+            preparedStatement.setString(1, run.id());
+            preparedStatement.setInt(2, replay.deviceId());
+            preparedStatement.setInt(3, replay.lastDt());
+            preparedStatement.setBytes(4, replay.window().toBytes());
+            preparedStatement.setBoolean(5, done);
+            preparedStatement.execute();
+        }
+    }
+
+    private void ensureTable(Connection conn) throws SQLException {
+        if (tableReady) {
+            return;
+        }
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS pids_replay_progress("
+                    + "run text NOT NULL, device_id int NOT NULL, last_dt int NOT NULL, state bytea NOT NULL, "
+                    + "done boolean NOT NULL DEFAULT false, updated_dt timestamptz NOT NULL DEFAULT now(), "
+                    + "PRIMARY KEY (run, device_id))");
+        }
+        tableReady = true;
+    }
+
+    /**
+     * A correlation computed by a replay, waiting to be committed.
+     *
+     * @param dt     The device time of the sample that completed the window.
+     * @param values The correlations of the window.
+     */
+    record ReplayCorrelation(String dt, double[] values) {
+    }
+
+    /**
+     * The gating and windowing of the history of one device, as {@link KafkaConsumerNavarchos#route(PidEvent)}
+     * and the device workers apply them to the live stream.
+     */
+    static class DeviceReplay {
+        private final int deviceId;
+        private final DeviceWindow window;
+        private final PidAttributesParser parser;
+        private final int[] gate;
+        private final SampleGate sampleGate;
+        private final List<ReplayCorrelation> pending = new ArrayList<>();
+        private int lastDt;
+        private String resetDt;
+        private long samples;
+        private long filtered;
+
+        /**
+         * @param deviceId   The ID of the device.
+         * @param window     The window to continue, empty when the replay starts.
+         * @param lastDt     The device time of the last sample already applied to the window.
+         * @param pidSet     The PIDs of the window.
+         * @param sampleGate The conditions of the live consumer.
+         */
+        DeviceReplay(int deviceId, DeviceWindow window, int lastDt, PidSet pidSet, SampleGate sampleGate) {
+            this.deviceId = deviceId;
+            this.window = window;
+            this.lastDt = lastDt;
+            this.parser = new PidAttributesParser(pidSet.names());
+            this.gate = KafkaConsumerNavarchos.gateIndices(pidSet);
+            this.sampleGate = sampleGate;
+        }
+
+        /**
+         * Applies one row of `data_pids_er` to the window.
+         *
+         * @param dt   The device time of the row, in seconds since the Unix epoch.
+         * @param data The PID attributes of the row, or null.
+         */
+        void apply(int dt, String data) {
+            lastDt = dt;
+            samples++;
+            PidAttributes attributes = data == null ? null : parser.parse(data);
+            if (sampleGate.check(attributes, gate) != null) {
+                filtered++;
+                return;
+            }
+            boolean correlationDue = window.add(attributes.values());
+            if (window.count() == 1) {
+                resetDt = DeviceTimeParser.toDeviceTime(dt);
+            }
+            if (correlationDue) {
+                pending.add(new ReplayCorrelation(DeviceTimeParser.toDeviceTime(dt), window.correlations()));
+            }
+        }
+
+        /**
+         * Clears what has been committed.
+         */
+        void committed() {
+            pending.clear();
+            resetDt = null;
+            samples = 0;
+            filtered = 0;
+        }
+
+        int deviceId() {
+            return deviceId;
+        }
+
+        DeviceWindow window() {
+            return window;
+        }
+
+        int lastDt() {
+            return lastDt;
+        }
+
+        String resetDt() {
+            return resetDt;
+        }
+
+        List<ReplayCorrelation> pending() {
+            return pending;
+        }
+
+        long samples() {
+            return samples;
+        }
+
+        long filtered() {
+            return filtered;
+        }
+    }
+}
@@ -16,6 +16,25 @@ public class ResponseBody {
     public ResponseBody() {
     }
 
+    /**
+     * A response as stored in `pids_pdm`.
+     *
+     * @param source      The ID of the device.
+     * @param timestamp   The timestamp of the scored correlations.
+     * @param alarm       Whether the response raised an alarm.
+     * @param description The description of the response, or null.
+     * @param scores      The scores.
+     * @param thresholds  The thresholds.
+     */
+    ResponseBody(String source, String timestamp, boolean alarm, String description, List<Integer> scores, List<String> thresholds) {
+        this.source = source;
+        this.timestamp = timestamp;
+        this.alarm = alarm;
+        this.description = description;
+        this.scores = scores;
+        this.thresholds = thresholds;
+    }
+
 
     public boolean isAlarm() {
         return alarm;
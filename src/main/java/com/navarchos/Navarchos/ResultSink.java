@@ -0,0 +1,223 @@
+package com.navarchos.Navarchos;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind sink of the results of the pipeline: the correlations saved to `pids_correlation` and the
+ * PdM responses saved to `pids_pdm`.
+ * Results are put on a bounded queue and written by a background thread, which takes everything queued
+ * at once, up to `max-batch` rows, and saves it to the {@link PidRepository} in one transaction.
+ * When the queue is full, callers wait for room, so a slow database slows the consumer down instead of
+ * growing the queue. A batch that fails for a transient reason, such as a lost connection, is retried with a
+ * backoff, from `retry-ms` doubling up to `max-retry-ms`, and nothing else is written meanwhile, so the queue
+ * fills up and callers wait until the database is back. A batch that fails for any other reason is split in
+ * halves until the results that cannot be written are isolated; those are logged and dropped, the rest is
+ * written. On shutdown the queue is written out before the sink stops; a batch that fails then is dropped.
+ * With `navarchos.results.write-behind` disabled, results are written by the caller.
+ */
+@Component
+public class ResultSink {
+    private static final Logger log = LoggerFactory.getLogger(ResultSink.class);
+    @Autowired
+    private PidRepository pidRepository;
+    @Autowired
+    private PipelineMetrics metrics;
+    @Value("${navarchos.results.write-behind:true}")
+    boolean writeBehind = true;
+    @Value("${navarchos.results.queue-capacity:10000}")
+    int queueCapacity = 10000;
+    @Value("${navarchos.results.max-batch:1000}")
+    int maxBatch = 1000;
+    @Value("${navarchos.results.retry-ms:1000}")
+    long retryMs = 1000;
+    @Value("${navarchos.results.max-retry-ms:30000}")
+    long maxRetryMs = 30000;
+
+    private BlockingQueue<Result> queue;
+    private Thread writer;
+    private volatile boolean running;
+
+    /**
+     * A correlation or a PdM response waiting to be written.
+     *
+     * @param deviceId    The ID of the device, for correlations.
+     * @param dt          The timestamp of the correlation, for correlations.
+     * @param correlation The correlation values, or null for a PdM response.
+     * @param response    The PdM response, or null for a correlation.
+     */
+    private record Result(int deviceId, String dt, double[] correlation, ResponseBody response) {
+    }
+
+    /**
+     * Starts the background writer.
+     */
+    @PostConstruct
+    public void start() {
+        if (writeBehind) {
+            queue = new ArrayBlockingQueue<>(queueCapacity);
+            running = true;
+            writer = new Thread(this::drain, "result-writer");
+            writer.start();
+        }
+    }
+
+    /**
+     * Writes the results still queued and stops the background writer.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            writer.join();
+            // Results queued while the writer was finishing
+            List<Result> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            if (!rest.isEmpty()) {
+                write(rest);
+            }
+        }
+    }
+
+    /**
+     * Queues the correlation of a device for `pids_correlation`.
+     *
+     * @param device_id         The ID of the device.
+     * @param dt                The timestamp of the correlation, in the format "yyyy-MM-dd HH:mm:ss".
+     * @param correlationValues The correlation values.
+     */
+    public void correlation(int device_id, String dt, double[] correlationValues) {
+        offer(List.of(new Result(device_id, dt, correlationValues, null)));
+    }
+
+    /**
+     * Queues PdM responses for `pids_pdm`.
+     *
+     * @param responses The responses received from the PdM API.
+     */
+    public void responses(List<ResponseBody> responses) {
+        List<Result> results = new ArrayList<>(responses.size());
+        for (ResponseBody responseBody : responses) {
+            results.add(new Result(0, null, null, responseBody));
+        }
+        offer(results);
+    }
+
+    /**
+     * @return The number of results waiting to be written.
+     */
+    public int pending() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    private void offer(List<Result> results) {
+        int queued = 0;
+        if (running) {
+            try {
+                for (Result result : results) {
+                    // Waits for room while the queue is full
+                    queue.put(result);
+                    queued++;
+                }
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Write-behind disabled, stopped or interrupted: write on the caller
+        write(results.subList(queued, results.size()));
+    }
+
+    /**
+     * Writes batches until the sink is stopped and the queue is empty.
+     */
+    private void drain() {
+        List<Result> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Result first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (RuntimeException e) {
+                // Would otherwise end the writer and leave the callers waiting on a full queue
+                log.error("Dropped {} results that cannot be written", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes results with one batch per table in one transaction. A result with an invalid timestamp
+     * is skipped; if the batch fails it is rolled back, and retried until it is written or the sink stops
+     * if the failure is transient, or split otherwise.
+     *
+     * @param results The results to be written.
+     */
+    private void write(List<Result> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        try {
+            SqlRetry.run(() -> "write " + results.size() + " results", () -> save(results), retryMs, maxRetryMs,
+                    () -> writeBehind && !running);
+        } catch (SQLException e) {
+            if (SqlRetry.isTransient(e)) {
+                log.error("Dropped {} results while stopping: {}", results.size(), e.getMessage());
+            } else if (results.size() > 1) {
+                int half = results.size() / 2;
+                write(results.subList(0, half));
+                write(results.subList(half, results.size()));
+            } else {
+                Result result = results.get(0);
+                if (result.response() == null) {
+                    log.error("Dropped the correlation of device {} at {}, which cannot be written: {}",
+                            result.deviceId(), result.dt(), e.getMessage());
+                } else {
+                    log.error("Dropped the PdM response of source {} at {}, which cannot be written: {}",
+                            result.response().getSource(), result.response().getTimestamp(), e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Dropped {} results on interrupt", results.size());
+        }
+    }
+
+    private void save(List<Result> results) throws SQLException {
+        long started = System.nanoTime();
+        List<PidRepository.CorrelationRow> correlations = new ArrayList<>();
+        List<ResponseBody> responses = new ArrayList<>();
+        for (Result result : results) {
+            if (result.response() == null) {
+                correlations.add(new PidRepository.CorrelationRow(result.deviceId(), result.dt(), result.correlation()));
+            } else {
+                responses.add(result.response());
+            }
+        }
+        try {
+            pidRepository.saveResults(correlations, responses);
+            log.debug("Stored {} correlations and {} PdM responses", correlations.size(), responses.size());
+        } finally {
+            metrics.record(PipelineMetrics.Stage.RESULT_WRITE, started);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.navarchos.Navarchos;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The conditions a decoded sample has to meet to enter the correlation window, and the lane it takes
+ * through the consumer, decided before any database work.
+ * A qualifying sample goes to the window and its raw data is stored. A sample that fails a condition listed in
+ * `navarchos.gate.drop`, e.g. `OBD_SPEED` to skip idling vehicles, is dropped: it is neither stored nor
+ * looked up in `mgt_dvg`. Any other sample is only archived raw, through the {@link RawPidBuffer} when it is
+ * enabled. The thresholds are configured under `navarchos.gate`; the defaults are the original conditions.
+ */
+@Component
+public class SampleGate {
+    @Value("${navarchos.gate.min-obd-speed:20}")
+    double minObdSpeed = 20;
+    @Value("${navarchos.gate.min-map-intake:95}")
+    double minMapIntake = 95;
+    @Value("${navarchos.gate.min-temp:1}")
+    double minTemp = 1;
+    @Value("${navarchos.gate.max-temp:210}")
+    double maxTemp = 210;
+    @Value("${navarchos.gate.min-rpm:1}")
+    double minRpm = 1;
+    @Value("${navarchos.gate.min-maf-air-flow:1}")
+    double minMafAirFlow = 1;
+    @Value("${navarchos.gate.drop:}")
+    Set<PipelineMetrics.Filter> drop = EnumSet.noneOf(PipelineMetrics.Filter.class);
+
+    /**
+     * The ways a sample can take through the consumer.
+     */
+    public enum Lane {
+        /** Stored raw and appended to the window of the device. */
+        WINDOW,
+        /** Only stored raw. */
+        ARCHIVE,
+        /** Neither stored nor windowed. */
+        DROP
+    }
+
+    /**
+     * Returns the first condition that keeps the PID attributes of a message out of the correlation window.
+     * Every configured PID must be present; the conditions themselves are checked on the six original PIDs.
+     *
+     * @param attributes The parsed attributes, or null.
+     * @param gate       The indices of the condition PIDs returned by {@link KafkaConsumerNavarchos#gateIndices(PidSet)}.
+     * @return           The failed condition, or null if the sample qualifies.
+     */
+    public PipelineMetrics.Filter check(PidAttributes attributes, int[] gate) {
+        if (attributes == null) {
+            return PipelineMetrics.Filter.NO_ATTRIBUTES;
+        }
+        if (!attributes.hasAll()) {
+            // One or more values are null
+            return PipelineMetrics.Filter.MISSING_PID;
+        }
+        double mapIntake = attributes.get(gate[0]);
+        double coolantTemp = attributes.get(gate[1]);
+        double MAFairFlowRate = attributes.get(gate[2]);
+        double obdSpeed = attributes.get(gate[3]);
+        double intakeTemp = attributes.get(gate[4]);
+        double rpm = attributes.get(gate[5]);
+        if (!(obdSpeed > minObdSpeed)) {
+            return PipelineMetrics.Filter.OBD_SPEED;
+        }
+        if (!(mapIntake > minMapIntake)) {
+            return PipelineMetrics.Filter.MAP_INTAKE;
+        }
+        if (!(intakeTemp > minTemp && intakeTemp < maxTemp)) {
+            return PipelineMetrics.Filter.INTAKE_TEMP;
+        }
+        if (!(coolantTemp > minTemp && coolantTemp < maxTemp)) {
+            return PipelineMetrics.Filter.COOLANT_TEMP;
+        }
+        if (!(rpm > minRpm)) {
+            return PipelineMetrics.Filter.RPM;
+        }
+        if (!(MAFairFlowRate > minMafAirFlow)) {
+            return PipelineMetrics.Filter.MAF_AIR_FLOW;
+        }
+        return null;
+    }
+
+    /**
+     * @param rejected The condition the sample failed, or null if it qualifies.
+     * @return         The lane of the sample.
+     */
+    public Lane lane(PipelineMetrics.Filter rejected) {
+        if (rejected == null) {
+            return Lane.WINDOW;
+        }
+        return drop.contains(rejected) ? Lane.DROP : Lane.ARCHIVE;
+    }
+}
@@ -0,0 +1,77 @@
+package com.navarchos.Navarchos;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Retries database writes that fail for a reason expected to go away, such as a lost connection.
+ * Other failures, such as a value the column does not accept or a violated constraint, would fail
+ * the same way on every attempt and are thrown at once.
+ */
+final class SqlRetry {
+    private static final Logger log = LoggerFactory.getLogger(SqlRetry.class);
+
+    private SqlRetry() {
+    }
+
+    /**
+     * A database write.
+     */
+    @FunctionalInterface
+    interface SqlAction {
+        void run() throws SQLException;
+    }
+
+    /**
+     * @param e A failure of a database operation.
+     * @return  Whether it is transient: a connection failure (SQLState class 08), a serialization failure
+     *          or deadlock (40001, 40P01), a server shutdown (57P) or a pool timeout.
+     */
+    static boolean isTransient(SQLException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if (next instanceof SQLTransientException || next instanceof SQLRecoverableException) {
+                return true;
+            }
+            String state = next.getSQLState();
+            if (state != null && (state.startsWith("08") || state.equals("40001") || state.equals("40P01") || state.startsWith("57P"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs a write until it succeeds, waiting after every transient failure from `retryMs`, doubled
+     * after each attempt up to `maxRetryMs`.
+     *
+     * @param what       Describes the write for the log.
+     * @param action     The write.
+     * @param retryMs    The delay after the first failure.
+     * @param maxRetryMs The longest delay between attempts.
+     * @param stopped    Checked after every failure; once true, the failure is thrown instead of retried.
+     * @throws SQLException         If the write fails for a reason that is not transient, or fails once stopped.
+     * @throws InterruptedException If interrupted while waiting to retry.
+     */
+    static void run(Supplier<String> what, SqlAction action, long retryMs, long maxRetryMs, BooleanSupplier stopped)
+            throws SQLException, InterruptedException {
+        long delay = retryMs;
+        while (true) {
+            try {
+                action.run();
+                return;
+            } catch (SQLException e) {
+                if (!isTransient(e) || stopped.getAsBoolean()) {
+                    throw e;
+                }
+                log.warn("Cannot {}, retrying in {} ms: {}", what.get(), delay, e.getMessage());
+            }
+            Thread.sleep(delay);
+            delay = Math.min(delay * 2, maxRetryMs);
+        }
+    }
+}
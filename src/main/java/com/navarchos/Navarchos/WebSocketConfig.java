@@ -0,0 +1,59 @@
+package com.navarchos.Navarchos;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
+import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.StompWebSocketEndpointRegistration;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+/**
+ * STOMP over WebSocket configuration for the dashboards.
+ * Clients connect to `/ws` and subscribe to the `/topic` destinations published by {@link AlarmPublisher}.
+ * Every session has a bounded send buffer and send time; a client that falls further behind is
+ * disconnected instead of holding messages for everyone else.
+ * Only same-origin clients may connect unless `navarchos.websocket.allowed-origins` lists the
+ * origin patterns of the dashboards served elsewhere.
+ */
+@Configuration
+@EnableWebSocketMessageBroker
+public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+    @Value("${navarchos.websocket.endpoint:/ws}")
+    String endpoint = "/ws";
+    @Value("${navarchos.websocket.allowed-origins:}")
+    String[] allowedOrigins = {};
+    @Value("${navarchos.websocket.send-buffer-size-kb:512}")
+    int sendBufferSizeKb = 512;
+    @Value("${navarchos.websocket.send-time-limit-ms:10000}")
+    int sendTimeLimit = 10000;
+    @Value("${navarchos.websocket.outbound-threads:4}")
+    int outboundThreads = 4;
+
+    @Override
+    public void registerStompEndpoints(StompEndpointRegistry registry) {
+        StompWebSocketEndpointRegistration registration = registry.addEndpoint(endpoint);
+        if (allowedOrigins.length > 0) {
+            registration.setAllowedOriginPatterns(allowedOrigins);
+        }
+    }
+
+    @Override
+    public void configureMessageBroker(MessageBrokerRegistry registry) {
+        registry.enableSimpleBroker("/topic");
+        registry.setApplicationDestinationPrefixes("/app");
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendBufferSizeLimit(sendBufferSizeKb * 1024);
+        registration.setSendTimeLimit(sendTimeLimit);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor().corePoolSize(outboundThreads).maxPoolSize(outboundThreads);
+    }
+}
@@ -0,0 +1,12 @@
+package com.navarchos.Navarchos;
+
+/**
+ * A snapshot of the window of a device, tagged with the Kafka position it reflects.
+ *
+ * @param deviceId  The ID of the device.
+ * @param partition The partition of the last sample in the window, or -1 if unknown.
+ * @param offset    The offset of the last sample in the window, or -1 if unknown.
+ * @param state     The window serialized by {@link DeviceWindow#toBytes()}.
+ */
+public record WindowCheckpoint(int deviceId, int partition, long offset, byte[] state) {
+}
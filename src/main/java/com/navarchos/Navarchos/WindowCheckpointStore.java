@@ -0,0 +1,35 @@
+package com.navarchos.Navarchos;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Persistent storage of window checkpoints, one per device.
+ */
+public interface WindowCheckpointStore {
+
+    /**
+     * Saves checkpoints, replacing the previous checkpoint of each device.
+     *
+     * @param checkpoints The checkpoints to be saved.
+     * @throws SQLException If the checkpoints cannot be saved.
+     */
+    void save(List<WindowCheckpoint> checkpoints) throws SQLException;
+
+    /**
+     * Loads the checkpoints whose last sample was consumed from one of the given partitions.
+     *
+     * @param partitions The partitions of the "PID" topic.
+     * @return           The checkpoints of those partitions.
+     */
+    List<WindowCheckpoint> loadPartitions(Collection<Integer> partitions);
+
+    /**
+     * Loads the checkpoint of a device.
+     *
+     * @param deviceId The ID of the device.
+     * @return         The checkpoint, or null if the device has none.
+     */
+    WindowCheckpoint load(int deviceId);
+}
@@ -0,0 +1,140 @@
+package com.navarchos.Navarchos;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Checkpoints the in-memory windows so that a restart or a partition rebalance does not have to
+ * wait for a full window of new samples per device.
+ * Windows that changed since their last checkpoint are saved periodically. When partitions are revoked
+ * their windows are saved and dropped; when partitions are assigned the windows last checkpointed for
+ * them are restored, and records the restored windows already contain are skipped by the consumer.
+ * When the window engine spills windows, they are not restored up front but loaded on demand.
+ */
+@Component
+public class WindowCheckpointer implements ConsumerAwareRebalanceListener {
+    private static final Logger log = LoggerFactory.getLogger(WindowCheckpointer.class);
+    @Autowired
+    private WindowEngine windowEngine;
+    @Autowired
+    private WindowCheckpointStore checkpointStore;
+    @Autowired
+    private DeviceDispatcher dispatcher;
+    @Value("${navarchos.checkpoint.enabled:true}")
+    boolean enabled = true;
+    @Value("${navarchos.checkpoint.drain-timeout-ms:10000}")
+    long drainTimeout = 10000;
+
+    /**
+     * Saves the windows that changed since their last checkpoint.
+     */
+    @Scheduled(fixedDelayString = "${navarchos.checkpoint.interval-ms:30000}")
+    public void checkpoint() {
+        if (enabled) {
+            checkpoint(window -> true);
+        }
+    }
+
+    /**
+     * Saves the changed windows that match a filter. If the store fails the windows are kept as changed,
+     * so that the next checkpoint saves them.
+     *
+     * @param filter Selects the windows to be saved.
+     * @return       The IDs of the devices whose windows were saved.
+     */
+    List<Integer> checkpoint(Predicate<DeviceWindow> filter) {
+        List<WindowCheckpoint> checkpoints = new ArrayList<>();
+        List<DeviceWindow> windows = new ArrayList<>();
+        List<Integer> devices = new ArrayList<>();
+        for (Map.Entry<Integer, DeviceWindow> entry : windowEngine.windows().entrySet()) {
+            DeviceWindow window = entry.getValue();
+            if (filter.test(window) && window.isDirty()) {
+                checkpoints.add(window.checkpoint(entry.getKey()));
+                windows.add(window);
+                devices.add(entry.getKey());
+            }
+        }
+        try {
+            checkpointStore.save(checkpoints);
+        } catch (SQLException e) {
+            windows.forEach(DeviceWindow::markDirty);
+            log.warn("Cannot checkpoint {} windows: {}", checkpoints.size(), e.getMessage());
+            return List.of();
+        }
+        if (!checkpoints.isEmpty()) {
+            log.debug("Checkpointed {} windows", checkpoints.size());
+        }
+        return devices;
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (!enabled || partitions.isEmpty()) {
+            return;
+        }
+        try {
+            // Let the workers apply the records already handed to them
+            dispatcher.awaitIdle(drainTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Set<Integer> revoked = partitionNumbers(partitions);
+        checkpoint(window -> revoked.contains(window.partition()));
+        windowEngine.windows().entrySet().stream()
+                .filter(entry -> revoked.contains(entry.getValue().partition()))
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(windowEngine::remove);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        // Another consumer may already own the partitions, so their windows are dropped without saving
+        Set<Integer> lost = partitionNumbers(partitions);
+        windowEngine.windows().entrySet().stream()
+                .filter(entry -> lost.contains(entry.getValue().partition()))
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(windowEngine::remove);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (!enabled || partitions.isEmpty()) {
+            return;
+        }
+        if (windowEngine.spills()) {
+            // The windows are loaded from their checkpoints on the next sample of each device
+            return;
+        }
+        int restored = 0;
+        for (WindowCheckpoint checkpoint : checkpointStore.loadPartitions(partitionNumbers(partitions))) {
+            try {
+                if (windowEngine.restore(checkpoint.deviceId(), DeviceWindow.fromBytes(checkpoint.state()))) {
+                    restored++;
+                }
+            } catch (RuntimeException e) {
+                log.warn("Cannot restore window of device {}: {}", checkpoint.deviceId(), e.getMessage());
+            }
+        }
+        log.info("Restored {} windows for partitions {}", restored, partitions);
+    }
+
+    private static Set<Integer> partitionNumbers(Collection<TopicPartition> partitions) {
+        Set<Integer> numbers = new HashSet<>();
+        for (TopicPartition partition : partitions) {
+            numbers.add(partition.partition());
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,431 @@
+package com.navarchos.Navarchos;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the sliding window of every device in memory.
+ * Replaces the `pids_buffer` table as the source of the correlation windows.
+ *
+ * The memory of the windows can be bounded with `navarchos.windows.memory-budget-mb`, and windows of devices
+ * without samples for `navarchos.windows.idle-eviction-minutes` can be evicted. The windows are kept in access
+ * order, so the least recently used ones are evicted first; a window is pinned while {@link #update} runs on it
+ * and is never evicted in the meantime. Evicted windows are spilled to the {@link WindowCheckpointStore} in the
+ * background, retried every `navarchos.windows.spill-retry-ms` while the store fails, and loaded back on the
+ * next sample of their device. With `navarchos.windows.float-samples` the samples are stored as float32,
+ * which halves the memory of a window.
+ */
+@Component
+public class WindowEngine {
+    private static final Logger log = LoggerFactory.getLogger(WindowEngine.class);
+    /**
+     * The PIDs stored in a window by default, in the order used for the correlation pairs.
+     */
+    public static final String[] PIDS = {"mapIntake", "coolantTemp", "MAFairFlowRate", "obdSpeed", "intakeTemp", "rpm"};
+
+    @Autowired
+    private WindowCheckpointStore checkpointStore;
+    @Value("${navarchos.pids:mapIntake,coolantTemp,MAFairFlowRate,obdSpeed,intakeTemp,rpm}")
+    String pids = String.join(",", PIDS);
+    @Value("${navarchos.correlation.window:300}")
+    int correlationWindow = 300;
+    @Value("${navarchos.correlation.step:100}")
+    int correlationStep = 100;
+    @Value("${navarchos.windows.memory-budget-mb:0}")
+    long memoryBudgetMb = 0;
+    @Value("${navarchos.windows.idle-eviction-minutes:0}")
+    long idleEvictionMinutes = 0;
+    @Value("${navarchos.windows.float-samples:false}")
+    boolean floatSamples = false;
+    @Value("${navarchos.windows.spill-retry-ms:5000}")
+    long spillRetryMs = 5000;
+
+    // In access order, least recently used first; guarded by itself, as are the slots and windowBytes
+    private final LinkedHashMap<Integer, Slot> windows = new LinkedHashMap<>(16, 0.75f, true);
+    private long windowBytes;
+    private final Map<Integer, DeviceWindow> spilling = new ConcurrentHashMap<>();
+    private final AtomicBoolean spillQueued = new AtomicBoolean();
+    private final LongAdder sizeEvictions = new LongAdder();
+    private final LongAdder idleEvictions = new LongAdder();
+    private final LongAdder spillLoads = new LongAdder();
+    private volatile boolean started;
+    private ScheduledExecutorService spiller;
+    private volatile PidSet pidSet;
+
+    /**
+     * A window in memory with its weight, the time it was last used and the number of updates running on it.
+     */
+    private static final class Slot {
+        final int deviceId;
+        final DeviceWindow window;
+        final int bytes;
+        long accessed;
+        int pins;
+
+        Slot(int deviceId, DeviceWindow window) {
+            this.deviceId = deviceId;
+            this.window = window;
+            this.bytes = window.memoryBytes();
+        }
+    }
+
+    /**
+     * A change of the window of a device.
+     */
+    @FunctionalInterface
+    public interface WindowTask {
+        void run(DeviceWindow window) throws SQLException;
+    }
+
+    /**
+     * @return The PIDs stored in a window, configured with `navarchos.pids`.
+     */
+    public PidSet pidSet() {
+        PidSet configured = pidSet;
+        if (configured == null) {
+            configured = PidSet.parse(pids);
+            pidSet = configured;
+        }
+        return configured;
+    }
+
+    /**
+     * @return True if windows are evicted to the checkpoint store and loaded back on demand.
+     */
+    public boolean spills() {
+        return checkpointStore != null && (memoryBudgetMb > 0 || idleEvictionMinutes > 0);
+    }
+
+    /**
+     * Starts the thread that writes spilled windows and evicts idle ones, on first use so that the
+     * configuration is in place.
+     */
+    private void start() {
+        if (started) {
+            return;
+        }
+        synchronized (windows) {
+            if (!started) {
+                if (spills() || idleEvictionMinutes > 0) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> new Thread(r, "window-spiller"));
+                    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+                    if (idleEvictionMinutes > 0) {
+                        long period = Math.max(1000, TimeUnit.MINUTES.toMillis(idleEvictionMinutes) / 10);
+                        executor.scheduleWithFixedDelay(this::cleanUp, period, period, TimeUnit.MILLISECONDS);
+                    }
+                    spiller = executor;
+                }
+                started = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the window of a device, loading it back if it was spilled or creating an empty one on its first sample.
+     * The window is not pinned, so it may be evicted while the caller holds it; changes go through {@link #update}.
+     *
+     * @param device_id The ID of the device.
+     * @return          The window of the device.
+     */
+    public DeviceWindow window(int device_id) {
+        Slot slot = acquire(device_id);
+        release(slot);
+        return slot.window;
+    }
+
+    /**
+     * Runs a change on the window of a device, loading it back if it was spilled or creating an empty one on
+     * its first sample. The window stays in memory until the change is done.
+     *
+     * @param device_id The ID of the device.
+     * @param task      The change.
+     * @throws SQLException If the change fails to save its results.
+     */
+    public void update(int device_id, WindowTask task) throws SQLException {
+        Slot slot = acquire(device_id);
+        try {
+            task.run(slot.window);
+        } finally {
+            release(slot);
+        }
+    }
+
+    private Slot acquire(int device_id) {
+        start();
+        synchronized (windows) {
+            Slot slot = windows.get(device_id);
+            if (slot != null) {
+                slot.pins++;
+                return slot;
+            }
+            // Evicted, but not written yet
+            DeviceWindow spilled = spilling.remove(device_id);
+            if (spilled != null) {
+                return insert(device_id, spilled);
+            }
+        }
+        // Outside the lock, as it may read the checkpoint store
+        DeviceWindow loaded = load(device_id);
+        synchronized (windows) {
+            Slot slot = windows.get(device_id);
+            if (slot != null) {
+                slot.pins++;
+                return slot;
+            }
+            return insert(device_id, loaded);
+        }
+    }
+
+    private Slot insert(int device_id, DeviceWindow window) {
+        Slot slot = new Slot(device_id, window);
+        slot.pins = 1;
+        slot.accessed = System.nanoTime();
+        Slot replaced = windows.put(device_id, slot);
+        windowBytes += slot.bytes - (replaced == null ? 0 : replaced.bytes);
+        return slot;
+    }
+
+    private void release(Slot slot) {
+        synchronized (windows) {
+            slot.pins--;
+            slot.accessed = System.nanoTime();
+            // Moves the window to the most recently used end, unless it was removed in the meantime
+            windows.get(slot.deviceId);
+            evict(slot.accessed);
+        }
+    }
+
+    /**
+     * Creates an empty window with the configured PIDs, length, step and sample precision that is not kept by the engine.
+     *
+     * @return The new window.
+     */
+    public DeviceWindow newWindow() {
+        return new DeviceWindow(pidSet(), correlationWindow, correlationStep, floatSamples);
+    }
+
+    /**
+     * @param window A window, for instance one restored from bytes.
+     * @return       True if the window was built with the configured PIDs, window length and step.
+     */
+    public boolean isConfigured(DeviceWindow window) {
+        return window.pidSetId() == pidSet().id() && window.window() == correlationWindow && window.step() == correlationStep;
+    }
+
+    /**
+     * Installs a window restored from a checkpoint, unless it was built with different PIDs,
+     * window length or step than the ones currently configured.
+     *
+     * @param device_id The ID of the device.
+     * @param window    The restored window.
+     * @return          True if the window was installed.
+     */
+    public boolean restore(int device_id, DeviceWindow window) {
+        if (!isConfigured(window)) {
+            log.warn("Discarding checkpoint of device {} with a different window configuration", device_id);
+            return false;
+        }
+        start();
+        synchronized (windows) {
+            insert(device_id, window).pins = 0;
+            evict(System.nanoTime());
+        }
+        return true;
+    }
+
+    /**
+     * Drops the window of a device from memory.
+     *
+     * @param device_id The ID of the device.
+     * @return          The dropped window, or null if the device had none.
+     */
+    public DeviceWindow remove(int device_id) {
+        synchronized (windows) {
+            Slot slot = windows.remove(device_id);
+            if (slot == null) {
+                return null;
+            }
+            windowBytes -= slot.bytes;
+            return slot.window;
+        }
+    }
+
+    /**
+     * @return A snapshot of the windows in memory by device ID, least recently used first.
+     */
+    public Map<Integer, DeviceWindow> windows() {
+        synchronized (windows) {
+            Map<Integer, DeviceWindow> snapshot = new LinkedHashMap<>(windows.size() * 4 / 3 + 1);
+            windows.forEach((device_id, slot) -> snapshot.put(device_id, slot.window));
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return The number of devices with a window in memory.
+     */
+    public int devices() {
+        synchronized (windows) {
+            return windows.size();
+        }
+    }
+
+    /**
+     * @return The estimated heap used by the windows in memory, in bytes.
+     */
+    public long memoryBytes() {
+        synchronized (windows) {
+            return windowBytes;
+        }
+    }
+
+    /**
+     * @param idle True for evictions of idle windows, false for evictions to stay within the memory budget.
+     * @return     The number of windows evicted from memory for that reason.
+     */
+    public long evictions(boolean idle) {
+        return idle ? idleEvictions.sum() : sizeEvictions.sum();
+    }
+
+    /**
+     * @return The number of windows loaded back from the checkpoint store.
+     */
+    public long spillLoads() {
+        return spillLoads.sum();
+    }
+
+    /**
+     * @return The number of evicted windows waiting to be written to the checkpoint store.
+     */
+    public int pendingSpills() {
+        return spilling.size();
+    }
+
+    /**
+     * Evicts the windows that are idle or beyond the memory budget now.
+     */
+    void cleanUp() {
+        synchronized (windows) {
+            evict(System.nanoTime());
+        }
+    }
+
+    /**
+     * Evicts windows, least recently used first, while they have been idle for too long or the windows
+     * exceed the memory budget. Pinned windows are skipped. Must be called holding the lock of the windows.
+     */
+    private void evict(long now) {
+        long budget = memoryBudgetMb * 1024 * 1024;
+        long idleNanos = TimeUnit.MINUTES.toNanos(idleEvictionMinutes);
+        Iterator<Map.Entry<Integer, Slot>> eldest = windows.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Map.Entry<Integer, Slot> entry = eldest.next();
+            Slot slot = entry.getValue();
+            boolean idle = idleNanos > 0 && now - slot.accessed >= idleNanos;
+            if (!idle && !(budget > 0 && windowBytes > budget)) {
+                // The remaining windows were used more recently
+                return;
+            }
+            if (slot.pins > 0) {
+                continue;
+            }
+            eldest.remove();
+            windowBytes -= slot.bytes;
+            (idle ? idleEvictions : sizeEvictions).increment();
+            if (spills() && slot.window.isDirty()) {
+                spilling.put(entry.getKey(), slot.window);
+                queueSpills(0);
+            }
+        }
+    }
+
+    private void queueSpills(long delayMs) {
+        if (spiller == null || spiller.isShutdown() || !spillQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            spiller.schedule(this::writeSpills, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopping; the windows are written by stop()
+            spillQueued.set(false);
+        }
+    }
+
+    /**
+     * Writes the evicted windows still pending and stops the spill writer.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (spiller != null) {
+            spiller.shutdown();
+            spiller.awaitTermination(30, TimeUnit.SECONDS);
+            writeSpills();
+            if (!spilling.isEmpty()) {
+                log.warn("{} evicted windows could not be spilled and are lost", spilling.size());
+            }
+        }
+    }
+
+    private DeviceWindow load(int device_id) {
+        if (spills()) {
+            WindowCheckpoint checkpoint = checkpointStore.load(device_id);
+            if (checkpoint != null) {
+                try {
+                    DeviceWindow window = DeviceWindow.fromBytes(checkpoint.state());
+                    if (isConfigured(window)) {
+                        spillLoads.increment();
+                        return window;
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Cannot load window of device {}: {}", device_id, e.getMessage());
+                }
+            }
+        }
+        return newWindow();
+    }
+
+    /**
+     * Writes every window waiting to be spilled with one batch. If the store fails the windows are kept
+     * and written again after `spill-retry-ms`.
+     */
+    private void writeSpills() {
+        spillQueued.set(false);
+        List<WindowCheckpoint> checkpoints = new ArrayList<>();
+        List<Map.Entry<Integer, DeviceWindow>> written = new ArrayList<>();
+        // Under the lock, so that a window is not taken back while it is serialized
+        synchronized (windows) {
+            for (Map.Entry<Integer, DeviceWindow> entry : spilling.entrySet()) {
+                checkpoints.add(entry.getValue().checkpoint(entry.getKey()));
+                written.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+        }
+        if (checkpoints.isEmpty()) {
+            return;
+        }
+        try {
+            checkpointStore.save(checkpoints);
+        } catch (SQLException | RuntimeException e) {
+            // Also the windows taken back in the meantime still have to be saved
+            written.forEach(entry -> entry.getValue().markDirty());
+            log.warn("Cannot spill {} windows, retrying in {} ms: {}", checkpoints.size(), spillRetryMs, e.getMessage());
+            queueSpills(spillRetryMs);
+            return;
+        }
+        synchronized (windows) {
+            for (Map.Entry<Integer, DeviceWindow> entry : written) {
+                // Unless the device has taken its window back in the meantime
+                spilling.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        log.debug("Spilled {} windows", checkpoints.size());
+    }
+}
@@ -0,0 +1,20 @@
+-- Notifies the consumers when a device assignment changes, so that their
+-- DeviceAssignmentCache drops the cached driver/vehicle/group of the device.
+CREATE OR REPLACE FUNCTION mgt_dvg_notify() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('mgt_dvg_changed', OLD.device_id::text);
+    ELSE
+        PERFORM pg_notify('mgt_dvg_changed', NEW.device_id::text);
+        IF TG_OP = 'UPDATE' AND OLD.device_id IS DISTINCT FROM NEW.device_id THEN
+            PERFORM pg_notify('mgt_dvg_changed', OLD.device_id::text);
+        END IF;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS mgt_dvg_notify ON mgt_dvg;
+CREATE TRIGGER mgt_dvg_notify
+    AFTER INSERT OR UPDATE OR DELETE ON mgt_dvg
+    FOR EACH ROW EXECUTE FUNCTION mgt_dvg_notify();
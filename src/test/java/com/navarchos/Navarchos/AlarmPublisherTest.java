@@ -0,0 +1,85 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AlarmPublisherTest {
+	private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+
+	private AlarmPublisher publisher(boolean correlations) {
+		AlarmPublisher publisher = new AlarmPublisher();
+		ReflectionTestUtils.setField(publisher, "messagingTemplate", messagingTemplate);
+		publisher.publishCorrelations = correlations;
+		return publisher;
+	}
+
+	private static ResponseBody response(int device, boolean alarm) throws Exception {
+		return new ObjectMapper().readValue("{\"alarm\":" + alarm + ",\"source\":\"" + device
+				+ "\",\"timestamp\":\"2024-01-01 10:00:00\",\"scores\":[1],\"thresholds\":[\"0.5\"]}", ResponseBody.class);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Object> sent(String destination) {
+		ArgumentCaptor<Object> payload = ArgumentCaptor.forClass(Object.class);
+		verify(messagingTemplate).convertAndSend(eq(destination), payload.capture());
+		return (List<Object>) payload.getValue();
+	}
+
+	@Test
+	void rapidUpdatesAreConflatedPerDeviceAndBroadcastPerTopic() {
+		AlarmPublisher publisher = publisher(true);
+		publisher.correlation(1, new int[]{5, 10, 100}, "2024-01-01 10:00:00", new double[]{0.1});
+		publisher.correlation(1, new int[]{5, 10, 100}, "2024-01-01 10:00:01", new double[]{0.2});
+		publisher.correlation(2, new int[]{6, 11, 100}, "2024-01-01 10:00:01", new double[]{0.3});
+		publisher.correlation(3, new int[]{-1, -1, -1}, "2024-01-01 10:00:01", new double[]{0.4});
+		publisher.flush();
+
+		List<Object> vehicle = sent("/topic/vehicles/10/correlations");
+		assertEquals(1, vehicle.size());
+		assertEquals("2024-01-01 10:00:01", ((AlarmPublisher.CorrelationMessage) vehicle.get(0)).timestamp());
+		List<Object> group = sent("/topic/groups/100/correlations");
+		assertEquals(2, group.size());
+		sent("/topic/vehicles/11/correlations");
+		verifyNoMoreInteractions(messagingTemplate);
+
+		publisher.flush();
+		verifyNoMoreInteractions(messagingTemplate);
+	}
+
+	@Test
+	void onlyAlarmsArePublishedByDefault() throws Exception {
+		AlarmPublisher publisher = publisher(false);
+		publisher.correlation(1, new int[]{5, 10, 100}, "2024-01-01 10:00:00", new double[]{0.1});
+		publisher.response(1, new int[]{5, 10, 100}, response(1, false));
+		publisher.response(2, new int[]{6, 11, 100}, response(2, true));
+		publisher.response(3, new int[]{7, 12, 100}, null);
+		publisher.flush();
+
+		AlarmPublisher.AlarmMessage alarm = (AlarmPublisher.AlarmMessage) sent("/topic/vehicles/11/alarms").get(0);
+		assertEquals(2, alarm.deviceId());
+		assertEquals(List.of(1), alarm.scores());
+		assertEquals(1, sent("/topic/groups/100/alarms").size());
+		verifyNoMoreInteractions(messagingTemplate);
+	}
+
+	@Test
+	void aFailedTopicDoesNotStopTheOthers() {
+		AlarmPublisher publisher = publisher(true);
+		doThrow(new IllegalStateException("Converter failed")).when(messagingTemplate)
+				.convertAndSend(eq("/topic/vehicles/10/correlations"), any(Object.class));
+		publisher.correlation(1, new int[]{5, 10, 100}, "2024-01-01 10:00:00", new double[]{0.1});
+		publisher.flush();
+
+		assertEquals(1, sent("/topic/groups/100/correlations").size());
+		sent("/topic/vehicles/10/correlations");
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.navarchos.Navarchos;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest(properties = {"navarchos.kafka.batch-listener=true", "navarchos.kafka.retry-ms=100",
+		"spring.kafka.consumer.auto-offset-reset=earliest",
+		"navarchos.assignments.listen=false", "navarchos.checkpoint.enabled=false"})
+@EmbeddedKafka(topics = "PID", partitions = 1, bootstrapServersProperty = "spring.kafka.bootstrap-servers")
+class BatchListenerTest {
+	private static final String MESSAGE = "{\"deviceId\":42,\"deviceTime\":\"2024-03-05 07:08:09\",\"dt\":\"2024-03-05 07:08:10\","
+			+ "\"topic\":\"PID\",\"PIDAttributes\":\"{rpm=1500}\"}";
+
+	@Autowired
+	private EmbeddedKafkaBroker broker;
+	@MockBean
+	private PidRepository pidRepository;
+
+	@Test
+	void aBatchThatCannotBeWrittenIsRedeliveredAndNotCommitted() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		CountDownLatch checked = new CountDownLatch(1);
+		when(pidRepository.findAssignment(anyInt())).thenReturn(new int[]{-1, -1, -1});
+		doAnswer(invocation -> {
+			if (attempts.incrementAndGet() == 1) {
+				throw new SQLException("Connection refused", "08001");
+			}
+			checked.await(10, TimeUnit.SECONDS);
+			return null;
+		}).when(pidRepository).saveRaw(anyList());
+
+		try (Producer<String, String> producer = new KafkaProducer<>(KafkaTestUtils.producerProps(broker), new StringSerializer(), new StringSerializer())) {
+			producer.send(new ProducerRecord<>("PID", MESSAGE)).get(10, TimeUnit.SECONDS);
+		}
+		long deadline = System.currentTimeMillis() + 20000;
+		while (attempts.get() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		// The batch is being written again after the failure, and its offset has not been committed
+		assertEquals(2, attempts.get());
+		assertNull(KafkaTestUtils.getCurrentOffset(broker.getBrokersAsString(), "traccar", "PID", 0));
+
+		checked.countDown();
+		while (KafkaTestUtils.getCurrentOffset(broker.getBrokersAsString(), "traccar", "PID", 0) == null
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals(1, KafkaTestUtils.getCurrentOffset(broker.getBrokersAsString(), "traccar", "PID", 0).offset());
+		verify(pidRepository, times(2)).saveRaw(argThat(rows -> rows.size() == 1));
+	}
+
+}
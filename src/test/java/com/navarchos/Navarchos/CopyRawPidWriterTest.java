@@ -0,0 +1,83 @@
+package com.navarchos.Navarchos;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CopyRawPidWriterTest {
+	private static final CopyRawPidWriter.ColumnType[] TYPES = {
+			CopyRawPidWriter.ColumnType.INT8, CopyRawPidWriter.ColumnType.INT4, CopyRawPidWriter.ColumnType.INT4,
+			CopyRawPidWriter.ColumnType.INT4, CopyRawPidWriter.ColumnType.INT4, CopyRawPidWriter.ColumnType.POINT,
+			CopyRawPidWriter.ColumnType.TEXT, CopyRawPidWriter.ColumnType.JSONB};
+
+	private static ByteBuffer encode(RawPidRow... rows) throws Exception {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buffer);
+		CopyRawPidWriter.writeHeader(out);
+		for (RawPidRow row : rows) {
+			CopyRawPidWriter.writeRow(out, TYPES, row);
+		}
+		CopyRawPidWriter.writeTrailer(out);
+		return ByteBuffer.wrap(buffer.toByteArray());
+	}
+
+	private static String text(ByteBuffer buffer, int length) {
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void encodesRowsInBinaryCopyFormat() throws Exception {
+		PidAttributes attributes = new PidAttributesParser(WindowEngine.PIDS).parse("{rpm=1500, vin=WVWÄ}");
+		PidEvent event = new PidEvent(7, "2024-01-02 03:04:05", 1704164645, "2024-01-02 03:04:05", 37.9, 23.7, "PID", attributes);
+		PidEvent empty = new PidEvent(8, null, 1704164646, null, null, 23.7, "PID", null);
+		ByteBuffer buffer = encode(new RawPidRow(event, new int[]{1, 2, 3}), new RawPidRow(empty, new int[]{-1, -1, -1}));
+
+		assertEquals("PGCOPY\nÿ\r\n\u0000", new String(buffer.array(), 0, 11, StandardCharsets.ISO_8859_1));
+		buffer.position(11);
+		assertEquals(0, buffer.getInt());
+		assertEquals(0, buffer.getInt());
+
+		assertEquals(8, buffer.getShort());
+		assertEquals(8, buffer.getInt());
+		assertEquals(1704164645L, buffer.getLong());
+		for (int expected : new int[]{7, 1, 2, 3}) {
+			assertEquals(4, buffer.getInt());
+			assertEquals(expected, buffer.getInt());
+		}
+		assertEquals(16, buffer.getInt());
+		assertEquals(37.9, buffer.getDouble());
+		assertEquals(23.7, buffer.getDouble());
+		assertEquals(3, buffer.getInt());
+		assertEquals("PID", text(buffer, 3));
+		byte[] json = attributes.json().getBytes(StandardCharsets.UTF_8);
+		assertEquals(json.length + 1, buffer.getInt());
+		assertEquals(1, buffer.get());
+		assertEquals(attributes.json(), text(buffer, json.length));
+
+		assertEquals(8, buffer.getShort());
+		assertEquals(8, buffer.getInt());
+		assertEquals(1704164646L, buffer.getLong());
+		buffer.position(buffer.position() + 4 * 8);
+		assertEquals(-1, buffer.getInt());
+		assertEquals(3, buffer.getInt());
+		assertEquals("PID", text(buffer, 3));
+		assertEquals(-1, buffer.getInt());
+
+		assertEquals(-1, buffer.getShort());
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	void rejectsUnsupportedColumnTypes() throws Exception {
+		assertEquals(CopyRawPidWriter.ColumnType.INT4, CopyRawPidWriter.ColumnType.of("dt", "integer"));
+		assertEquals(CopyRawPidWriter.ColumnType.JSONB, CopyRawPidWriter.ColumnType.of("data", "jsonb"));
+		assertThrows(java.sql.SQLException.class, () -> CopyRawPidWriter.ColumnType.of("position", "geometry"));
+	}
+
+}
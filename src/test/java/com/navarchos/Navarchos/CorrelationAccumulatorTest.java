@@ -0,0 +1,47 @@
+package com.navarchos.Navarchos;
+
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CorrelationAccumulatorTest {
+
+	@Test
+	void slidingCorrelationsMatchFullRescan() {
+		Random random = new Random(42);
+		DeviceWindow window = new DeviceWindow(6, 300, 10);
+		for (int i = 0; i < 2000; i++) {
+			double speed = 20 + 100 * random.nextDouble();
+			double[] sample = {
+					95 + 60 * random.nextDouble(),
+					80 + 10 * random.nextDouble(),
+					speed / 3 + random.nextGaussian(),
+					speed,
+					30 + 5 * random.nextDouble(),
+					800 + 30 * speed + 50 * random.nextGaussian()};
+			if (window.add(sample)) {
+				double[][] columns = window.columns();
+				double[] incremental = window.correlations();
+				int k = 0;
+				for (int a = 0; a < columns.length; a++) {
+					for (int b = a + 1; b < columns.length; b++) {
+						assertEquals(KafkaConsumerNavarchos.calculateCorrelation(columns[a], columns[b]), incremental[k++], 1e-9);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	void constantPidHasNoCorrelation() {
+		CorrelationAccumulator accumulator = new CorrelationAccumulator(2);
+		for (int i = 0; i < 10; i++) {
+			accumulator.add(new double[]{i, 5});
+		}
+		accumulator.remove(new double[]{0, 5});
+		assertEquals(0, accumulator.correlations()[0]);
+		assertEquals(9, accumulator.count());
+	}
+
+}
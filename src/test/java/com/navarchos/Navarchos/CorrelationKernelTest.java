@@ -0,0 +1,53 @@
+package com.navarchos.Navarchos;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CorrelationKernelTest {
+
+	@Test
+	void allPairsMatchPairwiseCorrelationForManyPids() {
+		Random random = new Random(7);
+		int pids = 20;
+		// Not a multiple of the block length, to cover the partial last block
+		int size = 3 * CorrelationKernel.BLOCK + 17;
+		double[][] columns = new double[pids][size];
+		for (int s = 0; s < size; s++) {
+			double base = random.nextGaussian();
+			for (int p = 0; p < pids; p++) {
+				columns[p][s] = p % 5 == 0 ? 42 : 10 * p + base * p + random.nextGaussian();
+			}
+		}
+		double[] correlations = CorrelationKernel.correlations(columns, size);
+		assertEquals(pids * (pids - 1) / 2, correlations.length);
+		int k = 0;
+		for (int i = 0; i < pids; i++) {
+			for (int j = i + 1; j < pids; j++) {
+				assertEquals(KafkaConsumerNavarchos.calculateCorrelation(columns[i], columns[j]), correlations[k++], 1e-9);
+			}
+		}
+	}
+
+	@Test
+	void featureOrderFollowsTheConfiguredPids() {
+		PidSet pidSet = PidSet.parse("rpm, obdSpeed, throttle");
+		assertEquals(List.of("rpm:obdSpeed", "rpm:throttle", "obdSpeed:throttle"), pidSet.featureNames());
+		assertEquals(15, PidSet.DEFAULT.features());
+		assertEquals("mapIntake:coolantTemp", PidSet.DEFAULT.featureNames().get(0));
+		assertEquals("intakeTemp:rpm", PidSet.DEFAULT.featureNames().get(14));
+		assertThrows(IllegalArgumentException.class, () -> PidSet.parse("rpm,rpm"));
+		assertThrows(IllegalArgumentException.class, () -> KafkaConsumerNavarchos.gateIndices(pidSet));
+	}
+
+	@Test
+	void windowsOfAnotherPidSetAreNotRestored() {
+		WindowEngine engine = new WindowEngine();
+		DeviceWindow window = new DeviceWindow(PidSet.parse("mapIntake,coolantTemp,MAFairFlowRate,obdSpeed,rpm,intakeTemp"), 300, 100);
+		assertFalse(engine.restore(1, DeviceWindow.fromBytes(window.toBytes())));
+		assertTrue(engine.restore(1, DeviceWindow.fromBytes(new DeviceWindow(PidSet.DEFAULT, 300, 100).toBytes())));
+	}
+
+}
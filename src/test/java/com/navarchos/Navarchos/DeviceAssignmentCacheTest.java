@@ -0,0 +1,36 @@
+package com.navarchos.Navarchos;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DeviceAssignmentCacheTest {
+
+	@Test
+	void readsEachAssignmentOnceAndPublishesTheCacheMetrics() throws Exception {
+		PidRepository pidRepository = mock(PidRepository.class);
+		when(pidRepository.findAssignment(7))
+				.thenThrow(new SQLException("Connection refused"))
+				.thenReturn(new int[]{11, 12, 13});
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		DeviceAssignmentCache assignmentCache = new DeviceAssignmentCache();
+		ReflectionTestUtils.setField(assignmentCache, "pidRepository", pidRepository);
+		ReflectionTestUtils.setField(assignmentCache, "registry", registry);
+		assignmentCache.listen = false;
+		assignmentCache.start();
+
+		// A failed read is reported and not cached
+		assertThrows(SQLException.class, () -> assignmentCache.get(7));
+		assertArrayEquals(new int[]{11, 12, 13}, assignmentCache.get(7));
+		assertArrayEquals(new int[]{11, 12, 13}, assignmentCache.get(7));
+		verify(pidRepository, times(2)).findAssignment(7);
+
+		assertEquals(1, registry.get("cache.gets").tag("cache", "navarchos.assignments").tag("result", "hit").functionCounter().count());
+		assertEquals(2, registry.get("cache.gets").tag("cache", "navarchos.assignments").tag("result", "miss").functionCounter().count());
+	}
+
+}
@@ -0,0 +1,49 @@
+package com.navarchos.Navarchos;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceDispatcherTest {
+
+	@Test
+	void keepsPerDeviceOrderAcrossWorkers() throws Exception {
+		DeviceDispatcher dispatcher = new DeviceDispatcher();
+		dispatcher.threads = 4;
+		dispatcher.maxPending = 64;
+		dispatcher.start();
+		Map<Integer, List<Integer>> seen = new HashMap<>();
+		for (int device = 0; device < 10; device++) {
+			seen.put(device, Collections.synchronizedList(new ArrayList<>()));
+		}
+		List<CompletableFuture<Void>> results = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			int device = i % 10;
+			int sequence = i;
+			results.add(dispatcher.submit(device, () -> seen.get(device).add(sequence)));
+		}
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+		for (List<Integer> sequences : seen.values()) {
+			assertEquals(100, sequences.size());
+			for (int i = 1; i < sequences.size(); i++) {
+				assertTrue(sequences.get(i - 1) < sequences.get(i));
+			}
+		}
+		assertEquals(0, dispatcher.pending());
+		dispatcher.stop();
+	}
+
+	@Test
+	void reportsFailedTasks() {
+		DeviceDispatcher dispatcher = new DeviceDispatcher();
+		dispatcher.threads = 1;
+		dispatcher.start();
+		CompletableFuture<Void> result = dispatcher.submit(1, () -> {
+			throw new IllegalStateException("boom");
+		});
+		assertThrows(Exception.class, result::join);
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.navarchos.Navarchos;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DeviceStateCacheTest {
+	private static final int[] DVG = {1, 10, 100};
+
+	private static ResponseBody response(int device, String dt, boolean alarm) {
+		return new ResponseBody(String.valueOf(device), dt, alarm, null, List.of(1), List.of("5"));
+	}
+
+	@Test
+	void olderUpdatesDoNotReplaceNewerOnes() {
+		DeviceStateCache cache = new DeviceStateCache();
+		cache.correlation(1, DVG, "2024-03-05 07:08:20", new double[]{0.2});
+		cache.response(1, DVG, response(1, "2024-03-05 07:08:20", true));
+		long version = cache.device(1).version();
+
+		// The response to an earlier window completing last
+		cache.response(1, DVG, response(1, "2024-03-05 07:08:10", false));
+		cache.correlation(1, DVG, "2024-03-05 07:08:10", new double[]{0.1});
+		DeviceStateCache.DeviceState state = cache.device(1);
+		assertTrue(state.alarm());
+		assertEquals("2024-03-05 07:08:20", state.pdmTimestamp());
+		assertArrayEquals(new double[]{0.2}, state.correlations());
+		assertEquals(version, state.version());
+
+		cache.response(1, DVG, response(1, "2024-03-05 07:08:30", false));
+		assertFalse(cache.device(1).alarm());
+		assertTrue(cache.device(1).version() > version);
+	}
+
+	@Test
+	void seedsTheLatestResultsWithoutReplacingLiveUpdates() throws Exception {
+		String recent = LocalDateTime.now().minusHours(1).format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+		InMemoryPidRepository repository = new InMemoryPidRepository();
+		repository.saveResults(List.of(
+				new PidRepository.CorrelationRow(1, recent, new double[]{0.1}),
+				new PidRepository.CorrelationRow(2, recent, new double[]{0.2}),
+				new PidRepository.CorrelationRow(3, "2020-01-01 00:00:00", new double[]{0.3})),
+				List.of(response(1, recent, true)));
+		DeviceAssignmentCache assignmentCache = mock(DeviceAssignmentCache.class);
+		when(assignmentCache.get(anyInt())).thenReturn(DVG);
+		DeviceStateCache cache = new DeviceStateCache();
+		ReflectionTestUtils.setField(cache, "pidRepository", repository);
+		ReflectionTestUtils.setField(cache, "assignmentCache", assignmentCache);
+		String live = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+		cache.correlation(2, DVG, live, new double[]{0.9});
+		cache.seed();
+
+		assertEquals(2, cache.size());
+		assertArrayEquals(new double[]{0.1}, cache.device(1).correlations());
+		assertTrue(cache.device(1).alarm());
+		assertEquals(10, cache.device(1).vehicleId());
+		assertArrayEquals(new double[]{0.9}, cache.device(2).correlations());
+		// Older than the seeded days
+		assertNull(cache.device(3));
+	}
+
+}
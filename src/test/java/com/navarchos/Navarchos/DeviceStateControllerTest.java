@@ -0,0 +1,66 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class DeviceStateControllerTest {
+
+	@Test
+	void movesDevicesBetweenVehiclesAndPagesInDeviceOrder() throws Exception {
+		DeviceStateCache cache = new DeviceStateCache();
+		cache.correlation(3, new int[]{1, 10, 100}, "2024-03-05 07:08:09", new double[]{0.5});
+		cache.correlation(1, new int[]{2, 10, 100}, "2024-03-05 07:08:09", new double[]{0.25});
+		cache.correlation(2, new int[]{-1, -1, -1}, "2024-03-05 07:08:09", new double[]{0.75});
+		assertEquals(2, cache.vehicle(10).size());
+		assertEquals(1, cache.vehicle(10).get(0).deviceId());
+
+		cache.response(3, new int[]{1, 11, 100}, new ObjectMapper().readValue(
+				"{\"source\": \"3\", \"timestamp\": \"2024-03-05 07:08:10\", \"alarm\": true}", ResponseBody.class));
+		DeviceStateCache.DeviceState state = cache.device(3);
+		assertEquals(11, state.vehicleId());
+		assertEquals("2024-03-05 07:08:09", state.correlationTimestamp());
+		assertTrue(state.alarm());
+		assertEquals(1, cache.vehicle(10).size());
+		assertEquals(1, cache.vehicle(11).size());
+		assertEquals(2, cache.group(100).size());
+
+		assertEquals(1, cache.page(null, 2, false).get(0).deviceId());
+		assertEquals(3, cache.page(2, 2, false).get(0).deviceId());
+		assertEquals(3, cache.page(null, 10, true).get(0).deviceId());
+		assertEquals(1, cache.page(null, 10, true).size());
+	}
+
+	@Test
+	void answersNotModifiedUntilTheStateChanges() throws Exception {
+		DeviceStateCache cache = new DeviceStateCache();
+		cache.correlation(7, new int[]{11, 12, 13}, "2024-03-05 07:08:09", new double[]{0.5});
+		DeviceStateController controller = new DeviceStateController();
+		ReflectionTestUtils.setField(controller, "deviceStates", cache);
+		MockMvc mvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+		String etag = mvc.perform(get("/api/state/devices/7"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.vehicleId").value(12))
+				.andReturn().getResponse().getHeader("ETag");
+		mvc.perform(get("/api/state/devices/7").header("If-None-Match", etag))
+				.andExpect(status().isNotModified());
+		cache.correlation(7, new int[]{11, 12, 13}, "2024-03-05 07:08:10", new double[]{0.6});
+		mvc.perform(get("/api/state/devices/7").header("If-None-Match", etag))
+				.andExpect(status().isOk());
+
+		mvc.perform(get("/api/state/devices/8")).andExpect(status().isNotFound());
+		mvc.perform(get("/api/state/devices").param("limit", "1"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.next").value(7))
+				.andExpect(jsonPath("$.total").value(1));
+		mvc.perform(get("/api/state/devices").param("limit", "5000")).andExpect(status().isBadRequest());
+	}
+
+}
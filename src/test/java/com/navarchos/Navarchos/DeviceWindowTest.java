@@ -0,0 +1,36 @@
+package com.navarchos.Navarchos;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceWindowTest {
+
+	@Test
+	void correlationIsDueWhenFilledAndOnEveryStep() {
+		DeviceWindow window = new DeviceWindow(2, 5, 2);
+		boolean[] due = new boolean[10];
+		for (int i = 0; i < due.length; i++) {
+			due[i] = window.add(new double[]{i, -i});
+		}
+		assertArrayEquals(new boolean[]{false, false, false, false, true, false, true, false, true, false}, due);
+		assertEquals(5, window.size());
+		assertEquals(10, window.count());
+	}
+
+	@Test
+	void columnsAreReturnedOldestFirst() {
+		DeviceWindow window = new DeviceWindow(2, 4, 1);
+		for (int i = 0; i < 3; i++) {
+			window.add(new double[]{i, 10 * i});
+		}
+		assertArrayEquals(new double[]{0, 1, 2}, window.columns()[0]);
+		for (int i = 3; i < 7; i++) {
+			window.add(new double[]{i, 10 * i});
+		}
+		double[][] columns = window.columns();
+		assertArrayEquals(new double[]{3, 4, 5, 6}, columns[0]);
+		assertArrayEquals(new double[]{30, 40, 50, 60}, columns[1]);
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class InMemoryPidRepositoryTest {
+	private final PidAttributesParser parser = new PidAttributesParser(WindowEngine.PIDS);
+
+	@Test
+	void consumerStoresRawDataAndCorrelationsInMemory() throws Exception {
+		InMemoryPidRepository repository = new InMemoryPidRepository();
+		repository.assign(7, new int[]{11, 12, 13});
+		PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+
+		DeviceAssignmentCache assignmentCache = new DeviceAssignmentCache();
+		ReflectionTestUtils.setField(assignmentCache, "pidRepository", repository);
+		ReflectionTestUtils.setField(assignmentCache, "registry", new SimpleMeterRegistry());
+		assignmentCache.listen = false;
+		assignmentCache.start();
+		ResultSink resultSink = new ResultSink();
+		resultSink.writeBehind = false;
+		ReflectionTestUtils.setField(resultSink, "pidRepository", repository);
+		ReflectionTestUtils.setField(resultSink, "metrics", metrics);
+		PdmCoalescer pdmCoalescer = mock(PdmCoalescer.class);
+		when(pdmCoalescer.score(anyString(), any(), anyInt())).thenReturn(new CompletableFuture<>());
+		AlarmPublisher alarmPublisher = mock(AlarmPublisher.class);
+		DeviceStateCache deviceStates = new DeviceStateCache();
+
+		KafkaConsumerNavarchos consumer = new KafkaConsumerNavarchos();
+		ReflectionTestUtils.setField(consumer, "pidRepository", repository);
+		ReflectionTestUtils.setField(consumer, "assignmentCache", assignmentCache);
+		ReflectionTestUtils.setField(consumer, "rawPidBuffer", new RawPidBuffer());
+		ReflectionTestUtils.setField(consumer, "resultSink", resultSink);
+		ReflectionTestUtils.setField(consumer, "windowEngine", new WindowEngine());
+		ReflectionTestUtils.setField(consumer, "pdmClient", mock(PdmClient.class));
+		ReflectionTestUtils.setField(consumer, "pdmCoalescer", pdmCoalescer);
+		ReflectionTestUtils.setField(consumer, "alarmPublisher", alarmPublisher);
+		ReflectionTestUtils.setField(consumer, "deviceStates", deviceStates);
+		ReflectionTestUtils.setField(consumer, "metrics", metrics);
+		ReflectionTestUtils.setField(consumer, "sampleGate", new SampleGate());
+		consumer.bufferAudit = true;
+		DeviceDispatcher dispatcher = new DeviceDispatcher();
+		dispatcher.threads = 2;
+		dispatcher.start();
+		ReflectionTestUtils.setField(consumer, "dispatcher", dispatcher);
+		Acknowledgment acknowledgment = mock(Acknowledgment.class);
+
+		for (int i = 0; i < 301; i++) {
+			String deviceTime = DeviceTimeParser.toDeviceTime(1709622489L + i);
+			PidAttributes attributes = parser.parse("{rpm=" + (1500 + i % 17) + ", obdSpeed=42, mapIntake=" + (101 + i % 5)
+					+ ", intakeTemp=35, coolantTemp=88, MAFairFlowRate=12.5}");
+			KafkaConsumerNavarchosTest.consume(consumer, new PidEvent(7, deviceTime, 1709622489 + i, deviceTime, null, null, "PID", attributes), i, acknowledgment);
+		}
+		// A sample that does not qualify is still stored raw
+		KafkaConsumerNavarchosTest.consume(consumer, new PidEvent(8, "2024-03-05 07:08:09", 1709622489, "2024-03-05 07:08:09", null, null, "PID",
+				parser.parse("{rpm=1500, obdSpeed=5}")), 301, acknowledgment);
+		verify(acknowledgment, timeout(5000).times(302)).acknowledge();
+		dispatcher.stop();
+
+		assertEquals(302, repository.rawRows());
+		assertEquals(301, repository.bufferSamples());
+		assertEquals(1, repository.correlations());
+		PidRepository.CorrelationRow correlation = repository.latestCorrelation(7);
+		assertEquals(DeviceTimeParser.toDeviceTime(1709622489L + 299), correlation.dt());
+		assertEquals(15, correlation.values().length);
+		assertNull(repository.latestCorrelation(8));
+		verify(alarmPublisher).correlation(eq(7), eq(new int[]{11, 12, 13}), anyString(), any());
+		assertArrayEquals(new int[]{-1, -1, -1}, repository.findAssignment(8));
+		assertSame(correlation.values(), deviceStates.device(7).correlations());
+		assertEquals(13, deviceStates.device(7).groupId());
+
+		ResponseBody alarm = new ObjectMapper().readValue(
+				"{\"source\": \"7\", \"timestamp\": \"" + correlation.dt() + "\", \"alarm\": true}", ResponseBody.class);
+		resultSink.responses(List.of(alarm));
+		assertEquals(1, repository.alarms());
+		assertSame(alarm, repository.latestResponse(7));
+	}
+
+}
@@ -0,0 +1,89 @@
+package com.navarchos.Navarchos;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.sql.SQLException;
+
+import static org.mockito.Mockito.*;
+
+class KafkaConsumerNavarchosTest {
+	private final PidAttributesParser parser = new PidAttributesParser(WindowEngine.PIDS);
+	private PidRepository pidRepository;
+	private DeviceDispatcher dispatcher;
+	private KafkaConsumerNavarchos consumer;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		pidRepository = mock(PidRepository.class);
+		DeviceAssignmentCache assignmentCache = mock(DeviceAssignmentCache.class);
+		when(assignmentCache.get(anyInt())).thenReturn(new int[]{-1, -1, -1});
+		dispatcher = new DeviceDispatcher();
+		dispatcher.threads = 1;
+		dispatcher.start();
+		consumer = new KafkaConsumerNavarchos();
+		ReflectionTestUtils.setField(consumer, "metrics", new PipelineMetrics(new SimpleMeterRegistry()));
+		ReflectionTestUtils.setField(consumer, "windowEngine", new WindowEngine());
+		ReflectionTestUtils.setField(consumer, "sampleGate", new SampleGate());
+		ReflectionTestUtils.setField(consumer, "assignmentCache", assignmentCache);
+		ReflectionTestUtils.setField(consumer, "pidRepository", pidRepository);
+		ReflectionTestUtils.setField(consumer, "rawPidBuffer", new RawPidBuffer());
+		ReflectionTestUtils.setField(consumer, "dispatcher", dispatcher);
+		consumer.rawRetryMs = 10;
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		dispatcher.stop();
+	}
+
+	/**
+	 * Hands a message to the record listener as the container would.
+	 */
+	static void consume(KafkaConsumerNavarchos consumer, PidEvent event, long offset, Acknowledgment acknowledgment) {
+		ReflectionTestUtils.invokeMethod(consumer, "consumePidMessage", new ConsumerRecord<>("PID", 0, offset, "", event), acknowledgment);
+	}
+
+	private void consume(long offset, Acknowledgment acknowledgment) {
+		consume(consumer, new PidEvent(1, "2024-03-05 07:08:09", 1709622489, "2024-03-05 07:08:09", null, null, "PID",
+				parser.parse("{rpm=1500}")), offset, acknowledgment);
+	}
+
+	@Test
+	void retriesTransientRawWriteFailuresBeforeAcknowledging() throws Exception {
+		doThrow(new SQLException("Connection refused", "08001")).doThrow(new SQLException("Connection refused", "08001")).doNothing()
+				.when(pidRepository).saveRaw(anyList());
+		Acknowledgment acknowledgment = mock(Acknowledgment.class);
+		consume(0, acknowledgment);
+
+		verify(acknowledgment, timeout(5000)).acknowledge();
+		verify(pidRepository, times(3)).saveRaw(anyList());
+	}
+
+	@Test
+	void skipsRowsThatCanNeverBeWritten() throws Exception {
+		doThrow(new SQLException("invalid input syntax for type json", "22P02")).when(pidRepository).saveRaw(anyList());
+		Acknowledgment acknowledgment = mock(Acknowledgment.class);
+		consume(0, acknowledgment);
+
+		verify(acknowledgment, timeout(5000)).acknowledge();
+		verify(pidRepository, times(1)).saveRaw(anyList());
+	}
+
+	@Test
+	void leavesTheRecordUnacknowledgedWhenStoppedWhileRetrying() throws Exception {
+		doThrow(new SQLException("Connection refused", "08001")).when(pidRepository).saveRaw(anyList());
+		Acknowledgment acknowledgment = mock(Acknowledgment.class);
+		consume(0, acknowledgment);
+		verify(pidRepository, timeout(5000).atLeast(2)).saveRaw(anyList());
+
+		consumer.stop();
+		dispatcher.awaitIdle(5000);
+		verify(acknowledgment, never()).acknowledge();
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.navarchos.Navarchos;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Window checkpoint store kept in memory for tests; the next `failures` saves fail as if the database were down.
+ */
+class MemoryCheckpointStore implements WindowCheckpointStore {
+	final Map<Integer, WindowCheckpoint> checkpoints = new ConcurrentHashMap<>();
+	final AtomicInteger failures = new AtomicInteger();
+
+	@Override
+	public void save(List<WindowCheckpoint> saved) throws SQLException {
+		if (failures.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+			throw new SQLException("Connection refused");
+		}
+		saved.forEach(checkpoint -> checkpoints.put(checkpoint.deviceId(), checkpoint));
+	}
+
+	@Override
+	public List<WindowCheckpoint> loadPartitions(Collection<Integer> partitions) {
+		return checkpoints.values().stream().filter(checkpoint -> partitions.contains(checkpoint.partition())).toList();
+	}
+
+	@Override
+	public WindowCheckpoint load(int deviceId) {
+		return checkpoints.get(deviceId);
+	}
+}
@@ -2,8 +2,16 @@ package com.navarchos.Navarchos;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.test.context.EmbeddedKafka;
 
-@SpringBootTest
+/**
+ * Starts the whole application. The listener containers need a reachable broker to start, so the
+ * test brings up an embedded one; there is no database, so the assignment listener, the window
+ * checkpoints and the seeding of the device states, which would otherwise keep connecting in the
+ * background, are off.
+ */
+@SpringBootTest(properties = {"navarchos.assignments.listen=false", "navarchos.checkpoint.enabled=false", "navarchos.state.seed-days=0"})
+@EmbeddedKafka(topics = "PID", bootstrapServersProperty = "spring.kafka.bootstrap-servers")
 class NavarchosApplicationTests {
 
 	@Test
@@ -0,0 +1,138 @@
+package com.navarchos.Navarchos;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the DDL of {@link PartitionManager} against a real PostgreSQL, in a schema of its own that is dropped
+ * afterwards. Enabled by pointing it to a database, e.g.
+ * `mvn test -Dnavarchos.test.postgres-url=jdbc:postgresql://localhost:5432/navarchos -Dnavarchos.test.postgres-user=... -Dnavarchos.test.postgres-password=...`
+ */
+@EnabledIfSystemProperty(named = "navarchos.test.postgres-url", matches = ".+")
+class PartitionManagerPostgresTest {
+	// 2024-04-04; the legacy partitions end on 2024-04-06, the day after tomorrow
+	private static final LocalDate TODAY = LocalDate.of(2024, 4, 4);
+
+	private Connection conn;
+	private String schema;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		conn = DriverManager.getConnection(System.getProperty("navarchos.test.postgres-url"),
+				System.getProperty("navarchos.test.postgres-user"), System.getProperty("navarchos.test.postgres-password"));
+		schema = "navarchos_test_" + System.nanoTime();
+		try (Statement st = conn.createStatement()) {
+			st.execute("CREATE SCHEMA " + schema);
+			st.execute("SET search_path TO " + schema);
+		}
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		try (Statement st = conn.createStatement()) {
+			st.execute("DROP SCHEMA " + schema + " CASCADE");
+		} finally {
+			conn.close();
+		}
+	}
+
+	@Test
+	void partitionsAPlainTableInPlace() throws Exception {
+		execute("CREATE TABLE data_pids_er (id serial PRIMARY KEY, device_id int NOT NULL CHECK (device_id > 0), dt int, data jsonb)");
+		execute("INSERT INTO data_pids_er(device_id, dt, data) VALUES (1, 1709600400, '{}'), (2, 1709686800, '{}')");
+
+		PartitionManager manager = new PartitionManager();
+		manager.premakeDays = 2;
+		manager.maintain(conn, "data_pids_er", TODAY);
+		// Nothing left to convert or create
+		manager.maintain(conn, "data_pids_er", TODAY);
+
+		assertEquals("p", query("SELECT relkind::text FROM pg_class WHERE oid = 'data_pids_er'::regclass"));
+		assertEquals(List.of(
+				"data_pids_er_default DEFAULT",
+				"data_pids_er_legacy FOR VALUES FROM (MINVALUE) TO (1712361600)",
+				"data_pids_er_p20240406 FOR VALUES FROM (1712361600) TO (1712448000)"), partitions("data_pids_er"));
+		assertEquals("2", query("SELECT count(*) FROM data_pids_er"));
+		// The rows stay in place, and only the legacy partition keeps the primary key and the bound
+		assertEquals("2", query("SELECT count(*) FROM data_pids_er_legacy"));
+		assertEquals("data_pids_er_legacy_dt_bound,data_pids_er_pkey", query("SELECT string_agg(conname, ',' ORDER BY conname) FROM pg_constraint "
+				+ "WHERE conrelid = 'data_pids_er_legacy'::regclass AND contype IN ('p', 'c') AND conname NOT LIKE '%device_id%'"));
+		assertEquals("data_pids_er_dt_brin", query("SELECT indexrelid::regclass::text FROM pg_index WHERE indrelid = 'data_pids_er'::regclass"));
+
+		execute("INSERT INTO data_pids_er(device_id, dt, data) VALUES (3, 1712361660, '{}'), (4, 1735689600, '{}')");
+		assertEquals("data_pids_er_p20240406", query("SELECT tableoid::regclass::text FROM data_pids_er WHERE device_id = 3"));
+		assertEquals("data_pids_er_default", query("SELECT tableoid::regclass::text FROM data_pids_er WHERE device_id = 4"));
+		// Other CHECK constraints are copied to the partitioned table
+		assertThrows(SQLException.class, () -> execute("INSERT INTO data_pids_er(device_id, dt) VALUES (0, 1712361660)"));
+	}
+
+	@Test
+	void partitionsATimestampTableAndDropsExpiredPartitions() throws Exception {
+		execute("CREATE TABLE pids_pdm (id int NOT NULL, dt timestamp NOT NULL, alarm boolean, scores int[], thresholds int[], description text)");
+		execute("INSERT INTO pids_pdm(id, dt, alarm) VALUES (1, '2024-03-05 10:00:00', false)");
+
+		PartitionManager manager = new PartitionManager();
+		manager.premakeDays = 2;
+		manager.maintain(conn, "pids_pdm", TODAY);
+		assertEquals(List.of(
+				"pids_pdm_default DEFAULT",
+				"pids_pdm_legacy FOR VALUES FROM (MINVALUE) TO ('2024-04-06 00:00:00')",
+				"pids_pdm_p20240406 FOR VALUES FROM ('2024-04-06 00:00:00') TO ('2024-04-07 00:00:00')"), partitions("pids_pdm"));
+
+		manager.retentionDays = 1;
+		// Everything that ended on 2024-04-07 or before
+		manager.maintain(conn, "pids_pdm", TODAY.plusDays(4));
+		assertEquals(List.of(
+				"pids_pdm_default DEFAULT",
+				"pids_pdm_p20240408 FOR VALUES FROM ('2024-04-08 00:00:00') TO ('2024-04-09 00:00:00')",
+				"pids_pdm_p20240409 FOR VALUES FROM ('2024-04-09 00:00:00') TO ('2024-04-10 00:00:00')",
+				"pids_pdm_p20240410 FOR VALUES FROM ('2024-04-10 00:00:00') TO ('2024-04-11 00:00:00')"), partitions("pids_pdm"));
+		assertEquals("0", query("SELECT count(*) FROM pids_pdm"));
+	}
+
+	@Test
+	void leavesATableWithARowBeyondTheBoundAsItIs() throws Exception {
+		execute("CREATE TABLE data_pids_er (id serial PRIMARY KEY, device_id int NOT NULL, dt int, data jsonb)");
+		execute("INSERT INTO data_pids_er(device_id, dt) VALUES (1, 1709600400), (2, NULL)");
+
+		PartitionManager manager = new PartitionManager();
+		assertThrows(SQLException.class, () -> manager.maintain(conn, "data_pids_er", TODAY));
+
+		assertEquals("r", query("SELECT relkind::text FROM pg_class WHERE oid = 'data_pids_er'::regclass"));
+		assertEquals("0", query("SELECT count(*) FROM pg_constraint WHERE conname = 'data_pids_er_legacy_dt_bound'"));
+		assertEquals("2", query("SELECT count(*) FROM data_pids_er"));
+	}
+
+	private void execute(String sql) throws SQLException {
+		try (Statement st = conn.createStatement()) {
+			st.execute(sql);
+		}
+	}
+
+	private String query(String sql) throws SQLException {
+		try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+			return rs.next() ? rs.getString(1) : null;
+		}
+	}
+
+	private List<String> partitions(String table) throws SQLException {
+		List<String> partitions = new ArrayList<>();
+		String query = "SELECT c.relname || ' ' || pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i "
+				+ "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = '" + table + "'::regclass ORDER BY c.relname";
+		try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(query)) {
+			while (rs.next()) {
+				partitions.add(rs.getString(1));
+			}
+		}
+		return partitions;
+	}
+
+}
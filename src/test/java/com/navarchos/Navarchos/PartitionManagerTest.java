@@ -0,0 +1,146 @@
+package com.navarchos.Navarchos;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PartitionManagerTest {
+	private static final LocalDate DAY = LocalDate.of(2024, 3, 5);
+
+	@Test
+	void writesAndReadsBoundsOfBothKindsOfDt() {
+		assertEquals("1709596800", PartitionManager.DtKind.EPOCH.literal(DAY));
+		assertEquals("'2024-03-05 00:00:00'", PartitionManager.DtKind.TIMESTAMP.literal(DAY));
+		assertEquals(PartitionManager.DtKind.TIMESTAMP, PartitionManager.DtKind.of("timestamp without time zone"));
+		assertEquals(PartitionManager.DtKind.EPOCH, PartitionManager.DtKind.of("integer"));
+
+		assertEquals("CREATE TABLE IF NOT EXISTS data_pids_er_p20240305 PARTITION OF data_pids_er FOR VALUES FROM (1709596800) TO (1709683200)",
+				PartitionManager.createPartitionSql("data_pids_er", PartitionManager.DtKind.EPOCH, DAY, DAY.plusDays(1)));
+		assertEquals(DAY.plusDays(1), PartitionManager.upperBound("FOR VALUES FROM (1709596800) TO (1709683200)", PartitionManager.DtKind.EPOCH));
+		assertEquals(DAY, PartitionManager.upperBound("FOR VALUES FROM (MINVALUE) TO ('2024-03-05 00:00:00+00')", PartitionManager.DtKind.TIMESTAMP));
+		assertNull(PartitionManager.upperBound("DEFAULT", PartitionManager.DtKind.EPOCH));
+	}
+
+	@Test
+	void alignsPartitionsToTheEpoch() {
+		PartitionManager manager = new PartitionManager();
+		assertEquals(DAY, manager.partitionStart(DAY));
+		manager.partitionDays = 7;
+		// 1970-01-01 was a Thursday
+		assertEquals(LocalDate.of(2024, 2, 29), manager.partitionStart(DAY));
+		assertEquals(LocalDate.of(2024, 2, 29), manager.partitionStart(LocalDate.of(2024, 2, 29)));
+	}
+
+	@Test
+	void partitionsAPlainTableWithoutScanningItUnderTheLock() throws Exception {
+		Connection conn = mock(Connection.class);
+		Statement st = mock(Statement.class);
+		when(conn.createStatement()).thenReturn(st);
+		ResultSet latest = mock(ResultSet.class);
+		when(latest.next()).thenReturn(true);
+		when(latest.getString(1)).thenReturn("1709640000");
+		when(st.executeQuery(anyString())).thenReturn(latest);
+		stubQuery(conn, "relkind", new String[][]{{"r"}});
+		stubQuery(conn, "information_schema", new String[][]{{"integer"}});
+		stubQuery(conn, "pg_constraint", new String[][]{{"data_pids_er_pkey PRIMARY KEY (id)"}});
+		stubQuery(conn, "pg_inherits", new String[][]{
+				{"data_pids_er_legacy", "FOR VALUES FROM (MINVALUE) TO (1712361600)"},
+				{"data_pids_er_default", "DEFAULT"}});
+
+		PartitionManager manager = new PartitionManager();
+		manager.premakeDays = 2;
+		manager.maintain(conn, "data_pids_er", DAY.plusDays(30));
+
+		ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+		verify(st, atLeastOnce()).execute(sql.capture());
+		assertEquals(List.of(
+				// Past tomorrow, 2024-04-05, as the latest row is older
+				"ALTER TABLE data_pids_er ADD CONSTRAINT data_pids_er_legacy_dt_bound CHECK (dt IS NOT NULL AND dt < 1712361600) NOT VALID",
+				"ALTER TABLE data_pids_er VALIDATE CONSTRAINT data_pids_er_legacy_dt_bound",
+				"LOCK TABLE data_pids_er IN ACCESS EXCLUSIVE MODE",
+				"ALTER TABLE data_pids_er RENAME TO data_pids_er_legacy",
+				"CREATE TABLE data_pids_er (LIKE data_pids_er_legacy INCLUDING DEFAULTS INCLUDING CONSTRAINTS) PARTITION BY RANGE (dt)",
+				"ALTER TABLE data_pids_er DROP CONSTRAINT data_pids_er_legacy_dt_bound",
+				"ALTER TABLE data_pids_er ATTACH PARTITION data_pids_er_legacy FOR VALUES FROM (MINVALUE) TO (1712361600)",
+				"CREATE INDEX IF NOT EXISTS data_pids_er_dt_brin ON data_pids_er USING brin (dt) WITH (pages_per_range = 32)",
+				"CREATE TABLE IF NOT EXISTS data_pids_er_default PARTITION OF data_pids_er DEFAULT",
+				// From the end of the legacy partition, not from today
+				"CREATE TABLE IF NOT EXISTS data_pids_er_p20240406 PARTITION OF data_pids_er FOR VALUES FROM (1712361600) TO (1712448000)"),
+				sql.getAllValues());
+		// Validated before the transaction taking the lock begins
+		InOrder order = inOrder(st, conn);
+		order.verify(st).execute(startsWith("ALTER TABLE data_pids_er VALIDATE"));
+		order.verify(conn).setAutoCommit(false);
+		order.verify(st).execute(startsWith("LOCK TABLE"));
+		order.verify(conn).commit();
+		verify(conn, times(1)).commit();
+	}
+
+	@Test
+	void dropsTheBoundWhenARowIsBeyondIt() throws Exception {
+		Connection conn = mock(Connection.class);
+		Statement st = mock(Statement.class);
+		when(conn.createStatement()).thenReturn(st);
+		ResultSet latest = mock(ResultSet.class);
+		when(latest.next()).thenReturn(true);
+		when(latest.getString(1)).thenReturn("1709640000");
+		when(st.executeQuery(anyString())).thenReturn(latest);
+		when(st.execute(startsWith("ALTER TABLE data_pids_er VALIDATE"))).thenThrow(new SQLException("check constraint is violated by some row"));
+		stubQuery(conn, "relkind", new String[][]{{"r"}});
+		stubQuery(conn, "information_schema", new String[][]{{"integer"}});
+
+		PartitionManager manager = new PartitionManager();
+		assertThrows(SQLException.class, () -> manager.maintain(conn, "data_pids_er", DAY.plusDays(30)));
+		verify(st).execute("ALTER TABLE data_pids_er DROP CONSTRAINT data_pids_er_legacy_dt_bound");
+		verify(st, never()).execute(startsWith("LOCK TABLE"));
+		verify(conn, never()).setAutoCommit(false);
+	}
+
+	@Test
+	void dropsExpiredPartitions() throws Exception {
+		Connection conn = mock(Connection.class);
+		Statement st = mock(Statement.class);
+		when(conn.createStatement()).thenReturn(st);
+		stubQuery(conn, "relkind", new String[][]{{"p"}});
+		stubQuery(conn, "information_schema", new String[][]{{"integer"}});
+		stubQuery(conn, "pg_inherits", new String[][]{
+				{"data_pids_er_legacy", "FOR VALUES FROM (MINVALUE) TO (1709596800)"},
+				{"data_pids_er_p20240305", "FOR VALUES FROM (1709596800) TO (1709683200)"},
+				{"data_pids_er_default", "DEFAULT"}});
+
+		PartitionManager manager = new PartitionManager();
+		manager.premakeDays = 2;
+		manager.retentionDays = 30;
+		manager.maintain(conn, "data_pids_er", DAY.plusDays(30));
+
+		ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+		verify(st, atLeastOnce()).execute(sql.capture());
+		assertEquals(List.of(
+				"CREATE INDEX IF NOT EXISTS data_pids_er_dt_brin ON data_pids_er USING brin (dt) WITH (pages_per_range = 32)",
+				"CREATE TABLE IF NOT EXISTS data_pids_er_default PARTITION OF data_pids_er DEFAULT",
+				"CREATE TABLE IF NOT EXISTS data_pids_er_p20240404 PARTITION OF data_pids_er FOR VALUES FROM (1712188800) TO (1712275200)",
+				"CREATE TABLE IF NOT EXISTS data_pids_er_p20240405 PARTITION OF data_pids_er FOR VALUES FROM (1712275200) TO (1712361600)",
+				"CREATE TABLE IF NOT EXISTS data_pids_er_p20240406 PARTITION OF data_pids_er FOR VALUES FROM (1712361600) TO (1712448000)",
+				// Ended on 2024-03-05, 30 days before; the partition of 2024-03-05 is still kept
+				"ALTER TABLE data_pids_er DETACH PARTITION data_pids_er_legacy",
+				"DROP TABLE data_pids_er_legacy"), sql.getAllValues());
+		verify(conn, times(1)).commit();
+	}
+
+	private static void stubQuery(Connection conn, String marker, String[][] rows) throws SQLException {
+		PreparedStatement preparedStatement = mock(PreparedStatement.class);
+		ResultSet rs = mock(ResultSet.class);
+		when(conn.prepareStatement(contains(marker))).thenReturn(preparedStatement);
+		when(preparedStatement.executeQuery()).thenReturn(rs);
+		int[] row = {-1};
+		when(rs.next()).thenAnswer(invocation -> ++row[0] < rows.length);
+		when(rs.getString(anyInt())).thenAnswer(invocation -> rows[row[0]][(int) invocation.getArgument(0) - 1]);
+	}
+
+}
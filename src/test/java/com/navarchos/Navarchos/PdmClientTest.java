@@ -0,0 +1,83 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PdmClientTest {
+	private StubPdmServer server;
+	private PdmClient client;
+	private KafkaTemplate<String, String> kafkaTemplate;
+	private ResultSink resultSink;
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setUp() throws Exception {
+		server = new StubPdmServer(false);
+		kafkaTemplate = mock(KafkaTemplate.class);
+		resultSink = mock(ResultSink.class);
+		client = new PdmClient();
+		ReflectionTestUtils.setField(client, "resultSink", resultSink);
+		ReflectionTestUtils.setField(client, "objectMapper", new ObjectMapper());
+		ReflectionTestUtils.setField(client, "kafkaTemplate", kafkaTemplate);
+		ReflectionTestUtils.setField(client, "metrics", new PipelineMetrics(new SimpleMeterRegistry()));
+		client.url = server.url();
+		client.maxRetries = 2;
+		client.retryBackoff = 10;
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		client.stop();
+		server.close();
+	}
+
+	@Test
+	void retriesServerErrorsAndDeadLettersTheLastFailure() throws Exception {
+		client.start();
+		server.failures.set(1);
+		ResponseBody responseBody = client.score("2024-01-01 10:00:00", new double[]{1, 0}, 7).get(5, TimeUnit.SECONDS);
+		assertTrue(responseBody.isAlarm());
+		assertEquals(2, server.singleRequests.get());
+		verify(resultSink).responses(List.of(responseBody));
+		verifyNoInteractions(kafkaTemplate);
+
+		server.failures.set(3);
+		assertNull(client.score("2024-01-01 10:00:00", new double[]{1, 0}, 7).get(5, TimeUnit.SECONDS));
+		// The first attempt and both retries
+		assertEquals(5, server.singleRequests.get());
+		verify(kafkaTemplate).send(eq("PID-pdm-dlt"), eq("7"), contains("HTTP 503"));
+	}
+
+	@Test
+	void queuesRequestsBeyondTheInFlightBoundWithoutBlocking() throws Exception {
+		client.maxInFlight = 1;
+		client.maxQueued = 1;
+		client.start();
+		server.delayMs = 200;
+		long started = System.nanoTime();
+		CompletableFuture<ResponseBody> first = client.score("2024-01-01 10:00:00", new double[]{1, 0}, 1);
+		CompletableFuture<ResponseBody> queued = client.score("2024-01-01 10:00:00", new double[]{1, 0}, 2);
+		CompletableFuture<ResponseBody> rejected = client.score("2024-01-01 10:00:00", new double[]{1, 0}, 3);
+		assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(200));
+		assertEquals(1, client.queued());
+
+		assertNull(rejected.get(5, TimeUnit.SECONDS));
+		verify(kafkaTemplate).send(eq("PID-pdm-dlt"), eq("3"), contains("too many requests queued"));
+		assertEquals("1", first.get(5, TimeUnit.SECONDS).getSource());
+		assertEquals("2", queued.get(5, TimeUnit.SECONDS).getSource());
+		assertEquals(2, server.singleRequests.get());
+	}
+
+}
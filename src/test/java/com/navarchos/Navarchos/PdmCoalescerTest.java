@@ -0,0 +1,105 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PdmCoalescerTest {
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private PreparedStatement preparedStatement;
+	private StubPdmServer server;
+	private PdmClient client;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		DataSource dataSource = mock(DataSource.class);
+		Connection conn = mock(Connection.class);
+		preparedStatement = mock(PreparedStatement.class);
+		when(dataSource.getConnection()).thenReturn(conn);
+		when(conn.prepareStatement(anyString())).thenReturn(preparedStatement);
+		PipelineMetrics metrics = new PipelineMetrics(new SimpleMeterRegistry());
+		ResultSink resultSink = new ResultSink();
+		resultSink.writeBehind = false;
+		JdbcPidRepository repository = new JdbcPidRepository();
+		ReflectionTestUtils.setField(repository, "dataSource", dataSource);
+		ReflectionTestUtils.setField(resultSink, "pidRepository", repository);
+		ReflectionTestUtils.setField(resultSink, "metrics", metrics);
+		client = new PdmClient();
+		ReflectionTestUtils.setField(client, "resultSink", resultSink);
+		ReflectionTestUtils.setField(client, "objectMapper", objectMapper);
+		ReflectionTestUtils.setField(client, "kafkaTemplate", mock(KafkaTemplate.class));
+		ReflectionTestUtils.setField(client, "metrics", metrics);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		client.stop();
+		server.close();
+	}
+
+	private PdmCoalescer coalescer(boolean bulkSupported) throws Exception {
+		server = new StubPdmServer(bulkSupported);
+		client.url = server.url();
+		client.start();
+		PdmCoalescer coalescer = new PdmCoalescer();
+		ReflectionTestUtils.setField(coalescer, "pdmClient", client);
+		ReflectionTestUtils.setField(coalescer, "objectMapper", objectMapper);
+		coalescer.bulkEnabled = true;
+		coalescer.maxBatch = 3;
+		coalescer.lingerMs = 1000;
+		coalescer.start();
+		return coalescer;
+	}
+
+	private static List<CompletableFuture<ResponseBody>> scoreDevices(PdmCoalescer coalescer, int devices) {
+		List<CompletableFuture<ResponseBody>> results = new ArrayList<>();
+		for (int device = 1; device <= devices; device++) {
+			results.add(coalescer.score("2024-01-01 10:00:00", new double[]{device / 4.0, 0}, device));
+		}
+		return results;
+	}
+
+	@Test
+	void vectorsOfManyDevicesAreSentAsOneBulkRequest() throws Exception {
+		PdmCoalescer coalescer = coalescer(true);
+		List<CompletableFuture<ResponseBody>> results = scoreDevices(coalescer, 3);
+		for (int device = 1; device <= 3; device++) {
+			ResponseBody responseBody = results.get(device - 1).get(5, TimeUnit.SECONDS);
+			assertEquals(String.valueOf(device), responseBody.getSource());
+			assertEquals(device > 2, responseBody.isAlarm());
+		}
+		assertEquals(1, server.bulkRequests.get());
+		assertEquals(0, server.singleRequests.get());
+		verify(preparedStatement, times(3)).addBatch();
+		verify(preparedStatement, times(1)).executeBatch();
+		coalescer.stop();
+	}
+
+	@Test
+	void fallsBackToSingleRequestsWithoutBulkEndpoint() throws Exception {
+		PdmCoalescer coalescer = coalescer(false);
+		for (CompletableFuture<ResponseBody> result : scoreDevices(coalescer, 3)) {
+			assertNotNull(result.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(3, server.singleRequests.get());
+		assertNotNull(coalescer.score("2024-01-01 10:00:00", new double[]{1, 0}, 4).get(5, TimeUnit.SECONDS));
+		assertEquals(4, server.singleRequests.get());
+		coalescer.stop();
+	}
+
+}
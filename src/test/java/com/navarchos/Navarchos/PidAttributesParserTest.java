@@ -0,0 +1,84 @@
+package com.navarchos.Navarchos;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PidAttributesParserTest {
+	private final PidAttributesParser parser = new PidAttributesParser(WindowEngine.PIDS);
+
+	@Test
+	void parsesTraccarMapFormat() throws Exception {
+		PidAttributes attributes = parser.parse("{rpm=1500, obdSpeed=42, mapIntake=101, intakeTemp=35, coolantTemp=88, "
+				+ "MAFairFlowRate=12.5, dtcs=[1,2,3], vin=WVW123, status={a=1}, fuel=-3.25}");
+		assertTrue(attributes.hasAll());
+		assertArrayEquals(new double[]{101, 88, 12.5, 42, 35, 1500}, attributes.values());
+
+		JSONObject json = new JSONObject(attributes.json());
+		assertEquals(1500, json.getInt("rpm"));
+		assertEquals(12.5, json.getDouble("MAFairFlowRate"));
+		assertEquals(-3.25, json.getDouble("fuel"));
+		assertEquals(3, ((JSONArray) json.get("dtcs")).length());
+		assertEquals("WVW123", json.getString("vin"));
+		assertEquals("{a=1}", json.getString("status"));
+	}
+
+	@Test
+	void truncatesTheIntegerPidsAsBefore() throws Exception {
+		PidAttributes attributes = parser.parse("{rpm=1500.9, obdSpeed=20.5, mapIntake=101, intakeTemp=-3.7, coolantTemp=88, MAFairFlowRate=12.5}");
+		assertArrayEquals(new double[]{101, 88, 12.5, 20, -3, 1500}, attributes.values());
+		assertEquals(20.5, new JSONObject(attributes.json()).getDouble("obdSpeed"));
+		// Not above the minimum speed of 20 once truncated
+		assertEquals(PipelineMetrics.Filter.OBD_SPEED, new SampleGate().check(attributes, KafkaConsumerNavarchos.gateIndices(PidSet.DEFAULT)));
+	}
+
+	@Test
+	void matchesLegacyRegexTransformation() throws Exception {
+		String attributes = "{rpm=1500, obdSpeed=42, mapIntake=101, MAFairFlowRate=12.5, dtcs=[1,2,3], engine=true}";
+		String legacy = attributes
+				.replaceAll("(\\w+)=(\\w+|\\{[^}]*\\}|\\[[^\\]]*\\])", "\"$1\":\"$2\"")
+				.replaceAll(":\"(\\d+(\\.\\d+)*)\"", ":$1")
+				.replaceAll(":\"\\[([\\d,]+)\\]\"", ":[$1]");
+		assertEquals(legacy.replace(" ", ""), parser.parse(attributes).json());
+	}
+
+	@Test
+	void reportsMissingAndNonNumericPids() {
+		PidAttributes attributes = parser.parse("{rpm=1500, obdSpeed=n/a, coolantTemp=null}");
+		assertFalse(attributes.hasAll());
+		assertTrue(attributes.has(5));
+		assertFalse(attributes.has(3));
+		assertTrue(Double.isNaN(attributes.get(1)));
+		assertEquals("{\"rpm\":1500,\"obdSpeed\":\"n/a\",\"coolantTemp\":null}", attributes.json());
+	}
+
+	@Test
+	void acceptsJsonObjects() {
+		PidAttributes attributes = parser.parse("{\"rpm\":1500,\"obdSpeed\":\"42\",\"tags\":{\"a\":[1]}}");
+		assertEquals("{\"rpm\":1500,\"obdSpeed\":\"42\",\"tags\":{\"a\":[1]}}", attributes.json());
+		assertEquals(42, attributes.get(3));
+	}
+
+	@Test
+	void buildsTheJsonOnlyWhenAskedFor() {
+		AtomicInteger conversions = new AtomicInteger();
+		PidAttributesParser counting = new PidAttributesParser(WindowEngine.PIDS) {
+			@Override
+			String toJson(String attributes) {
+				conversions.incrementAndGet();
+				return super.toJson(attributes);
+			}
+		};
+		PidAttributes attributes = counting.parse("{rpm=1500, obdSpeed=42}");
+		assertEquals(1500, attributes.get(5));
+		assertEquals(0, conversions.get());
+
+		assertEquals("{\"rpm\":1500,\"obdSpeed\":42}", attributes.json());
+		assertSame(attributes.json(), attributes.json());
+		assertEquals(1, conversions.get());
+	}
+
+}
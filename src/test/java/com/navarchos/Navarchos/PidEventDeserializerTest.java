@@ -0,0 +1,57 @@
+package com.navarchos.Navarchos;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PidEventDeserializerTest {
+	private final PidEventDeserializer deserializer = new PidEventDeserializer();
+
+	private PidEvent decode(String message) {
+		return deserializer.deserialize("PID", message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void decodesTraccarMessage() {
+		PidEvent event = decode("{\"id\":7,\"deviceId\":42,\"deviceTime\":\"2024-03-05 07:08:09\",\"dt\":\"2024-03-05 07:08:10\","
+				+ "\"latitude\":37.98,\"longitude\":null,\"topic\":\"PID\",\"extra\":{\"a\":[1,2]},"
+				+ "\"PIDAttributes\":\"{rpm=1500, obdSpeed=42, mapIntake=101, intakeTemp=35, coolantTemp=88, MAFairFlowRate=12.5}\"}");
+		assertEquals(42, event.deviceId());
+		assertEquals("2024-03-05 07:08:09", event.deviceTime());
+		assertEquals(1709622489, event.deviceTimestamp());
+		assertEquals("2024-03-05 07:08:10", event.dt());
+		assertEquals(37.98, event.latitude());
+		assertNull(event.longitude());
+		assertEquals("PID", event.topic());
+		assertTrue(event.attributes().hasAll());
+		assertEquals(1500, event.attributes().get(5));
+	}
+
+	@Test
+	void acceptsAttributesAsJsonObject() {
+		PidEvent event = decode("{\"deviceId\":1,\"deviceTime\":\"2024-03-05 07:08:09\",\"topic\":\"PID\",\"PIDAttributes\":{\"rpm\":900}}");
+		assertEquals("{\"rpm\":900}", event.attributes().json());
+	}
+
+	@Test
+	void rejectsMessagesWithoutDevice() {
+		assertThrows(SerializationException.class, () -> decode("{\"deviceTime\":\"2024-03-05 07:08:09\",\"topic\":\"PID\"}"));
+		assertThrows(SerializationException.class, () -> decode("not json"));
+	}
+
+	@Test
+	void deviceTimeMatchesSimpleDateFormat() throws Exception {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		for (String time : new String[]{"1970-01-01 00:00:00", "2000-02-29 23:59:59", "2024-12-31 12:00:01", "2038-01-19 03:14:07"}) {
+			assertEquals(dateFormat.parse(time).getTime() / 1000, DeviceTimeParser.toUnixTimestamp(time), time);
+		}
+		assertEquals(dateFormat.parse("2024-03-05 07:08:09").getTime() / 1000, DeviceTimeParser.toUnixTimestamp("2024-3-5 7:8:9"));
+		assertEquals(0, DeviceTimeParser.toUnixTimestamp("yesterday"));
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.navarchos.Navarchos;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PipelineMetricsTest {
+	private final PidAttributesParser parser = new PidAttributesParser(WindowEngine.PIDS);
+	private final int[] gate = KafkaConsumerNavarchos.gateIndices(PidSet.DEFAULT);
+	private final SampleGate sampleGate = new SampleGate();
+
+	private static PidEvent event(PidAttributes attributes) {
+		return new PidEvent(1, "2024-03-05 07:08:09", 1709622489, "2024-03-05 07:08:09", null, null, "PID", attributes);
+	}
+
+	@Test
+	void reportsTheFirstFailedCondition() {
+		assertEquals(PipelineMetrics.Filter.NO_ATTRIBUTES, sampleGate.check(null, gate));
+		assertEquals(PipelineMetrics.Filter.MISSING_PID, sampleGate.check(parser.parse("{rpm=1500}"), gate));
+		assertEquals(PipelineMetrics.Filter.OBD_SPEED, sampleGate.check(parser.parse(
+				"{rpm=0, obdSpeed=10, mapIntake=101, intakeTemp=35, coolantTemp=88, MAFairFlowRate=12.5}"), gate));
+		assertEquals(PipelineMetrics.Filter.COOLANT_TEMP, sampleGate.check(parser.parse(
+				"{rpm=1500, obdSpeed=42, mapIntake=101, intakeTemp=35, coolantTemp=250, MAFairFlowRate=12.5}"), gate));
+		assertNull(sampleGate.check(parser.parse(
+				"{rpm=1500, obdSpeed=42, mapIntake=101, intakeTemp=35, coolantTemp=88, MAFairFlowRate=12.5}"), gate));
+	}
+
+	@Test
+	void countsFilteredSamplesAndTimesTheWindow() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		KafkaConsumerNavarchos consumer = new KafkaConsumerNavarchos();
+		ReflectionTestUtils.setField(consumer, "metrics", new PipelineMetrics(registry));
+		ReflectionTestUtils.setField(consumer, "windowEngine", new WindowEngine());
+		ReflectionTestUtils.setField(consumer, "pdmClient", mock(PdmClient.class));
+		ReflectionTestUtils.setField(consumer, "sampleGate", sampleGate);
+		DeviceAssignmentCache assignmentCache = mock(DeviceAssignmentCache.class);
+		when(assignmentCache.get(anyInt())).thenReturn(new int[]{-1, -1, -1});
+		ReflectionTestUtils.setField(consumer, "assignmentCache", assignmentCache);
+		ReflectionTestUtils.setField(consumer, "pidRepository", mock(PidRepository.class));
+		ReflectionTestUtils.setField(consumer, "rawPidBuffer", new RawPidBuffer());
+		DeviceDispatcher dispatcher = new DeviceDispatcher();
+		dispatcher.threads = 1;
+		dispatcher.start();
+		ReflectionTestUtils.setField(consumer, "dispatcher", dispatcher);
+		Acknowledgment acknowledgment = mock(Acknowledgment.class);
+
+		KafkaConsumerNavarchosTest.consume(consumer, event(parser.parse("{rpm=1500, obdSpeed=5}")), 0, acknowledgment);
+		KafkaConsumerNavarchosTest.consume(consumer, event(parser.parse(
+				"{rpm=1500, obdSpeed=42, mapIntake=80, intakeTemp=35, coolantTemp=88, MAFairFlowRate=12.5}")), 1, acknowledgment);
+		KafkaConsumerNavarchosTest.consume(consumer, event(parser.parse(
+				"{rpm=1500, obdSpeed=42, mapIntake=101, intakeTemp=35, coolantTemp=88, MAFairFlowRate=12.5}")), 2, acknowledgment);
+		verify(acknowledgment, timeout(5000).times(3)).acknowledge();
+		dispatcher.stop();
+
+		assertEquals(1, registry.get(PipelineMetrics.FILTERED_COUNTER).tag("reason", "missing_pid").counter().count());
+		assertEquals(1, registry.get(PipelineMetrics.FILTERED_COUNTER).tag("reason", "map_intake").counter().count());
+		assertEquals(0, registry.get(PipelineMetrics.FILTERED_COUNTER).tag("reason", "rpm").counter().count());
+		assertEquals(1, registry.get(PipelineMetrics.STAGE_TIMER).tag("stage", "window").timer().count());
+		assertEquals(0, registry.get(PipelineMetrics.STAGE_TIMER).tag("stage", "correlation").timer().count());
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.navarchos.Navarchos;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RawPidBufferTest {
+
+	@Test
+	void keepsFailedRowsUntilTheyAreWritten() throws Exception {
+		PidRepository pidRepository = mock(PidRepository.class);
+		doThrow(new SQLException("Connection refused")).doNothing().when(pidRepository).saveRaw(anyList());
+		DeviceAssignmentCache assignmentCache = mock(DeviceAssignmentCache.class);
+		when(assignmentCache.get(anyInt())).thenReturn(new int[]{-1, -1, -1});
+		RawPidBuffer buffer = new RawPidBuffer();
+		ReflectionTestUtils.setField(buffer, "pidRepository", pidRepository);
+		ReflectionTestUtils.setField(buffer, "assignmentCache", assignmentCache);
+		ReflectionTestUtils.setField(buffer, "metrics", new PipelineMetrics(new SimpleMeterRegistry()));
+		buffer.retryMs = 60000;
+
+		CompletableFuture<Void> stored = buffer.append(new PidEvent(1, "2024-03-05 07:08:09", 1709622489, "2024-03-05 07:08:09", null, null, "PID", null));
+		buffer.flush();
+		assertFalse(stored.isDone());
+		// Still backing off
+		buffer.flush();
+		verify(pidRepository, times(1)).saveRaw(anyList());
+
+		buffer.stop();
+		assertTrue(stored.isDone());
+		assertFalse(stored.isCompletedExceptionally());
+		verify(pidRepository, times(2)).saveRaw(anyList());
+	}
+
+}
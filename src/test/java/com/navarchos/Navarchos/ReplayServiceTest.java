@@ -0,0 +1,123 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ReplayServiceTest {
+	private static final int START = 1709622489;
+
+	private static String row(int i) {
+		// Every seventh sample is below the speed threshold
+		int obdSpeed = i % 7 == 0 ? 10 : 40 + i % 13;
+		return "{\"rpm\": " + (1500 + 37 * (i % 11)) + ", \"obdSpeed\": " + obdSpeed + ", \"mapIntake\": " + (100 + i % 5)
+				+ ", \"intakeTemp\": " + (30 + i % 3) + ", \"coolantTemp\": " + (85 + i % 4) + ", \"MAFairFlowRate\": " + (12.5 + i % 9) + "}";
+	}
+
+	@Test
+	void appliesTheLiveConditionsAndWindowing() {
+		ReplayService.DeviceReplay replay = new ReplayService.DeviceReplay(7, new DeviceWindow(PidSet.DEFAULT, 20, 5), START - 1, PidSet.DEFAULT, new SampleGate());
+		DeviceWindow live = new DeviceWindow(PidSet.DEFAULT, 20, 5);
+		PidAttributesParser parser = new PidAttributesParser(WindowEngine.PIDS);
+		int[] gate = KafkaConsumerNavarchos.gateIndices(PidSet.DEFAULT);
+		List<double[]> expected = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			replay.apply(START + i, row(i));
+			PidAttributes attributes = parser.parse(row(i));
+			if (new SampleGate().check(attributes, gate) == null && live.add(attributes.values())) {
+				expected.add(live.correlations());
+			}
+		}
+		replay.apply(START + 100, null);
+
+		assertEquals(101, replay.samples());
+		assertEquals(16, replay.filtered());
+		assertEquals(START + 100, replay.lastDt());
+		assertEquals("2024-03-05 07:08:10", replay.resetDt());
+		assertEquals(expected.size(), replay.pending().size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals(expected.get(i), replay.pending().get(i).values(), 1e-12);
+		}
+	}
+
+	@Test
+	void resumesFromTheCommittedWindow() {
+		ReplayService.DeviceReplay uninterrupted = new ReplayService.DeviceReplay(7, new DeviceWindow(PidSet.DEFAULT, 20, 5), START - 1, PidSet.DEFAULT, new SampleGate());
+		ReplayService.DeviceReplay first = new ReplayService.DeviceReplay(7, new DeviceWindow(PidSet.DEFAULT, 20, 5), START - 1, PidSet.DEFAULT, new SampleGate());
+		for (int i = 0; i < 60; i++) {
+			uninterrupted.apply(START + i, row(i));
+			first.apply(START + i, row(i));
+		}
+		first.committed();
+		ReplayService.DeviceReplay resumed = new ReplayService.DeviceReplay(7, DeviceWindow.fromBytes(first.window().toBytes()),
+				first.lastDt(), PidSet.DEFAULT, new SampleGate());
+		int committed = uninterrupted.pending().size();
+		for (int i = 60; i < 150; i++) {
+			uninterrupted.apply(START + i, row(i));
+			resumed.apply(START + i, row(i));
+		}
+
+		assertNull(resumed.resetDt());
+		assertEquals(uninterrupted.pending().size() - committed, resumed.pending().size());
+		for (int i = 0; i < resumed.pending().size(); i++) {
+			ReplayService.ReplayCorrelation expected = uninterrupted.pending().get(committed + i);
+			assertEquals(expected.dt(), resumed.pending().get(i).dt());
+			assertArrayEquals(expected.values(), resumed.pending().get(i).values(), 1e-12);
+		}
+	}
+
+	@Test
+	void commitsThePdmScoresWithTheCorrelationsUnderASourceOfItsOwn() throws Exception {
+		PdmClient pdmClient = mock(PdmClient.class);
+		ResponseBody responseBody = new ObjectMapper().readValue("{\"alarm\":true,\"source\":\"replay-r1-7\","
+				+ "\"timestamp\":\"2024-03-05 07:08:29\",\"scores\":[1],\"thresholds\":[\"0.5\"]}", ResponseBody.class);
+		when(pdmClient.reset(anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(true));
+		when(pdmClient.score(anyString(), any(double[].class), anyString(), eq(false)))
+				.thenReturn(CompletableFuture.completedFuture(responseBody), CompletableFuture.completedFuture(null));
+		ReplayService replayService = new ReplayService();
+		ReflectionTestUtils.setField(replayService, "pdmClient", pdmClient);
+		Connection write = mock(Connection.class);
+		PreparedStatement correlationStmt = mock(PreparedStatement.class);
+		PreparedStatement pdmStmt = mock(PreparedStatement.class);
+		PreparedStatement progressStmt = mock(PreparedStatement.class);
+		when(write.prepareStatement(startsWith("INSERT INTO pids_correlation"))).thenReturn(correlationStmt);
+		when(write.prepareStatement(startsWith("INSERT INTO pids_pdm"))).thenReturn(pdmStmt);
+		when(write.prepareStatement(startsWith("INSERT INTO pids_replay_progress"))).thenReturn(progressStmt);
+
+		ReplayService.ReplayRun run = new ReplayService.ReplayRun("r1", START, START + 100, 1);
+		ReplayService.DeviceReplay replay = new ReplayService.DeviceReplay(7, new DeviceWindow(PidSet.DEFAULT, 20, 5), START - 1, PidSet.DEFAULT, new SampleGate());
+		for (int i = 0; i < 40; i++) {
+			replay.apply(START + i, row(i));
+		}
+		int correlations = replay.pending().size();
+		assertTrue(correlations > 1);
+		ReflectionTestUtils.invokeMethod(replayService, "commit", write, run, replay, false);
+
+		verify(pdmClient).reset("2024-03-05 07:08:10", "replay-r1-7");
+		verify(pdmClient, times(correlations)).score(anyString(), any(double[].class), eq("replay-r1-7"), eq(false));
+		verify(pdmClient, never()).score(anyString(), any(double[].class), anyInt());
+		verify(pdmClient, never()).reset(anyString(), anyInt());
+		// Only the scored response is written, under the ID of the device, before the one commit
+		verify(pdmStmt).setInt(1, 7);
+		verify(pdmStmt, times(1)).addBatch();
+		InOrder order = inOrder(correlationStmt, pdmStmt, progressStmt, write);
+		order.verify(correlationStmt).executeBatch();
+		order.verify(pdmStmt).executeBatch();
+		order.verify(progressStmt).execute();
+		order.verify(write).commit();
+		verify(write, never()).rollback();
+		assertEquals((long) correlations, run.status().get("correlations"));
+		assertTrue(replay.pending().isEmpty());
+	}
+
+}
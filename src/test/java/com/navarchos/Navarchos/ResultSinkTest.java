@@ -0,0 +1,153 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ResultSinkTest {
+	private DataSource dataSource;
+	private PreparedStatement correlations;
+	private ResultSink sink;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		dataSource = mock(DataSource.class);
+		Connection conn = mock(Connection.class);
+		correlations = mock(PreparedStatement.class);
+		when(dataSource.getConnection()).thenReturn(conn);
+		when(conn.prepareStatement(startsWith("INSERT INTO pids_correlation"))).thenReturn(correlations);
+		when(conn.prepareStatement(startsWith("INSERT INTO pids_pdm"))).thenReturn(mock(PreparedStatement.class));
+		sink = new ResultSink();
+		JdbcPidRepository repository = new JdbcPidRepository();
+		ReflectionTestUtils.setField(repository, "dataSource", dataSource);
+		ReflectionTestUtils.setField(sink, "pidRepository", repository);
+		ReflectionTestUtils.setField(sink, "metrics", new PipelineMetrics(new SimpleMeterRegistry()));
+	}
+
+	@Test
+	void formatsArrayLiterals() {
+		assertEquals("{0.5,-1.0E-4,NaN}", JdbcPidRepository.arrayLiteral(new double[]{0.5, -1e-4, Double.NaN}));
+		assertEquals("{1,20,300}", JdbcPidRepository.arrayLiteral(List.of(" 1", "20", "300 ")));
+		assertNull(JdbcPidRepository.arrayLiteral((List<?>) null));
+	}
+
+	@Test
+	void queuedResultsAreWrittenInBatchesAndFlushedOnStop() throws Exception {
+		// Hold the writer on its first connection so the following results pile up
+		CountDownLatch release = new CountDownLatch(1);
+		Connection conn = dataSource.getConnection();
+		when(dataSource.getConnection()).thenAnswer(invocation -> {
+			release.await(5, TimeUnit.SECONDS);
+			return conn;
+		});
+		sink.start();
+		for (int i = 0; i < 10; i++) {
+			sink.correlation(1, "2024-03-05 07:08:09", new double[]{i / 10.0});
+		}
+		release.countDown();
+		sink.stop();
+
+		verify(correlations, times(10)).addBatch();
+		verify(correlations, atMost(2)).executeBatch();
+		verify(correlations).setString(3, "{0.9}");
+		assertEquals(0, sink.pending());
+	}
+
+	@Test
+	void callersWaitWhileTheQueueIsFull() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		Connection conn = dataSource.getConnection();
+		when(dataSource.getConnection()).thenAnswer(invocation -> {
+			release.await(5, TimeUnit.SECONDS);
+			return conn;
+		});
+		sink.queueCapacity = 2;
+		sink.start();
+		CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+			for (int i = 0; i < 5; i++) {
+				sink.correlation(1, "2024-03-05 07:08:09", new double[]{i});
+			}
+		});
+		// One result is taken by the blocked writer, two fill the queue and the producer waits for room
+		Thread.sleep(300);
+		assertFalse(producer.isDone());
+		assertEquals(2, sink.pending());
+		release.countDown();
+		producer.get(5, TimeUnit.SECONDS);
+		sink.stop();
+		verify(correlations, times(5)).addBatch();
+	}
+
+	@Test
+	void failedBatchesAreRetriedWhileTheQueueWaits() throws Exception {
+		PidRepository repository = mock(PidRepository.class);
+		doThrow(new SQLException("Connection refused", "08001")).doThrow(new SQLException("Connection refused", "08001")).doNothing()
+				.when(repository).saveResults(anyList(), anyList());
+		ReflectionTestUtils.setField(sink, "pidRepository", repository);
+		sink.retryMs = 10;
+		sink.start();
+		sink.correlation(1, "2024-03-05 07:08:09", new double[]{0.5});
+
+		verify(repository, timeout(5000).times(3)).saveResults(anyList(), anyList());
+		sink.stop();
+		verify(repository, times(3)).saveResults(argThat(rows -> rows.size() == 1), anyList());
+	}
+
+	@Test
+	void rowsThatCannotBeWrittenAreIsolatedAndDropped() throws Exception {
+		ObjectMapper objectMapper = new ObjectMapper();
+		List<ResponseBody> responses = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			responses.add(objectMapper.readValue("{\"alarm\":false,\"source\":\"" + i
+					+ "\",\"timestamp\":\"2024-01-01 10:00:00\",\"scores\":[1],\"thresholds\":[\"0.5\"]}", ResponseBody.class));
+		}
+		List<String> written = new ArrayList<>();
+		PidRepository repository = mock(PidRepository.class);
+		doAnswer(invocation -> {
+			List<ResponseBody> batch = invocation.getArgument(1);
+			if (batch.stream().anyMatch(responseBody -> responseBody.getSource().equals("3"))) {
+				throw new SQLException("value out of range for type integer", "22003");
+			}
+			batch.forEach(responseBody -> written.add(responseBody.getSource()));
+			return null;
+		}).when(repository).saveResults(anyList(), anyList());
+		ReflectionTestUtils.setField(sink, "pidRepository", repository);
+		sink.writeBehind = false;
+		sink.retryMs = 10;
+		sink.responses(responses);
+
+		assertEquals(List.of("1", "2", "4", "5"), written);
+		// Not retried: the whole batch, its second half and then the row itself fail once each
+		verify(repository, times(3)).saveResults(anyList(), argThat(batch -> batch.contains(responses.get(2))));
+	}
+
+	@Test
+	void theWriterSurvivesUnexpectedFailures() throws Exception {
+		PidRepository repository = mock(PidRepository.class);
+		doThrow(new IllegalStateException("Bug")).doNothing().when(repository).saveResults(anyList(), anyList());
+		ReflectionTestUtils.setField(sink, "pidRepository", repository);
+		sink.start();
+		sink.correlation(1, "2024-03-05 07:08:09", new double[]{0.5});
+		verify(repository, timeout(5000)).saveResults(anyList(), anyList());
+		sink.correlation(1, "2024-03-05 07:08:10", new double[]{0.6});
+
+		verify(repository, timeout(5000).times(2)).saveResults(anyList(), anyList());
+		sink.stop();
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.navarchos.Navarchos;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SampleGateTest {
+	private final PidAttributesParser parser = new PidAttributesParser(WindowEngine.PIDS);
+	private final int[] gate = KafkaConsumerNavarchos.gateIndices(PidSet.DEFAULT);
+
+	private static PidEvent event(int deviceId, PidAttributes attributes) {
+		return new PidEvent(deviceId, "2024-03-05 07:08:09", 1709622489, "2024-03-05 07:08:09", null, null, "PID", attributes);
+	}
+
+	@Test
+	void appliesTheConfiguredThresholdsAndLanes() {
+		SampleGate sampleGate = new SampleGate();
+		PidAttributes slow = parser.parse("{rpm=900, obdSpeed=15, mapIntake=101, intakeTemp=35, coolantTemp=88, MAFairFlowRate=12.5}");
+		assertEquals(PipelineMetrics.Filter.OBD_SPEED, sampleGate.check(slow, gate));
+		assertEquals(SampleGate.Lane.ARCHIVE, sampleGate.lane(PipelineMetrics.Filter.OBD_SPEED));
+		assertEquals(SampleGate.Lane.WINDOW, sampleGate.lane(null));
+
+		sampleGate.minObdSpeed = 10;
+		assertNull(sampleGate.check(slow, gate));
+		sampleGate.drop = EnumSet.of(PipelineMetrics.Filter.MISSING_PID);
+		assertEquals(SampleGate.Lane.DROP, sampleGate.lane(sampleGate.check(parser.parse("{rpm=900}"), gate)));
+	}
+
+	@Test
+	void dropsSamplesBeforeTheAssignmentAndRawWrite() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		SampleGate sampleGate = new SampleGate();
+		sampleGate.drop = EnumSet.of(PipelineMetrics.Filter.OBD_SPEED);
+		DeviceAssignmentCache assignmentCache = mock(DeviceAssignmentCache.class);
+		when(assignmentCache.get(anyInt())).thenReturn(new int[]{-1, -1, -1});
+		PidRepository pidRepository = mock(PidRepository.class);
+		KafkaConsumerNavarchos consumer = new KafkaConsumerNavarchos();
+		ReflectionTestUtils.setField(consumer, "metrics", new PipelineMetrics(registry));
+		ReflectionTestUtils.setField(consumer, "windowEngine", new WindowEngine());
+		ReflectionTestUtils.setField(consumer, "pdmClient", mock(PdmClient.class));
+		ReflectionTestUtils.setField(consumer, "sampleGate", sampleGate);
+		ReflectionTestUtils.setField(consumer, "assignmentCache", assignmentCache);
+		ReflectionTestUtils.setField(consumer, "pidRepository", pidRepository);
+		ReflectionTestUtils.setField(consumer, "rawPidBuffer", new RawPidBuffer());
+		DeviceDispatcher dispatcher = new DeviceDispatcher();
+		dispatcher.threads = 1;
+		dispatcher.start();
+		ReflectionTestUtils.setField(consumer, "dispatcher", dispatcher);
+		Acknowledgment acknowledgment = mock(Acknowledgment.class);
+
+		// Idling: dropped and acknowledged on the listener thread
+		KafkaConsumerNavarchosTest.consume(consumer, event(1, parser.parse(
+				"{rpm=800, obdSpeed=0, mapIntake=101, intakeTemp=35, coolantTemp=88, MAFairFlowRate=12.5}")), 0, acknowledgment);
+		verify(acknowledgment).acknowledge();
+		verifyNoInteractions(assignmentCache, pidRepository);
+		// Archived only
+		KafkaConsumerNavarchosTest.consume(consumer, event(2, parser.parse(
+				"{rpm=1500, obdSpeed=42, mapIntake=80, intakeTemp=35, coolantTemp=88, MAFairFlowRate=12.5}")), 1, acknowledgment);
+		// Archived and windowed
+		KafkaConsumerNavarchosTest.consume(consumer, event(3, parser.parse(
+				"{rpm=1500, obdSpeed=42, mapIntake=101, intakeTemp=35, coolantTemp=88, MAFairFlowRate=12.5}")), 2, acknowledgment);
+		verify(acknowledgment, timeout(5000).times(3)).acknowledge();
+		dispatcher.stop();
+
+		verify(pidRepository, times(2)).saveRaw(anyList());
+		verify(assignmentCache, never()).get(1);
+		assertEquals(1, registry.get(PipelineMetrics.LANE_COUNTER).tag("lane", "drop").counter().count());
+		assertEquals(1, registry.get(PipelineMetrics.LANE_COUNTER).tag("lane", "archive").counter().count());
+		assertEquals(1, registry.get(PipelineMetrics.LANE_COUNTER).tag("lane", "window").counter().count());
+		assertEquals(1, registry.get(PipelineMetrics.FILTERED_COUNTER).tag("reason", "obd_speed").counter().count());
+		assertEquals(1, registry.get(PipelineMetrics.STAGE_TIMER).tag("stage", "window").timer().count());
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.navarchos.Navarchos;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the PdM API used by the tests.
+ * Scores a feature vector by raising an alarm when its first feature is above 0.5.
+ * The bulk endpoint can be switched off to exercise the one-vector-per-request fallback, and the next
+ * `failures` requests of one vector can be answered with 503, after `delayMs`, to exercise the retries and the queue.
+ */
+class StubPdmServer implements AutoCloseable {
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final HttpServer server;
+	final AtomicInteger singleRequests = new AtomicInteger();
+	final AtomicInteger bulkRequests = new AtomicInteger();
+	final AtomicInteger resetRequests = new AtomicInteger();
+	final AtomicInteger failures = new AtomicInteger();
+	volatile long delayMs;
+
+	StubPdmServer(boolean bulkSupported) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/data", exchange -> {
+			if (exchange.getRequestURI().getPath().equals("/data/bulk")) {
+				if (!bulkSupported) {
+					respond(exchange, 404, "");
+					return;
+				}
+				bulkRequests.incrementAndGet();
+				List<Map<String, Object>> requests = objectMapper.readValue(exchange.getRequestBody(), new TypeReference<>() {
+				});
+				List<Map<String, Object>> responses = new ArrayList<>();
+				for (Map<String, Object> request : requests) {
+					responses.add(score(request));
+				}
+				respond(exchange, 200, objectMapper.writeValueAsString(responses));
+			} else {
+				singleRequests.incrementAndGet();
+				try {
+					Thread.sleep(delayMs);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (failures.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+					exchange.getRequestBody().readAllBytes();
+					respond(exchange, 503, "");
+					return;
+				}
+				Map<String, Object> request = objectMapper.readValue(exchange.getRequestBody(), new TypeReference<>() {
+				});
+				respond(exchange, 200, objectMapper.writeValueAsString(score(request)));
+			}
+		});
+		server.createContext("/event", exchange -> {
+			resetRequests.incrementAndGet();
+			respond(exchange, 200, "{}");
+		});
+		server.start();
+	}
+
+	String url() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	private static Map<String, Object> score(Map<String, Object> request) {
+		List<?> features = (List<?>) request.get("features");
+		double first = ((Number) features.get(0)).doubleValue();
+		Map<String, Object> response = new HashMap<>();
+		response.put("alarm", first > 0.5);
+		response.put("description", "stub");
+		response.put("scores", List.of((int) (first * 100)));
+		response.put("thresholds", List.of("50"));
+		response.put("source", request.get("source"));
+		response.put("timestamp", request.get("timestamp"));
+		return response;
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes();
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,122 @@
+package com.navarchos.Navarchos;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.AcknowledgingMessageListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@EmbeddedKafka(partitions = 2, topics = "PID")
+class WindowCheckpointerTest {
+	private static final int DEVICES = 4;
+
+	private static double[] sample(int device, int i) {
+		return new double[]{device + i, Math.sin(i), i % 7, 3 * i, Math.cos(device * i), i * i % 11};
+	}
+
+	private static WindowEngine engine() {
+		WindowEngine engine = new WindowEngine();
+		engine.correlationWindow = 20;
+		engine.correlationStep = 5;
+		return engine;
+	}
+
+	private static KafkaMessageListenerContainer<String, String> consumer(EmbeddedKafkaBroker broker, WindowEngine engine,
+																		  WindowCheckpointStore store) {
+		DeviceDispatcher dispatcher = new DeviceDispatcher();
+		dispatcher.threads = 1;
+		dispatcher.start();
+		WindowCheckpointer checkpointer = new WindowCheckpointer();
+		ReflectionTestUtils.setField(checkpointer, "windowEngine", engine);
+		ReflectionTestUtils.setField(checkpointer, "checkpointStore", store);
+		ReflectionTestUtils.setField(checkpointer, "dispatcher", dispatcher);
+
+		Map<String, Object> consumerProps = KafkaTestUtils.consumerProps("handover", "false", broker);
+		consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+		ContainerProperties containerProperties = new ContainerProperties("PID");
+		containerProperties.setConsumerRebalanceListener(checkpointer);
+		// Offsets are never committed, so the second consumer re-reads everything the checkpoint contains
+		containerProperties.setAckMode(ContainerProperties.AckMode.MANUAL);
+		containerProperties.setMessageListener((AcknowledgingMessageListener<String, String>) (record, ack) -> {
+			int device = Integer.parseInt(record.key());
+			DeviceWindow window = engine.window(device);
+			if (!window.contains(record.partition(), record.offset())) {
+				window.add(sample(device, Integer.parseInt(record.value())), record.partition(), record.offset());
+			}
+		});
+		return new KafkaMessageListenerContainer<>(new DefaultKafkaConsumerFactory<>(consumerProps), containerProperties);
+	}
+
+	private static void send(EmbeddedKafkaBroker broker, int from, int to) {
+		Map<String, Object> producerProps = KafkaTestUtils.producerProps(broker);
+		producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+		KafkaTemplate<String, String> template = new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(producerProps));
+		for (int i = from; i < to; i++) {
+			for (int device = 1; device <= DEVICES; device++) {
+				template.send("PID", String.valueOf(device), String.valueOf(i));
+			}
+		}
+		template.flush();
+	}
+
+	private static void awaitCount(WindowEngine engine, long count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 30000;
+		while (System.currentTimeMillis() < deadline) {
+			if (engine.devices() == DEVICES && engine.windows().values().stream().allMatch(window -> window.count() == count)) {
+				return;
+			}
+			Thread.sleep(50);
+		}
+		fail("Windows did not reach " + count + " samples");
+	}
+
+	@Test
+	void windowsAreHandedOverWithoutDoubleCounting(EmbeddedKafkaBroker broker) throws Exception {
+		MemoryCheckpointStore store = new MemoryCheckpointStore();
+		send(broker, 0, 30);
+
+		WindowEngine first = engine();
+		KafkaMessageListenerContainer<String, String> firstConsumer = consumer(broker, first, store);
+		firstConsumer.start();
+		awaitCount(first, 30);
+		firstConsumer.stop();
+		assertEquals(0, first.devices());
+		assertEquals(DEVICES, store.checkpoints.size());
+
+		send(broker, 30, 40);
+		WindowEngine second = engine();
+		KafkaMessageListenerContainer<String, String> secondConsumer = consumer(broker, second, store);
+		secondConsumer.start();
+		ContainerTestUtils.waitForAssignment(secondConsumer, 2);
+		awaitCount(second, 40);
+		secondConsumer.stop();
+
+		for (int device = 1; device <= DEVICES; device++) {
+			DeviceWindow expected = new DeviceWindow(6, 20, 5);
+			for (int i = 0; i < 40; i++) {
+				expected.add(sample(device, i));
+			}
+			WindowCheckpoint checkpoint = store.load(device);
+			assertNotNull(checkpoint);
+			DeviceWindow restored = DeviceWindow.fromBytes(checkpoint.state());
+			assertEquals(40, restored.count());
+			assertArrayEquals(expected.columns()[0], restored.columns()[0]);
+			assertArrayEquals(expected.correlations(), restored.correlations(), 1e-9);
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.navarchos.Navarchos;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WindowEngineTest {
+
+	private static double[] sample(int device, int i) {
+		return new double[]{100 + i % 7, 85 + device % 5 + i % 3, 12.5 + i % 11, 40 + i % 13, 30 + i % 4, 1500 + 37 * (i % 17)};
+	}
+
+	private static void fill(WindowEngine engine, int device) throws SQLException {
+		for (int i = 0; i < 50; i++) {
+			double[] values = sample(device, i);
+			long offset = device * 1000L + i;
+			engine.update(device, window -> window.add(values, 0, offset));
+		}
+	}
+
+	@Test
+	void idleWindowsAreSpilledBeyondTheBudgetAndLoadedBack() throws Exception {
+		MemoryCheckpointStore store = new MemoryCheckpointStore();
+		WindowEngine engine = new WindowEngine();
+		ReflectionTestUtils.setField(engine, "checkpointStore", store);
+		engine.memoryBudgetMb = 1;
+		int devices = 200;
+		for (int device = 0; device < devices; device++) {
+			fill(engine, device);
+		}
+		assertTrue(engine.devices() < devices);
+		assertTrue(engine.memoryBytes() <= 1024 * 1024);
+		assertEquals(devices - engine.devices(), engine.evictions(false));
+		// The least recently used devices went first
+		assertFalse(engine.windows().containsKey(0));
+		assertTrue(engine.windows().containsKey(devices - 1));
+
+		engine.stop();
+		assertEquals(0, engine.pendingSpills());
+		assertTrue(store.checkpoints.containsKey(0));
+
+		DeviceWindow reference = new DeviceWindow(PidSet.DEFAULT, 300, 100);
+		for (int i = 0; i < 50; i++) {
+			reference.add(sample(0, i));
+		}
+		DeviceWindow loaded = engine.window(0);
+		assertEquals(1, engine.spillLoads());
+		assertEquals(50, loaded.count());
+		assertTrue(loaded.contains(0, 49));
+		assertArrayEquals(reference.correlations(), loaded.correlations(), 1e-12);
+	}
+
+	@Test
+	void windowsInUseAreNotEvicted() throws Exception {
+		MemoryCheckpointStore store = new MemoryCheckpointStore();
+		WindowEngine engine = new WindowEngine();
+		ReflectionTestUtils.setField(engine, "checkpointStore", store);
+		engine.memoryBudgetMb = 1;
+		engine.update(0, window -> {
+			// Far beyond the budget while device 0 is still being updated
+			for (int device = 1; device < 200; device++) {
+				fill(engine, device);
+			}
+			assertTrue(engine.windows().containsKey(0));
+			window.add(sample(0, 0), 0, 0);
+		});
+		// Most recently used once released; evicted, with its sample, once as many other devices have been used
+		for (int device = 200; device < 400; device++) {
+			fill(engine, device);
+		}
+		engine.stop();
+		assertFalse(engine.windows().containsKey(0));
+		assertEquals(1, DeviceWindow.fromBytes(store.checkpoints.get(0).state()).count());
+	}
+
+	@Test
+	void spillsAreRetriedWhileTheStoreFails() throws Exception {
+		MemoryCheckpointStore store = new MemoryCheckpointStore();
+		store.failures.set(2);
+		WindowEngine engine = new WindowEngine();
+		ReflectionTestUtils.setField(engine, "checkpointStore", store);
+		engine.memoryBudgetMb = 1;
+		engine.spillRetryMs = 10;
+		for (int device = 0; device < 200; device++) {
+			fill(engine, device);
+		}
+		long evicted = engine.evictions(false);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (engine.pendingSpills() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, engine.pendingSpills());
+		assertEquals(0, store.failures.get());
+		assertEquals(evicted, store.checkpoints.size());
+		engine.stop();
+	}
+
+	@Test
+	void floatSamplesHalveTheWindowAndKeepItsSumsConsistent() {
+		DeviceWindow doubles = new DeviceWindow(PidSet.DEFAULT, 300, 100);
+		DeviceWindow floats = new DeviceWindow(PidSet.DEFAULT, 300, 100, true);
+		assertTrue(floats.memoryBytes() < 0.6 * doubles.memoryBytes());
+		for (int i = 0; i < 1000; i++) {
+			double[] values = sample(1, i);
+			values[2] += 0.1 * Math.sin(i);
+			doubles.add(values);
+			floats.add(values);
+		}
+		// After several rebases the running sums of the float window still match its own buffer
+		DeviceWindow restored = DeviceWindow.fromBytes(floats.toBytes());
+		assertTrue(restored.hasFloatSamples());
+		assertArrayEquals(CorrelationKernel.correlations(floats.columns(), floats.size()), floats.correlations(), 1e-9);
+		assertArrayEquals(floats.correlations(), restored.correlations(), 0);
+		assertArrayEquals(doubles.correlations(), floats.correlations(), 1e-5);
+	}
+
+	@Test
+	void windowsAreKeptWithoutABudget() {
+		WindowEngine engine = new WindowEngine();
+		ReflectionTestUtils.setField(engine, "checkpointStore", new MemoryCheckpointStore());
+		assertFalse(engine.spills());
+		for (int device = 0; device < 100; device++) {
+			engine.window(device).add(sample(device, 0));
+		}
+		engine.cleanUp();
+		assertEquals(100, engine.devices());
+		assertEquals(0, engine.evictions(false) + engine.evictions(true));
+	}
+
+}